@@ -0,0 +1,43 @@
+package com.andyadc.lock.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs every lock benchmark, the hot key one at 1 to 64 threads, with the allocation rate ({@code gc.alloc.rate})
+ * reported next to the throughput and the percentiles of the sampled times.
+ * <p>
+ * {@code java -cp target/benchmarks.jar com.andyadc.lock.benchmark.BenchmarkRunner [JMH options]}, the JMH options
+ * such as {@code -p client=pipelined} or {@code -rf json} apply to every run.
+ */
+public final class BenchmarkRunner {
+
+    private static final int[] HOT_KEY_THREADS = {1, 4, 16, 64};
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        new Runner(options(commandLine)
+                .include(SimpleRedisLockBenchmark.class.getName())
+                .build()).run();
+        for (int threads : HOT_KEY_THREADS) {
+            new Runner(options(commandLine)
+                    .include(HotKeyBenchmark.class.getName())
+                    .threads(threads)
+                    .build()).run();
+        }
+    }
+
+    private static ChainedOptionsBuilder options(CommandLineOptions commandLine) {
+        return new OptionsBuilder()
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class);
+    }
+}
@@ -0,0 +1,70 @@
+package com.andyadc.lock.benchmark;
+
+import com.andyadc.lock.SimpleRedisLock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every thread tries to take the same key, and releases it at once when it got it: the cost of a contended attempt,
+ * most of which fail. Run it with {@code -t 1}, {@code -t 16}, {@code -t 64}, or through {@link BenchmarkRunner}.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class HotKeyBenchmark {
+
+    private static final String HOT_KEY = "bench:hot";
+    private static final int EXPIRE_TIME = 10000;
+
+    @Param({LockFixture.POOL, LockFixture.PIPELINED})
+    public String client;
+
+    /**
+     * Whether the attempts on the held key fail locally, see {@link SimpleRedisLock#setNearCacheEnabled(boolean)}
+     */
+    @Param({"false", "true"})
+    public boolean nearCache;
+
+    private LockFixture fixture;
+    private SimpleRedisLock lock;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fixture = new LockFixture(client);
+        lock = fixture.lock();
+        lock.setNearCacheEnabled(nearCache);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    public boolean hotKey() {
+        boolean acquired = lock.tryLock(HOT_KEY, EXPIRE_TIME);
+        if (acquired) {
+            lock.unlock(HOT_KEY);
+        }
+        return acquired;
+    }
+}
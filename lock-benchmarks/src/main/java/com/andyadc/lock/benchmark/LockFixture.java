@@ -0,0 +1,87 @@
+package com.andyadc.lock.benchmark;
+
+import com.andyadc.lock.PipelinedRedisClient;
+import com.andyadc.lock.SimpleRedisLock;
+import com.andyadc.lock.test.EmbeddedRedisServer;
+import com.andyadc.lock.test.LatencyProxy;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Redis server and the lock a benchmark runs against.
+ * <p>
+ * By default the server is an {@link EmbeddedRedisServer}, a redis-server started as a child process, so that the
+ * allocations measured are those of the benchmark alone. Another server is used instead when its host is given,
+ * {@code -Dlock.redis.host=127.0.0.1 -Dlock.redis.port=6379}.
+ * <p>
+ * A latency per round trip is added by a {@link LatencyProxy}, {@code -Dlock.redis.latency=<microseconds>}. The proxy
+ * runs in the benchmark JVM: it allocates nothing per round trip but competes for the CPU, so leave it out when
+ * measuring throughput.
+ */
+final class LockFixture implements Closeable {
+
+    static final String POOL = "pool";
+    static final String PIPELINED = "pipelined";
+
+    private final EmbeddedRedisServer server;
+    private final LatencyProxy proxy;
+    private final JedisPool jedisPool;
+    private final PipelinedRedisClient client;
+    private final SimpleRedisLock lock;
+
+    /**
+     * @param client {@value #POOL} to send the lock commands through the connections of a pool, {@value #PIPELINED}
+     *               through a {@link PipelinedRedisClient}
+     */
+    LockFixture(String client) throws IOException {
+        String host = System.getProperty("lock.redis.host");
+        int port;
+        if (host == null) {
+            server = new EmbeddedRedisServer();
+            host = server.getHost();
+            port = server.getPort();
+        } else {
+            server = null;
+            port = Integer.getInteger("lock.redis.port", 6379);
+        }
+        long latency = Long.getLong("lock.redis.latency", 0L);
+        if (latency > 0L) {
+            proxy = new LatencyProxy(host, port);
+            proxy.setLatency(latency, TimeUnit.MICROSECONDS);
+            host = proxy.getHost();
+            port = proxy.getPort();
+        } else {
+            proxy = null;
+        }
+        JedisPoolConfig config = new JedisPoolConfig();
+        // one connection per benchmark thread at most
+        config.setMaxTotal(128);
+        config.setMaxIdle(128);
+        this.jedisPool = new JedisPool(config, host, port);
+        this.client = PIPELINED.equals(client) ? new PipelinedRedisClient(host, port) : null;
+        this.lock = new SimpleRedisLock(jedisPool, this.client);
+    }
+
+    SimpleRedisLock lock() {
+        return lock;
+    }
+
+    @Override
+    public void close() {
+        lock.releaseAll();
+        if (client != null) {
+            client.close();
+        }
+        jedisPool.close();
+        if (proxy != null) {
+            proxy.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.andyadc.lock.benchmark;
+
+import com.andyadc.lock.SimpleRedisLock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The lock and unlock round trips of {@link SimpleRedisLock} without contention: each thread locks a key of its own,
+ * or a key drawn among many, so that the threads rarely meet.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SimpleRedisLockBenchmark {
+
+    private static final int EXPIRE_TIME = 10000;
+
+    @Param({LockFixture.POOL, LockFixture.PIPELINED})
+    public String client;
+
+    /**
+     * The number of keys the many-key benchmark spreads over
+     */
+    @Param({"10000"})
+    public int keyCount;
+
+    private LockFixture fixture;
+    private SimpleRedisLock lock;
+    private String[] keys;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fixture = new LockFixture(client);
+        lock = fixture.lock();
+        keys = new String[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = "bench:spread:" + i;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean uncontended(ThreadKey threadKey) {
+        lock.tryLock(threadKey.key, EXPIRE_TIME);
+        return lock.unlock(threadKey.key);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public boolean manyKeys() {
+        String key = keys[ThreadLocalRandom.current().nextInt(keys.length)];
+        boolean acquired = lock.tryLock(key, EXPIRE_TIME);
+        if (acquired) {
+            lock.unlock(key);
+        }
+        return acquired;
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadKey {
+        private final String key = "bench:uncontended:" + Thread.currentThread().getId();
+    }
+}
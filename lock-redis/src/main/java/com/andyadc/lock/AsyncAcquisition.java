@@ -0,0 +1,123 @@
+package com.andyadc.lock;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * A pending asynchronous acquisition.
+ * <p>
+ * No thread waits for the lock: an attempt is sent to Redis on the executor when the acquisition is woken up, either
+ * by a release published on the channel of the lock or by a timeout of the {@link HashedWheelTimer}, whichever comes
+ * first. In between, the acquisition is only a few objects on the heap.
+ */
+final class AsyncAcquisition implements Runnable {
+
+    private final Supplier<Long> attempt;
+    private final BackoffStrategy backoff;
+    private final Runnable rollback;
+    private final Executor executor;
+    private final HashedWheelTimer timer = HashedWheelTimer.shared();
+    private final long deadline;
+    private final long waitNanos;
+
+    final CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+    /**
+     * Set while an attempt is queued or running, so that concurrent wake ups run a single attempt
+     */
+    private final AtomicBoolean running = new AtomicBoolean();
+    /**
+     * Set by a wake up which came while an attempt was running
+     */
+    private volatile boolean woken;
+    private volatile HashedWheelTimer.Timeout timeout;
+
+    /*accessed by the running attempt only*/
+    private int attempts;
+    private long delay;
+
+    /**
+     * @param waitNanos the maximum time to wait, negative to wait forever
+     * @param rollback  releases the lock when it is acquired after the future was completed, by a cancellation
+     */
+    AsyncAcquisition(long waitNanos, Supplier<Long> attempt, BackoffStrategy backoff, Runnable rollback,
+                     Executor executor) {
+        this.attempt = attempt;
+        this.backoff = backoff;
+        this.rollback = rollback;
+        this.executor = executor;
+        this.waitNanos = waitNanos;
+        this.deadline = System.nanoTime() + waitNanos;
+    }
+
+    /**
+     * Runs an attempt soon, unless one is already running.
+     */
+    void wake() {
+        woken = true;
+        if (future.isDone() || !running.compareAndSet(false, true)) {
+            return;
+        }
+        HashedWheelTimer.Timeout timeout = this.timeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        try {
+            executor.execute(this);
+        } catch (RuntimeException e) {
+            running.set(false);
+            future.completeExceptionally(e);
+        }
+    }
+
+    @Override
+    public void run() {
+        woken = false;
+        if (future.isDone()) {
+            return;
+        }
+        Long ttl;
+        try {
+            ttl = attempt.get();
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            return;
+        }
+        if (ttl == null) {
+            if (!future.complete(true)) {
+                rollback.run();
+            }
+            return;
+        }
+        park(ttl);
+    }
+
+    /**
+     * Schedules the next attempt after a failed one, unless it has to give up.
+     *
+     * @param ttl the remaining TTL of the holder observed by the failed attempt
+     */
+    void park(long ttl) {
+        long remaining = deadline - System.nanoTime();
+        if (waitNanos > 0L && remaining <= 0L) {
+            future.complete(false);
+            return;
+        }
+
+        delay = backoff.delay(++attempts, delay, ttl);
+        long parkNanos = delay >= 0L ? TimeUnit.MILLISECONDS.toNanos(delay) : Long.MAX_VALUE;
+        if (waitNanos > 0L) {
+            parkNanos = Math.min(parkNanos, remaining);
+        }
+        running.set(false);
+        if (woken) {
+            // a release was published while we were trying
+            wake();
+        } else if (parkNanos != Long.MAX_VALUE) {
+            timeout = timer.newTimeout(this::wake, parkNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+}
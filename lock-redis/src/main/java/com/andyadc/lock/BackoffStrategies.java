@@ -0,0 +1,54 @@
+package com.andyadc.lock;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Chooses the {@link BackoffStrategy} of a key by its prefix: the strategy registered for the longest prefix of the
+ * key applies, the default strategy applies to the keys no registered prefix matches.
+ */
+public final class BackoffStrategies {
+
+    private final Map<String, BackoffStrategy> strategies = new ConcurrentHashMap<>();
+    private volatile BackoffStrategy defaultStrategy = TtlAwareBackoff.INSTANCE;
+
+    /**
+     * Sets the strategy of the keys starting with the given prefix.
+     *
+     * @param keyPrefix the prefix of the keys, as given to the lock, without the {@code lock:} namespace
+     * @param strategy  the strategy of those keys, null to remove it
+     */
+    public void register(String keyPrefix, BackoffStrategy strategy) {
+        if (strategy == null) {
+            strategies.remove(keyPrefix);
+        } else {
+            strategies.put(keyPrefix, strategy);
+        }
+    }
+
+    /**
+     * Sets the strategy of the keys no registered prefix matches, {@link TtlAwareBackoff} by default.
+     */
+    public void setDefault(BackoffStrategy strategy) {
+        if (strategy == null) {
+            throw new NullPointerException("strategy");
+        }
+        this.defaultStrategy = strategy;
+    }
+
+    /**
+     * @return the strategy of the key
+     */
+    public BackoffStrategy forKey(String key) {
+        BackoffStrategy strategy = defaultStrategy;
+        int matched = -1;
+        for (Map.Entry<String, BackoffStrategy> entry : strategies.entrySet()) {
+            String prefix = entry.getKey();
+            if (prefix.length() > matched && key.startsWith(prefix)) {
+                strategy = entry.getValue();
+                matched = prefix.length();
+            }
+        }
+        return strategy;
+    }
+}
@@ -0,0 +1,27 @@
+package com.andyadc.lock;
+
+/**
+ * Decides how long a party waits between two attempts to acquire a lock which is held by another party.
+ * <p>
+ * Parties waiting on a Redis lock are woken up as soon as the holder publishes its release, whatever the strategy:
+ * the delay only bounds the wait when no release is published, because the holder crashed, its lease expired or
+ * the notification was lost. Longer delays save Redis operations on contended keys; shorter delays get a crashed
+ * holder's lock sooner. {@link RedLock}, which is not notified, waits for the full delay.
+ * <p>
+ * Implementations must be thread-safe: a strategy is shared by all the waiters of the keys it applies to.
+ *
+ * @see BackoffStrategies
+ */
+public interface BackoffStrategy {
+
+    /**
+     * Returns the time to wait before the next attempt.
+     *
+     * @param attempt       the number of failed attempts so far, starting at 1
+     * @param previousDelay the delay returned for the previous attempt, 0 on the first attempt
+     * @param ttl           the remaining TTL of the holder observed by the last attempt in milliseconds, negative if
+     *                      the holder has no TTL or if it is unknown
+     * @return the delay in milliseconds, negative to wait for the release of the holder without bound
+     */
+    long delay(int attempt, long previousDelay, long ttl);
+}
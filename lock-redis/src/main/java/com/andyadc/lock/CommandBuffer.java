@@ -0,0 +1,123 @@
+package com.andyadc.lock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The binary arguments of a command, written one after the other into a reusable array.
+ * <p>
+ * Each thread has a buffer of its own, see {@link #get()}: once it has grown to the size of the largest command of
+ * the thread, building a command allocates nothing. A buffer must not be used again by its thread before the command
+ * it holds has been sent.
+ */
+final class CommandBuffer {
+
+    private static final ThreadLocal<CommandBuffer> BUFFERS = ThreadLocal.withInitial(CommandBuffer::new);
+
+    private byte[] bytes = new byte[256];
+    /**
+     * The start of each argument, followed by the end of the last one
+     */
+    private int[] offsets = new int[16];
+    private int size;
+
+    private CommandBuffer() {
+    }
+
+    /**
+     * @return the buffer of the current thread, emptied
+     */
+    static CommandBuffer get() {
+        CommandBuffer buffer = BUFFERS.get();
+        buffer.size = 0;
+        buffer.offsets[0] = 0;
+        return buffer;
+    }
+
+    CommandBuffer add(byte[] arg) {
+        return add(arg, null);
+    }
+
+    /**
+     * Adds an argument made of a prefix followed by a value, such as a key and its namespace.
+     */
+    CommandBuffer add(byte[] prefix, byte[] value) {
+        int length = prefix.length + (value == null ? 0 : value.length);
+        int start = begin(length);
+        System.arraycopy(prefix, 0, bytes, start, prefix.length);
+        if (value != null) {
+            System.arraycopy(value, 0, bytes, start + prefix.length, value.length);
+        }
+        return end(start + length);
+    }
+
+    /**
+     * Adds a number, in decimal.
+     */
+    CommandBuffer add(long value) {
+        int start = begin(20);
+        int position = start;
+        if (value < 0) {
+            bytes[position++] = '-';
+        }
+        long divisor = 1;
+        while (Math.abs(value / divisor) >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            bytes[position++] = (byte) ('0' + Math.abs(value / divisor % 10));
+        }
+        return end(position);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the array holding the arguments, valid until the next argument is added
+     */
+    byte[] array() {
+        return bytes;
+    }
+
+    int offset(int index) {
+        return offsets[index];
+    }
+
+    int length(int index) {
+        return offsets[index + 1] - offsets[index];
+    }
+
+    /**
+     * Copies the arguments in the given range, for the APIs which need them as arrays of their own.
+     */
+    List<byte[]> copy(int from, int to) {
+        List<byte[]> copies = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            copies.add(copy(i));
+        }
+        return copies;
+    }
+
+    byte[] copy(int index) {
+        return Arrays.copyOfRange(bytes, offsets[index], offsets[index + 1]);
+    }
+
+    private int begin(int length) {
+        int start = offsets[size];
+        if (start + length > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, start + length));
+        }
+        if (size + 2 > offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        return start;
+    }
+
+    private CommandBuffer end(int end) {
+        offsets[++size] = end;
+        return this;
+    }
+}
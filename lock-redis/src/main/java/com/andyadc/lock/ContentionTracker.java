@@ -0,0 +1,285 @@
+package com.andyadc.lock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Finds the most contended lock keys: the keys whose acquisitions fail, or wait, the most.
+ * <p>
+ * The keys are counted with the Space-Saving algorithm, in a fixed number of counters however many keys there are.
+ * A key without a counter takes over the one with the fewest failures, and inherits its count: the failures of a
+ * key are thus overestimated by at most its {@link KeyContention#getError() error}, and any key which caused more than
+ * {@code 1 / capacity} of all the failures is sure to hold a counter. The wait time of a key is counted from the time
+ * it got its counter.
+ * <p>
+ * The counters are kept in a binary min-heap ordered by failures besides the map by key, so that recording takes
+ * {@code O(log capacity)} time under the monitor: the counter to take over is always the root of the heap.
+ * <p>
+ * A key is flagged as hot once its guaranteed failures, or its wait time, cross the threshold; the listener is called
+ * once per hot key, on the thread which recorded the failure. The counts accumulate until {@link #reset()}, which
+ * starts a new window.
+ *
+ * @see SimpleRedisLock#setContentionTracker(ContentionTracker)
+ */
+public final class ContentionTracker {
+
+    private static final Comparator<KeyContention> BY_FAILURES =
+            Comparator.comparingLong(KeyContention::getFailures).reversed();
+
+    private final int capacity;
+    /*guarded by this*/
+    private final Map<String, Counter> counters;
+    /*guarded by this*/
+    private final Counter[] heap;
+    /*guarded by this*/
+    private int size;
+    /*guarded by this*/
+    private final Set<String> hotKeys = new HashSet<>();
+
+    private volatile long failureThreshold = Long.MAX_VALUE;
+    private volatile long waitThresholdNanos = Long.MAX_VALUE;
+    private volatile Consumer<KeyContention> listener;
+
+    /**
+     * @param capacity the number of keys counted at once, the hottest keys can be told apart among that many
+     */
+    public ContentionTracker(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.counters = new HashMap<>(capacity * 2);
+        this.heap = new Counter[capacity];
+    }
+
+    /**
+     * Sets the contention above which a key is hot, none by default.
+     *
+     * @param failures the number of failed attempts, {@link Long#MAX_VALUE} for no threshold
+     * @param waitTime the time spent waiting for the key, {@link Long#MAX_VALUE} for no threshold
+     * @param unit     the time unit of the {@code waitTime} argument
+     */
+    public void setThreshold(long failures, long waitTime, TimeUnit unit) {
+        if (failures <= 0L) {
+            throw new IllegalArgumentException("Failure threshold must be positive: " + failures);
+        }
+        if (waitTime <= 0L) {
+            throw new IllegalArgumentException("Wait threshold must be positive: " + waitTime);
+        }
+        this.failureThreshold = failures;
+        this.waitThresholdNanos = waitTime == Long.MAX_VALUE ? Long.MAX_VALUE : unit.toNanos(waitTime);
+    }
+
+    /**
+     * @param listener called once with the contention of each key which becomes hot, null for none
+     */
+    public void setListener(Consumer<KeyContention> listener) {
+        this.listener = listener;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Records the contention met by an acquisition.
+     *
+     * @param key       the key of the lock, as given to the lock
+     * @param failures  the number of failed attempts
+     * @param waitNanos the time spent waiting for the lock, in nanoseconds
+     */
+    public void record(String key, long failures, long waitNanos) {
+        KeyContention hot = null;
+        synchronized (this) {
+            Counter counter = counters.get(key);
+            if (counter == null) {
+                counter = size < capacity ? add(key) : evict(key);
+                counters.put(key, counter);
+            }
+            counter.failures += failures;
+            counter.waitNanos += waitNanos;
+            siftDown(counter.index);
+            if ((counter.failures - counter.error >= failureThreshold || counter.waitNanos >= waitThresholdNanos)
+                    && hotKeys.add(key)) {
+                hot = counter.snapshot();
+            }
+        }
+        Consumer<KeyContention> listener = this.listener;
+        if (hot != null && listener != null) {
+            listener.accept(hot);
+        }
+    }
+
+    /**
+     * @param k the maximum number of keys to return
+     * @return the contention of the {@code k} keys with the most failures, the most contended first
+     */
+    public List<KeyContention> topKeys(int k) {
+        List<KeyContention> top = new ArrayList<>();
+        synchronized (this) {
+            for (int i = 0; i < size; i++) {
+                top.add(heap[i].snapshot());
+            }
+        }
+        top.sort(BY_FAILURES);
+        return top.size() > k ? new ArrayList<>(top.subList(0, k)) : top;
+    }
+
+    /**
+     * @return the keys whose contention crossed the threshold since the last reset
+     */
+    public synchronized Set<String> getHotKeys() {
+        return Collections.unmodifiableSet(new HashSet<>(hotKeys));
+    }
+
+    /**
+     * @return true if the contention of the key crossed the threshold since the last reset
+     */
+    public synchronized boolean isHot(String key) {
+        return hotKeys.contains(key);
+    }
+
+    /**
+     * Forgets every count and every hot key, to start a new window.
+     */
+    public synchronized void reset() {
+        counters.clear();
+        Arrays.fill(heap, 0, size, null);
+        size = 0;
+        hotKeys.clear();
+    }
+
+    /**
+     * Adds a counter for a key which has none, while some are left.
+     */
+    private Counter add(String key) {
+        Counter counter = new Counter(key, 0L);
+        counter.index = size;
+        heap[size++] = counter;
+        siftUp(counter.index);
+        return counter;
+    }
+
+    /**
+     * Takes the counter with the fewest failures, the root of the heap, over for a key which has none.
+     */
+    private Counter evict(String key) {
+        Counter min = heap[0];
+        counters.remove(min.key);
+        Counter counter = new Counter(key, min.failures);
+        heap[0] = counter;
+        return counter;
+    }
+
+    private void siftUp(int index) {
+        Counter counter = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (heap[parent].failures <= counter.failures) {
+                break;
+            }
+            place(heap[parent], index);
+            index = parent;
+        }
+        place(counter, index);
+    }
+
+    private void siftDown(int index) {
+        Counter counter = heap[index];
+        for (int child; (child = 2 * index + 1) < size; index = child) {
+            if (child + 1 < size && heap[child + 1].failures < heap[child].failures) {
+                child++;
+            }
+            if (counter.failures <= heap[child].failures) {
+                break;
+            }
+            place(heap[child], index);
+        }
+        place(counter, index);
+    }
+
+    private void place(Counter counter, int index) {
+        heap[index] = counter;
+        counter.index = index;
+    }
+
+    /**
+     * The contention of a key at a point in time.
+     */
+    public static final class KeyContention {
+
+        private final String key;
+        private final long failures;
+        private final long error;
+        private final long waitNanos;
+
+        KeyContention(String key, long failures, long error, long waitNanos) {
+            this.key = key;
+            this.failures = failures;
+            this.error = error;
+            this.waitNanos = waitNanos;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return the number of failed attempts, overestimated by at most {@link #getError()}
+         */
+        public long getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return the most the number of failures can be overestimated by
+         */
+        public long getError() {
+            return error;
+        }
+
+        /**
+         * @return the time spent waiting for the key, in milliseconds
+         */
+        public double getWaitMillis() {
+            return waitNanos / (double) TimeUnit.MILLISECONDS.toNanos(1L);
+        }
+
+        @Override
+        public String toString() {
+            return "KeyContention{key=" + key + ", failures=" + failures + ", error=" + error
+                    + ", waitMillis=" + getWaitMillis() + '}';
+        }
+    }
+
+    private static final class Counter {
+
+        private final String key;
+        private final long error;
+        private long failures;
+        private long waitNanos;
+        /**
+         * The position of the counter in the heap
+         */
+        private int index;
+
+        private Counter(String key, long error) {
+            this.key = key;
+            this.error = error;
+            this.failures = error;
+        }
+
+        private KeyContention snapshot() {
+            return new KeyContention(key, failures, error, waitNanos);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.andyadc.lock;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decorrelated jitter: each delay is drawn uniformly between {@code baseDelay} and three times the previous delay,
+ * bounded by {@code maxDelay}. Delays grow like an exponential backoff, but the waiters of the same key drift apart
+ * instead of retrying in step.
+ * <p>
+ * <URL>https://aws.amazon.com/blogs/architecture/exponential-backoff-and-jitter/</URL>
+ */
+public final class DecorrelatedJitterBackoff implements BackoffStrategy {
+
+    private final long baseDelay;
+    private final long maxDelay;
+
+    /**
+     * @param baseDelay the lower bound of every delay, in milliseconds
+     * @param maxDelay  the upper bound of every delay, in milliseconds
+     */
+    public DecorrelatedJitterBackoff(long baseDelay, long maxDelay) {
+        if (baseDelay <= 0L || maxDelay < baseDelay) {
+            throw new IllegalArgumentException("Invalid delays: base " + baseDelay + ", max " + maxDelay);
+        }
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    @Override
+    public long delay(int attempt, long previousDelay, long ttl) {
+        long upper = Math.max(baseDelay, Math.min(maxDelay / 3L, previousDelay) * 3L);
+        return Math.min(maxDelay, ThreadLocalRandom.current().nextLong(baseDelay, upper + 1L));
+    }
+}
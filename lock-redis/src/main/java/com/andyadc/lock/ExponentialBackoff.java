@@ -0,0 +1,34 @@
+package com.andyadc.lock;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with full jitter: the n-th delay is drawn uniformly between 1 and
+ * {@code min(maxDelay, baseDelay * 2^(n-1))} milliseconds.
+ * <p>
+ * <URL>https://aws.amazon.com/blogs/architecture/exponential-backoff-and-jitter/</URL>
+ */
+public final class ExponentialBackoff implements BackoffStrategy {
+
+    private final long baseDelay;
+    private final long maxDelay;
+
+    /**
+     * @param baseDelay the bound of the first delay, in milliseconds
+     * @param maxDelay  the bound of every delay, in milliseconds
+     */
+    public ExponentialBackoff(long baseDelay, long maxDelay) {
+        if (baseDelay <= 0L || maxDelay < baseDelay) {
+            throw new IllegalArgumentException("Invalid delays: base " + baseDelay + ", max " + maxDelay);
+        }
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    @Override
+    public long delay(int attempt, long previousDelay, long ttl) {
+        int shift = Math.min(attempt - 1, Long.numberOfLeadingZeros(baseDelay) - 1);
+        long bound = Math.min(maxDelay, baseDelay << shift);
+        return ThreadLocalRandom.current().nextLong(1L, bound + 1L);
+    }
+}
@@ -0,0 +1,201 @@
+package com.andyadc.lock;
+
+import redis.clients.jedis.JedisPool;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * A Redis-based implementation of a <i>fair</i> mutex Lock.
+ * <p>
+ * Parties which fail to acquire the lock are queued in a Redis list, and the lock is granted in queue order:
+ * on release the lock is handed over directly to the first waiter, and only that waiter is notified, on its own
+ * channel. There is no race between the waiters on release, so no waiter can starve and a release wakes up a single
+ * party instead of all of them.
+ * <p>
+ * Each waiter refreshes its timeout in a sorted set while it waits. Waiters whose timeout has passed, because they
+ * crashed or gave up without leaving the queue, are skipped. A waiter which gives up leaves the queue, passing the
+ * lock on if it was handed over to it in the meantime.
+ * <p>
+ * The lock is leased for {@link #getLeaseTime()} and renewed by the {@link LeaseWatchdog} while it is held. It is
+ * <i>not</i> reentrant: a thread which attempts to acquire it again before releasing it will wait for itself.
+ */
+public class FairRedisLock implements Lock {
+
+    private static final String LOCK_KEY_PREFIX = "lock:";
+    private static final String QUEUE_KEY_PREFIX = "lock-queue:";
+    private static final String TIMEOUT_KEY_PREFIX = "lock-timeout:";
+    private static final String LOCK_CHANNEL_PREFIX = "lock:channel:";
+    private static final String UNLOCK_MESSAGE = "0";
+    private static final int DEFAULT_LEASE_TIME = 10000;
+    private static final Long RELEASE_SUCCESS = 1L;
+
+    /**
+     * A waiter which did not refresh its timeout for that long is dropped from the queue
+     */
+    private static final int WAITER_TIMEOUT = 5000;
+    private static final long WAITER_REFRESH = WAITER_TIMEOUT / 2;
+
+    private static final RedisScript LOCK_SCRIPT = RedisScript.fromClasspath("fair-lock.lua");
+    private static final RedisScript UNLOCK_SCRIPT = RedisScript.fromClasspath("fair-unlock.lua");
+
+    private static final String CLIENT_ID = UUID.randomUUID().toString();
+
+    private final String lockKey;
+    private final List<String> keys;
+    private final String channelPrefix;
+    private final int leaseTime;
+    private final ScriptRegistry scriptRegistry;
+    private final LockReleaseSubscriber subscriber;
+    private final LeaseWatchdog watchdog;
+
+    /**
+     * Constructs a new Lock on the specified key.
+     *
+     * @param lockKey   the key to lock on
+     * @param jedisPool the pool to use
+     */
+    public FairRedisLock(String lockKey, JedisPool jedisPool) {
+        this(lockKey, jedisPool, DEFAULT_LEASE_TIME);
+    }
+
+    /**
+     * Constructs a new Lock on the specified key.
+     *
+     * @param lockKey   the key to lock on
+     * @param jedisPool the pool to use
+     * @param leaseTime the lease of the lock, renewed while it is held, in milliseconds
+     */
+    public FairRedisLock(String lockKey, JedisPool jedisPool, int leaseTime) {
+        if (leaseTime <= 0) {
+            throw new IllegalArgumentException("Lease time must be positive: " + leaseTime);
+        }
+        this.lockKey = LOCK_KEY_PREFIX + lockKey;
+        this.keys = Arrays.asList(this.lockKey, QUEUE_KEY_PREFIX + lockKey, TIMEOUT_KEY_PREFIX + lockKey);
+        this.channelPrefix = LOCK_CHANNEL_PREFIX + lockKey + ":";
+        this.leaseTime = leaseTime;
+        this.scriptRegistry = ScriptRegistry.forPool(jedisPool);
+        this.subscriber = LockReleaseSubscriber.forPool(jedisPool);
+        this.watchdog = LeaseWatchdog.forPool(jedisPool);
+    }
+
+    @Override
+    public final void lock() {
+        boolean interrupted = false;
+        for (; ; ) {
+            try {
+                acquire(-1L);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public final void lockInterruptibly() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        acquire(-1L);
+    }
+
+    /**
+     * Acquires the lock only if it is free and no other party is waiting for it.
+     */
+    @Override
+    public final boolean tryLock() {
+        String owner = getOwner();
+        if (acquireInner(owner, false) != null) {
+            return false;
+        }
+        watchdog.watch(lockKey, owner, leaseTime);
+        return true;
+    }
+
+    @Override
+    public final boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        return acquire(unit.toNanos(time));
+    }
+
+    /**
+     * Releases the lock, handing it over to the longest waiting party if there is one.
+     *
+     * @throws IllegalMonitorStateException if the current thread does not own the lock, or if its lease was lost
+     *                                      before it could be released
+     */
+    @Override
+    public final void unlock() {
+        String owner = getOwner();
+        watchdog.unwatch(lockKey, owner);
+        if (!releaseInner(owner)) {
+            throw new IllegalMonitorStateException("Attempting to unlock " + lockKey + " without owning it");
+        }
+    }
+
+    /**
+     * Conditions are not supported.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public Condition newCondition() {
+        throw new UnsupportedOperationException("Conditions are not supported by " + getClass().getSimpleName());
+    }
+
+    /**
+     * @return the lease of the lock, in milliseconds
+     */
+    public int getLeaseTime() {
+        return leaseTime;
+    }
+
+    private boolean acquire(long waitNanos) throws InterruptedException {
+        String owner = getOwner();
+        boolean acquired = false;
+        try {
+            acquired = subscriber.acquire(channelPrefix + owner, waitNanos, () -> {
+                Long ttl = acquireInner(owner, true);
+                if (ttl == null) {
+                    return null;
+                }
+                // wake up in time to refresh the timeout of our queue entry
+                return ttl < 0L ? WAITER_REFRESH : Math.min(ttl, WAITER_REFRESH);
+            });
+        } finally {
+            if (!acquired) {
+                // leave the queue, passing the lock on if it was handed over to us in the meantime
+                releaseInner(owner);
+            }
+        }
+        if (acquired) {
+            watchdog.watch(lockKey, owner, leaseTime);
+        }
+        return acquired;
+    }
+
+    private Long acquireInner(String owner, boolean enqueue) {
+        return (Long) scriptRegistry.eval(LOCK_SCRIPT, keys, Arrays.asList(owner, String.valueOf(leaseTime),
+                String.valueOf(WAITER_TIMEOUT), enqueue ? "1" : "0"));
+    }
+
+    private boolean releaseInner(String owner) {
+        Object result = scriptRegistry.eval(UNLOCK_SCRIPT, keys, Arrays.asList(owner, String.valueOf(WAITER_TIMEOUT),
+                channelPrefix, UNLOCK_MESSAGE));
+        return RELEASE_SUCCESS.equals(result);
+    }
+
+    private static String getOwner() {
+        return CLIENT_ID + ":" + Thread.currentThread().getId();
+    }
+}
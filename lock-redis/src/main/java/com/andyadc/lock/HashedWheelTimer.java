@@ -0,0 +1,162 @@
+package com.andyadc.lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A timer that keeps its tasks in a wheel of buckets, one bucket per tick.
+ * <p>
+ * Scheduling and cancelling a task is O(1) and the timer is driven by a single daemon thread whatever the number of
+ * pending tasks, at the price of a precision of one tick. This fits timeouts that are mostly cancelled or that do
+ * not need to fire exactly on time, such as lease renewals and wait deadlines.
+ * <p>
+ * Tasks run on the timer thread and must therefore be short: a slow task delays every other task of the timer.
+ */
+final class HashedWheelTimer {
+
+    private static final Logger logger = LoggerFactory.getLogger(HashedWheelTimer.class);
+
+    private static final long DEFAULT_TICK_MILLIS = 10L;
+    private static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private static volatile HashedWheelTimer shared;
+
+    private final long tickNanos;
+    private final Queue<Timeout>[] wheel;
+    private final int mask;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    /*accessed by the worker thread only*/
+    private long tick;
+    private final long startTime;
+
+    HashedWheelTimer(long tickDuration, TimeUnit unit, int wheelSize, String threadName) {
+        if (Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("Wheel size must be a power of two: " + wheelSize);
+        }
+        this.tickNanos = unit.toNanos(tickDuration);
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Queue<Timeout>[] wheel = new Queue[wheelSize];
+        this.wheel = wheel;
+        for (int i = 0; i < wheelSize; i++) {
+            wheel[i] = new ArrayDeque<>();
+        }
+        this.mask = wheelSize - 1;
+        this.startTime = System.nanoTime();
+        this.worker = new Thread(this::run, threadName);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * The timer shared by every Redis lock of the JVM.
+     */
+    static HashedWheelTimer shared() {
+        HashedWheelTimer timer = shared;
+        if (timer == null) {
+            synchronized (HashedWheelTimer.class) {
+                timer = shared;
+                if (timer == null) {
+                    shared = timer = new HashedWheelTimer(DEFAULT_TICK_MILLIS, TimeUnit.MILLISECONDS,
+                            DEFAULT_WHEEL_SIZE, "lock-redis-timer");
+                }
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * Schedules the task to run once, after the given delay.
+     */
+    Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(task, System.nanoTime() - startTime + unit.toNanos(Math.max(0L, delay)));
+        pending.add(timeout);
+        return timeout;
+    }
+
+    private void run() {
+        for (; ; ) {
+            long deadline = tickNanos * (tick + 1);
+            long sleepNanos = deadline - (System.nanoTime() - startTime);
+            if (sleepNanos > 0L) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    logger.warn("Timer thread interrupted, ignoring", e);
+                    continue;
+                }
+            }
+            transferPending();
+            expire(wheel[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            // never schedule into the past, an overdue task fires on the current tick
+            long ticks = Math.max(timeout.deadline / tickNanos, tick);
+            timeout.rounds = (ticks - tick) / wheel.length;
+            wheel[(int) (ticks & mask)].add(timeout);
+        }
+    }
+
+    private void expire(Queue<Timeout> bucket) {
+        for (Iterator<Timeout> it = bucket.iterator(); it.hasNext(); ) {
+            Timeout timeout = it.next();
+            if (timeout.cancelled) {
+                it.remove();
+            } else if (timeout.rounds <= 0L) {
+                it.remove();
+                timeout.expire();
+            } else {
+                timeout.rounds--;
+            }
+        }
+    }
+
+    /**
+     * Handle to a scheduled task.
+     */
+    static final class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        /*accessed by the worker thread only*/
+        private long rounds;
+        private volatile boolean cancelled;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Prevents the task from running if it has not run yet.
+         */
+        void cancel() {
+            cancelled = true;
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void expire() {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                logger.warn("Timer task {} threw an exception", task, t);
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.andyadc.lock;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers which locks are held by another party, so that the attempts to acquire them fail locally instead of
+ * asking Redis again.
+ * <p>
+ * When an attempt fails, the remaining TTL returned by Redis tells until when the lock is held at most: it is recorded
+ * against the release channel of the lock, which this cache subscribes to. A record is trusted until that time, unless
+ * a release was published on the channel in the meantime. Releases are counted by the {@link LockReleaseSubscriber}:
+ * the count is read before the attempt and compared on every lookup, so a release published while the attempt was in
+ * flight is not missed. Until the channel is subscribed, and whenever the subscription is lost, records are not
+ * trusted.
+ * <p>
+ * There is one cache per subscriber, shared by all the locks of its pool.
+ */
+final class HeldLockCache {
+
+    /**
+     * Keys beyond that many are not cached, to bound the number of subscribed channels
+     */
+    private static final int MAX_SIZE = 10000;
+
+    private final LockReleaseSubscriber subscriber;
+    private final HashedWheelTimer timer = HashedWheelTimer.shared();
+    private final Map<String, Record> records = new ConcurrentHashMap<>();
+
+    HeldLockCache(LockReleaseSubscriber subscriber) {
+        this.subscriber = subscriber;
+    }
+
+    /**
+     * @param channel the release channel of the lock
+     * @return the time the lock is still known to be held for, in milliseconds, null if it is not known to be held
+     */
+    Long heldFor(String channel) {
+        Record record = records.get(channel);
+        if (record == null) {
+            return null;
+        }
+        State state = record.state;
+        long remaining = state.expiresAt - System.nanoTime();
+        if (remaining <= 0L || state.releases < 0L || state.releases != subscriber.releases(channel)) {
+            return null;
+        }
+        return Math.max(TimeUnit.NANOSECONDS.toMillis(remaining), 1L);
+    }
+
+    /**
+     * Reads the release count of the channel, before an attempt whose result may be recorded.
+     *
+     * @return the stamp to pass to {@link #held}
+     */
+    long stamp(String channel) {
+        return subscriber.releases(channel);
+    }
+
+    /**
+     * Records that an attempt found the lock held.
+     *
+     * @param channel the release channel of the lock
+     * @param ttl     the remaining TTL of the lock, in milliseconds
+     * @param stamp   the release count read before the attempt
+     */
+    void held(String channel, long ttl, long stamp) {
+        if (ttl <= 0L) {
+            return;
+        }
+        State state = new State(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttl), stamp);
+        Record record = records.get(channel);
+        if (record != null) {
+            record.state = state;
+            return;
+        }
+        if (records.size() >= MAX_SIZE) {
+            return;
+        }
+        record = new Record(state);
+        if (records.putIfAbsent(channel, record) != null) {
+            return;
+        }
+        // keep the channel subscribed while the record lives, so that releases are counted
+        record.entry = subscriber.subscribe(channel);
+        schedule(channel, record, ttl);
+    }
+
+    private void schedule(String channel, Record record, long delay) {
+        timer.newTimeout(() -> expire(channel, record), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void expire(String channel, Record record) {
+        long remaining = record.state.expiresAt - System.nanoTime();
+        if (remaining > 0L) {
+            // refreshed since
+            schedule(channel, record, Math.max(TimeUnit.NANOSECONDS.toMillis(remaining), 1L));
+        } else if (records.remove(channel, record)) {
+            subscriber.unsubscribe(channel, record.entry);
+        }
+    }
+
+    private static final class Record {
+        private volatile State state;
+        /*set once, before the record is scheduled*/
+        private LockReleaseSubscriber.Entry entry;
+
+        private Record(State state) {
+            this.state = state;
+        }
+    }
+
+    private static final class State {
+        private final long expiresAt;
+        /**
+         * The release count of the channel when the lock was found held, negative if it was not subscribed
+         */
+        private final long releases;
+
+        private State(long expiresAt, long releases) {
+            this.expiresAt = expiresAt;
+            this.releases = releases;
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package com.andyadc.lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+import redis.clients.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the leases of the locks held by this JVM alive while they are held.
+ * <p>
+ * Every watched lease is renewed after a third of its lease time. Renewals are driven by the shared
+ * {@link HashedWheelTimer}: all the leases falling due on the same tick are renewed together by the thread of the
+ * watchdog, with one {@code renew.lua} call per {@value #BATCH_SIZE} leases sent in a single pipeline. The cost of
+ * renewing is therefore a round trip per tick, whatever the number of held locks and of threads holding them. On a
+ * shard of a Redis Cluster, a call only renews the leases of a same slot.
+ * <p>
+ * A lease the owner is found to have lost, because it expired or was deleted, is dropped.
+ * <p>
+ * The watchdog of a pool is dropped, and its thread stopped, by {@link LockResources#release(JedisPool)}, or by itself
+ * once it finds the pool closed. The leases it watched are no longer renewed.
+ */
+final class LeaseWatchdog {
+
+    private static final Logger logger = LoggerFactory.getLogger(LeaseWatchdog.class);
+
+    private static final Map<JedisPool, LeaseWatchdog> WATCHDOGS = new ConcurrentHashMap<>();
+
+    private static final RedisScript RENEW_SCRIPT = RedisScript.fromClasspath("renew.lua");
+    private static final int BATCH_SIZE = 128;
+    private static final Long RENEW_SUCCESS = 1L;
+
+    private final JedisPool jedisPool;
+    private final ScriptRegistry scriptRegistry;
+    /**
+     * Whether the pool is a shard of a cluster, where the keys of a call must share a slot
+     */
+    private final boolean shard;
+    private final HashedWheelTimer timer = HashedWheelTimer.shared();
+
+    private final Map<Lease, Lease> leases = new ConcurrentHashMap<>();
+    private final Queue<Lease> due = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    /**
+     * Runs the renewals, so that the round trips to Redis never hold up the shared timer
+     */
+    private final ExecutorService executor;
+    private volatile boolean closed;
+
+    private LeaseWatchdog(JedisPool jedisPool, boolean shard) {
+        this.jedisPool = jedisPool;
+        this.scriptRegistry = ScriptRegistry.forPool(jedisPool);
+        this.shard = shard;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lock-redis-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    static LeaseWatchdog forPool(JedisPool jedisPool) {
+        return WATCHDOGS.computeIfAbsent(jedisPool, pool -> new LeaseWatchdog(pool, false));
+    }
+
+    /**
+     * @param jedisPool the pool of a shard of a cluster
+     */
+    static LeaseWatchdog forShard(JedisPool jedisPool) {
+        return WATCHDOGS.computeIfAbsent(jedisPool, pool -> new LeaseWatchdog(pool, true));
+    }
+
+    /**
+     * Drops the watchdog of the pool, if any, stopping its thread.
+     */
+    static void release(JedisPool jedisPool) {
+        LeaseWatchdog watchdog = WATCHDOGS.remove(jedisPool);
+        if (watchdog != null) {
+            watchdog.close();
+        }
+    }
+
+    /**
+     * Starts renewing the lease of a lock that has just been acquired.
+     */
+    void watch(String lockKey, String lockValue, int leaseTime) {
+        Lease lease = new Lease(lockKey, lockValue, leaseTime);
+        Lease previous = leases.put(lease, lease);
+        if (previous != null) {
+            previous.cancel();
+        }
+        schedule(lease);
+    }
+
+    /**
+     * Stops renewing the lease, before the lock is released.
+     */
+    void unwatch(String lockKey, String lockValue) {
+        Lease lease = leases.remove(new Lease(lockKey, lockValue, 0));
+        if (lease != null) {
+            lease.cancel();
+        }
+    }
+
+    private void schedule(Lease lease) {
+        lease.timeout = timer.newTimeout(() -> due(lease), lease.leaseTime / 3, TimeUnit.MILLISECONDS);
+    }
+
+    private void close() {
+        closed = true;
+        for (Lease lease : leases.keySet()) {
+            lease.cancel();
+        }
+        leases.clear();
+        executor.shutdown();
+    }
+
+    private void due(Lease lease) {
+        if (closed) {
+            return;
+        }
+        due.add(lease);
+        // leases falling due on this tick are collected until the flush runs on the next one, off the timer thread
+        if (flushScheduled.compareAndSet(false, true)) {
+            timer.newTimeout(() -> {
+                if (!closed) {
+                    executor.execute(this::flush);
+                }
+            }, 0L, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        flushScheduled.set(false);
+        List<Lease> batch = new ArrayList<>();
+        Lease lease;
+        while ((lease = due.poll()) != null) {
+            if (leases.get(lease) == lease) {
+                batch.add(lease);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<List<Lease>> chunks = chunks(batch);
+        // the results come in the order of the calls
+        batch = new ArrayList<>(batch.size());
+        chunks.forEach(batch::addAll);
+
+        List<Object> results;
+        try {
+            try {
+                results = renew(chunks);
+            } catch (JedisNoScriptException e) {
+                // the script cache of the server was flushed, or it restarted
+                scriptRegistry.invalidate(RENEW_SCRIPT);
+                results = renew(chunks);
+            }
+        } catch (JedisException e) {
+            if (jedisPool.isClosed()) {
+                WATCHDOGS.remove(jedisPool, this);
+                close();
+                return;
+            }
+            // keep trying while the leases have not expired yet
+            logger.warn("Failed to renew {} leases, retrying", batch.size(), e);
+            batch.forEach(this::schedule);
+            return;
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            lease = batch.get(i);
+            if (RENEW_SUCCESS.equals(results.get(i))) {
+                schedule(lease);
+            } else if (leases.remove(lease, lease)) {
+                logger.warn("Lease of {} was lost before it could be renewed", lease.lockKey);
+            }
+        }
+    }
+
+    /**
+     * @return the result of the renewal of each lease of the chunks, in order
+     */
+    @SuppressWarnings({"unchecked"})
+    private List<Object> renew(List<List<Lease>> chunks) {
+        scriptRegistry.load(RENEW_SCRIPT);
+        List<Response<Object>> responses = new ArrayList<>(chunks.size());
+        try (Jedis jedis = jedisPool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            for (List<Lease> chunk : chunks) {
+                List<byte[]> keys = new ArrayList<>(chunk.size());
+                List<byte[]> args = new ArrayList<>(chunk.size() * 2);
+                for (Lease lease : chunk) {
+                    keys.add(SafeEncoder.encode(lease.lockKey));
+                    args.add(SafeEncoder.encode(lease.lockValue));
+                    args.add(SafeEncoder.encode(String.valueOf(lease.leaseTime)));
+                }
+                responses.add(scriptRegistry.eval(pipeline, RENEW_SCRIPT, keys, args));
+            }
+            pipeline.sync();
+        }
+        List<Object> results = new ArrayList<>();
+        for (Response<Object> response : responses) {
+            results.addAll((List<Object>) response.get());
+        }
+        return results;
+    }
+
+    /**
+     * Splits the batch into the leases of each call: at most {@value #BATCH_SIZE}, of a same slot on a shard.
+     */
+    private List<List<Lease>> chunks(List<Lease> batch) {
+        Collection<List<Lease>> groups;
+        if (shard) {
+            Map<Integer, List<Lease>> slots = new HashMap<>();
+            for (Lease lease : batch) {
+                slots.computeIfAbsent(RedisClusterRouter.slot(lease.lockKey), slot -> new ArrayList<>()).add(lease);
+            }
+            groups = slots.values();
+        } else {
+            groups = Collections.singletonList(batch);
+        }
+        List<List<Lease>> chunks = new ArrayList<>();
+        for (List<Lease> group : groups) {
+            for (int from = 0; from < group.size(); from += BATCH_SIZE) {
+                chunks.add(group.subList(from, Math.min(from + BATCH_SIZE, group.size())));
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * A held lock; identified by its key and value only.
+     */
+    private static final class Lease {
+        private final String lockKey;
+        private final String lockValue;
+        private final int leaseTime;
+        private volatile HashedWheelTimer.Timeout timeout;
+
+        private Lease(String lockKey, String lockValue, int leaseTime) {
+            this.lockKey = lockKey;
+            this.lockValue = lockValue;
+            this.leaseTime = leaseTime;
+        }
+
+        private void cancel() {
+            HashedWheelTimer.Timeout timeout = this.timeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Lease)) {
+                return false;
+            }
+            Lease lease = (Lease) o;
+            return lockKey.equals(lease.lockKey) && lockValue.equals(lease.lockValue);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * lockKey.hashCode() + lockValue.hashCode();
+        }
+    }
+}
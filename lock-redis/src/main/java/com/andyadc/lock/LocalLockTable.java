@@ -0,0 +1,62 @@
+package com.andyadc.lock;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A table of local locks, one per key, created on demand.
+ * <p>
+ * The table only references its locks weakly: a lock no thread holds or waits for can be garbage collected, and its
+ * entry is purged on a later access. The table therefore stays as small as the set of keys currently in use,
+ * however many distinct keys go through it.
+ */
+final class LocalLockTable {
+
+    private final ConcurrentMap<String, LockReference> locks = new ConcurrentHashMap<>();
+    private final ReferenceQueue<ReentrantLock> queue = new ReferenceQueue<>();
+    private final boolean fair;
+
+    LocalLockTable(boolean fair) {
+        this.fair = fair;
+    }
+
+    /**
+     * Returns the lock of the key. Callers must keep the returned instance for as long as they use it.
+     */
+    ReentrantLock get(String key) {
+        purge();
+        for (; ; ) {
+            LockReference reference = locks.get(key);
+            ReentrantLock lock = reference == null ? null : reference.get();
+            if (lock != null) {
+                return lock;
+            }
+            lock = new ReentrantLock(fair);
+            LockReference created = new LockReference(key, lock, queue);
+            if (reference == null ? locks.putIfAbsent(key, created) == null : locks.replace(key, reference, created)) {
+                return lock;
+            }
+        }
+    }
+
+    private void purge() {
+        Reference<? extends ReentrantLock> reference;
+        while ((reference = queue.poll()) != null) {
+            LockReference cleared = (LockReference) reference;
+            locks.remove(cleared.key, cleared);
+        }
+    }
+
+    private static final class LockReference extends WeakReference<ReentrantLock> {
+        private final String key;
+
+        private LockReference(String key, ReentrantLock lock, ReferenceQueue<ReentrantLock> queue) {
+            super(lock, queue);
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.andyadc.lock;
+
+/**
+ * A lock acquired by {@link SimpleRedisLock#tryAcquire(String, int)}, with its fencing token.
+ * <p>
+ * Every acquisition of a key draws the next value of a counter kept next to the key, in the same Lua call as the
+ * {@code SET NX}: a later holder of the lock always has a greater token than an earlier one. A holder passes its
+ * token along with each write to the protected resource, which rejects any token lower than the greatest one it has
+ * seen. A holder which was paused past the expiry of its lease, by a GC for instance, and carries on as if it still
+ * held the lock therefore cannot overwrite the writes of the next holder.
+ * <p>
+ * <URL>https://martin.kleppmann.com/2016/02/08/how-to-do-distributed-locking.html</URL>
+ */
+public final class LockHandle implements AutoCloseable {
+
+    private final SimpleRedisLock lock;
+    private final String lockKey;
+    private final String owner;
+    private final long token;
+
+    LockHandle(SimpleRedisLock lock, String lockKey, String owner, long token) {
+        this.lock = lock;
+        this.lockKey = lockKey;
+        this.owner = owner;
+        this.token = token;
+    }
+
+    /**
+     * @return the key of the lock, as given to {@link SimpleRedisLock}
+     */
+    public String getLockKey() {
+        return lockKey;
+    }
+
+    /**
+     * @return the fencing token of this acquisition, greater than the ones of all the previous acquisitions of the key
+     */
+    public long getToken() {
+        return token;
+    }
+
+    /**
+     * Releases the lock. The handle may be released by any thread, not only by the one which acquired it.
+     *
+     * @return true if the lock was still held and has been released
+     */
+    public boolean unlock() {
+        return lock.unlock(lockKey, owner);
+    }
+
+    /**
+     * Releases the lock, see {@link #unlock()}.
+     */
+    @Override
+    public void close() {
+        unlock();
+    }
+
+    @Override
+    public String toString() {
+        return "LockHandle{lockKey='" + lockKey + "', token=" + token + '}';
+    }
+}
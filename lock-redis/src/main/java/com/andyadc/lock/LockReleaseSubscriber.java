@@ -0,0 +1,443 @@
+package com.andyadc.lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.exceptions.JedisException;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Shares one subscribed connection per {@link JedisPool} between all the waiters of that pool.
+ * <p>
+ * Waiters subscribe to the release channel of the key they wait for and park on the {@link Entry} of that channel.
+ * Every message published to the channel wakes a single waiter, which then retries the acquisition. Channels are
+ * reference counted, so the SUBSCRIBE/UNSUBSCRIBE commands are only sent for the first and the last local waiter.
+ * <p>
+ * Asynchronous waiters do not park: they queue on the {@link Entry} of their channel, and the first of them is
+ * woken up by the releases published on the channel and by its timeouts, see {@link AsyncAcquisition}.
+ * <p>
+ * The releases published on each subscribed channel are counted, for the {@link HeldLockCache} of the pool.
+ * <p>
+ * The subscriber of a pool is dropped, and its threads stopped, by {@link LockResources#release(JedisPool)}, or by
+ * itself once it finds the pool closed.
+ */
+final class LockReleaseSubscriber {
+
+    private static final Logger logger = LoggerFactory.getLogger(LockReleaseSubscriber.class);
+
+    private static final Map<JedisPool, LockReleaseSubscriber> SUBSCRIBERS = new ConcurrentHashMap<>();
+
+    private static final String IDLE_CHANNEL_PREFIX = "lock:channel:idle:";
+    private static final long RECONNECT_DELAY_MILLIS = 1000L;
+    /**
+     * The threads of the asynchronous waiters of a pool: each holds a connection while it runs, more than the cores
+     * would only queue on the pool. Jedis does not tell the size of the pool.
+     */
+    private static final int ASYNC_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final long ASYNC_KEEP_ALIVE_SECONDS = 60L;
+
+    private final JedisPool jedisPool;
+    /**
+     * Keeps the connection in subscribed mode while no waiter is parked
+     */
+    private final String idleChannel = IDLE_CHANNEL_PREFIX + UUID.randomUUID();
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final LocalLockTable gates = new LocalLockTable(true);
+    /**
+     * Runs the Redis round trips of the asynchronous waiters, queued beyond {@link #ASYNC_THREADS}; its threads never
+     * wait for a lock
+     */
+    private final ThreadPoolExecutor executor;
+    private final HeldLockCache heldLocks = new HeldLockCache(this);
+
+    /*written under this, null while the connection is not subscribed*/
+    private volatile Listener listener;
+    /*guarded by this*/
+    private Thread thread;
+    /*written under this*/
+    private volatile boolean closed;
+
+    private LockReleaseSubscriber(JedisPool jedisPool) {
+        this.jedisPool = jedisPool;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(ASYNC_THREADS, ASYNC_THREADS,
+                ASYNC_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "lock-redis-async-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // no idle threads are kept for a pool without asynchronous waiters
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    static LockReleaseSubscriber forPool(JedisPool jedisPool) {
+        return SUBSCRIBERS.computeIfAbsent(jedisPool, LockReleaseSubscriber::new);
+    }
+
+    /**
+     * Drops the subscriber of the pool, if any, closing its subscribed connection and stopping its threads.
+     */
+    static void release(JedisPool jedisPool) {
+        LockReleaseSubscriber subscriber = SUBSCRIBERS.remove(jedisPool);
+        if (subscriber != null) {
+            subscriber.close();
+        }
+    }
+
+    /**
+     * Runs the acquisition attempt until it succeeds or the waiting time elapses, waiting for the remaining TTL of
+     * the holder between two attempts.
+     *
+     * @see #acquire(String, long, Supplier, BackoffStrategy)
+     */
+    boolean acquire(String channel, long waitNanos, Supplier<Long> attempt) throws InterruptedException {
+        return acquire(channel, waitNanos, attempt, TtlAwareBackoff.INSTANCE);
+    }
+
+    /**
+     * Runs the acquisition attempt until it succeeds or the waiting time elapses.
+     * <p>
+     * The first attempt is made right away. After it failed, local waiters of the same lock queue on a local lock,
+     * so that only one thread per JVM at a time waits on Redis for a given lock: that thread subscribes to the
+     * release channel of the lock and sleeps until a release is published on it or the delay of the backoff strategy
+     * elapses, then tries again. Since the first attempt does not queue, a thread which already holds the lock in
+     * another mode, such as a writer downgrading to a read lock, is not held back by the waiters it blocks.
+     *
+     * @param channel   the release channel of the lock
+     * @param waitNanos the maximum time to wait, negative to wait forever
+     * @param attempt   returns null once the lock is acquired, otherwise the remaining TTL of the holder in
+     *                  milliseconds, negative if the holder has no TTL
+     * @param backoff   the delay between two attempts
+     * @return true if the lock was acquired
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    boolean acquire(String channel, long waitNanos, Supplier<Long> attempt, BackoffStrategy backoff)
+            throws InterruptedException {
+        if (waitNanos == 0L) {
+            return attempt.get() == null;
+        }
+        long deadline = System.nanoTime() + waitNanos;
+        Long ttl = attempt.get();
+        if (ttl == null) {
+            return true;
+        }
+        ReentrantLock gate = gates.get(channel);
+        if (waitNanos < 0L) {
+            gate.lockInterruptibly();
+        } else if (!gate.tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+            return false;
+        }
+        try {
+            return await(channel, deadline, waitNanos, ttl, attempt, backoff);
+        } finally {
+            gate.unlock();
+        }
+    }
+
+    /**
+     * Runs the acquisition attempt asynchronously until it succeeds or the waiting time elapses, without blocking
+     * any thread in between.
+     * <p>
+     * The first attempt is made right away. After a failed attempt the acquisition queues behind the other
+     * asynchronous waiters of the lock in this JVM; only the first of them is woken up, when a release is published
+     * on the channel of the lock or when the delay of the backoff strategy elapses.
+     *
+     * @param channel   the release channel of the lock
+     * @param waitNanos the maximum time to wait, negative to wait forever
+     * @param attempt   returns null once the lock is acquired, otherwise the remaining TTL of the holder in
+     *                  milliseconds, negative if the holder has no TTL
+     * @param backoff   the delay between two attempts
+     * @param rollback  releases the lock when it is acquired after the returned future was cancelled
+     * @return completes with true once the lock is acquired, with false if the waiting time elapsed first
+     */
+    CompletableFuture<Boolean> acquireAsync(String channel, long waitNanos, Supplier<Long> attempt,
+                                            BackoffStrategy backoff, Runnable rollback) {
+        CompletableFuture<Boolean> acquired = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                Long ttl = attempt.get();
+                if (ttl == null) {
+                    if (!acquired.complete(true)) {
+                        rollback.run();
+                    }
+                } else if (waitNanos == 0L) {
+                    acquired.complete(false);
+                } else if (!acquired.isDone()) {
+                    await(channel, waitNanos, ttl, attempt, backoff, rollback, acquired);
+                }
+            } catch (RuntimeException e) {
+                acquired.completeExceptionally(e);
+            }
+        });
+        return acquired;
+    }
+
+    private void await(String channel, long waitNanos, long ttl, Supplier<Long> attempt, BackoffStrategy backoff,
+                       Runnable rollback, CompletableFuture<Boolean> acquired) {
+        AsyncAcquisition acquisition = new AsyncAcquisition(waitNanos, attempt, backoff, rollback, executor);
+        acquisition.park(ttl);
+        Entry entry = subscribe(channel);
+        entry.asyncWaiters.add(acquisition);
+        acquisition.future.whenComplete((result, error) -> {
+            entry.asyncWaiters.remove(acquisition);
+            unsubscribe(channel, entry);
+            wakeAsync(entry);
+        });
+        // a cancellation of the caller's future ends the acquisition
+        acquired.whenComplete((result, error) -> acquisition.future.cancel(false));
+        acquisition.future.whenComplete((result, error) -> {
+            if (error != null) {
+                acquired.completeExceptionally(error);
+            } else if (!acquired.complete(result) && result) {
+                rollback.run();
+            }
+        });
+        // a release published before the subscription is confirmed would be lost, so retry once it is
+        if (entry.subscribed.getCount() == 0L) {
+            wakeAsync(entry);
+        }
+    }
+
+    /**
+     * @return the executor running the Redis round trips of the asynchronous waiters
+     */
+    Executor executor() {
+        return executor;
+    }
+
+    /**
+     * Wakes up the first asynchronous waiter of the channel.
+     */
+    private static void wakeAsync(Entry entry) {
+        AsyncAcquisition first = entry.asyncWaiters.peek();
+        if (first != null) {
+            first.wake();
+        }
+    }
+
+    private boolean await(String channel, long deadline, long waitNanos, long ttl, Supplier<Long> attempt,
+                          BackoffStrategy backoff) throws InterruptedException {
+        Entry entry = subscribe(channel);
+        try {
+            int attempts = 1;
+            long delay = backoff.delay(attempts, 0L, ttl);
+            // a release published before the subscription is confirmed would be lost, so only retry after it
+            entry.subscribed.await(parkNanos(deadline, waitNanos, delay), TimeUnit.NANOSECONDS);
+            for (; ; ) {
+                Long remaining = attempt.get();
+                if (remaining == null) {
+                    return true;
+                }
+                if (waitNanos > 0L && deadline - System.nanoTime() <= 0L) {
+                    return false;
+                }
+                delay = backoff.delay(++attempts, delay, remaining);
+                entry.latch.tryAcquire(parkNanos(deadline, waitNanos, delay), TimeUnit.NANOSECONDS);
+            }
+        } finally {
+            unsubscribe(channel, entry);
+        }
+    }
+
+    /**
+     * The time to park for: the delay of the backoff strategy, bounded by the deadline of the waiter.
+     */
+    private static long parkNanos(long deadline, long waitNanos, long delay) {
+        long delayNanos = delay >= 0L ? TimeUnit.MILLISECONDS.toNanos(delay) : Long.MAX_VALUE;
+        if (waitNanos < 0L) {
+            return delayNanos;
+        }
+        return Math.min(deadline - System.nanoTime(), delayNanos);
+    }
+
+    /**
+     * @return the cache of the locks held by other parties, shared by the locks of the pool
+     */
+    HeldLockCache heldLocks() {
+        return heldLocks;
+    }
+
+    /**
+     * Returns the number of releases published on the channel since it was subscribed. The count also moves when the
+     * subscription is lost or established, since releases may have been missed.
+     *
+     * @return the release count, negative if the channel is not subscribed
+     */
+    long releases(String channel) {
+        Entry entry = entries.get(channel);
+        if (listener == null || entry == null || entry.subscribed.getCount() != 0L) {
+            return -1L;
+        }
+        return entry.releases;
+    }
+
+    /**
+     * Registers a waiter on the channel, subscribing to it if this is the first local waiter.
+     */
+    synchronized Entry subscribe(String channel) {
+        Entry entry = entries.get(channel);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(channel, entry);
+            if (listener != null) {
+                send(() -> listener.subscribe(channel));
+            }
+        }
+        entry.refs++;
+        start();
+        return entry;
+    }
+
+    /**
+     * Removes a waiter from the channel, unsubscribing from it if this was the last local waiter.
+     */
+    synchronized void unsubscribe(String channel, Entry entry) {
+        if (--entry.refs > 0) {
+            return;
+        }
+        entries.remove(channel, entry);
+        if (listener != null) {
+            send(() -> listener.unsubscribe(channel));
+        }
+    }
+
+    /**
+     * A broken connection is picked up by the subscriber thread, which resubscribes every live channel.
+     */
+    private void send(Runnable command) {
+        try {
+            command.run();
+        } catch (JedisException e) {
+            logger.debug("Release subscription is broken, deferring to reconnect", e);
+        }
+    }
+
+    private synchronized void close() {
+        closed = true;
+        if (listener != null) {
+            send(listener::unsubscribe);
+        }
+        if (thread != null) {
+            // cuts the reconnect delay short
+            thread.interrupt();
+        }
+        // the waiters left go on with their backoff delays; the threads of the asynchronous ones time out once idle
+        wakeAll();
+    }
+
+    private void start() {
+        if (closed || thread != null) {
+            return;
+        }
+        thread = new Thread(this::run, "lock-redis-subscriber");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        while (!closed) {
+            if (jedisPool.isClosed()) {
+                SUBSCRIBERS.remove(jedisPool, this);
+                close();
+                return;
+            }
+            try (Jedis jedis = jedisPool.getResource()) {
+                jedis.subscribe(new Listener(), idleChannel);
+            } catch (Exception e) {
+                if (!closed && !jedisPool.isClosed()) {
+                    logger.warn("Release subscription lost, reconnecting in {} ms", RECONNECT_DELAY_MILLIS, e);
+                }
+            }
+            synchronized (this) {
+                listener = null;
+                // waiters fall back to their lease timeouts until we are subscribed again, let them retry now
+                wakeAll();
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(RECONNECT_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /*guarded by this*/
+    private void wakeAll() {
+        for (Entry entry : entries.values()) {
+            Entry.RELEASES.incrementAndGet(entry);
+            entry.latch.release();
+            wakeAsync(entry);
+        }
+    }
+
+    /**
+     * Local wait state for a single release channel.
+     */
+    static final class Entry {
+        private static final AtomicLongFieldUpdater<Entry> RELEASES =
+                AtomicLongFieldUpdater.newUpdater(Entry.class, "releases");
+
+        private final Semaphore latch = new Semaphore(0);
+        private final CountDownLatch subscribed = new CountDownLatch(1);
+        private final Queue<AsyncAcquisition> asyncWaiters = new ConcurrentLinkedQueue<>();
+        /*guarded by the subscriber*/
+        private int refs;
+        /*incremented by the subscriber thread, and by the thread closing the subscriber*/
+        private volatile long releases;
+    }
+
+    private final class Listener extends JedisPubSub {
+
+        @Override
+        public void onSubscribe(String channel, int subscribedChannels) {
+            if (idleChannel.equals(channel)) {
+                synchronized (LockReleaseSubscriber.this) {
+                    if (closed) {
+                        unsubscribe();
+                        return;
+                    }
+                    listener = this;
+                    if (!entries.isEmpty()) {
+                        subscribe(entries.keySet().toArray(new String[0]));
+                    }
+                }
+                return;
+            }
+            Entry entry = entries.get(channel);
+            if (entry != null) {
+                Entry.RELEASES.incrementAndGet(entry);
+                entry.subscribed.countDown();
+                wakeAsync(entry);
+            }
+        }
+
+        @Override
+        public void onMessage(String channel, String message) {
+            Entry entry = entries.get(channel);
+            if (entry != null) {
+                Entry.RELEASES.incrementAndGet(entry);
+                entry.latch.release();
+                wakeAsync(entry);
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.andyadc.lock;
+
+import redis.clients.jedis.JedisPool;
+
+/**
+ * Frees what the locks of this package keep for a {@link JedisPool}: the subscribed connection and thread of its
+ * release subscriber, the thread of its lease watchdog and its script registry. They are shared by every lock, queue
+ * and semaphore created on the pool, and would otherwise stay reachable for as long as the JVM runs.
+ * <p>
+ * Call {@link #release(JedisPool)} before closing a pool that is not used for the lifetime of the JVM, once the
+ * objects created on it are no longer used: the leases they still hold are no longer renewed. A pool found closed is
+ * released on the way, but only once its subscriber or watchdog next uses it. The pools of a
+ * {@link RedisClusterRouter} and a {@link PipelinedRedisClient} are released when they are closed.
+ */
+public final class LockResources {
+
+    private LockResources() {
+    }
+
+    /**
+     * @param jedisPool the pool to release the resources of, about to be closed
+     */
+    public static void release(JedisPool jedisPool) {
+        LockReleaseSubscriber.release(jedisPool);
+        LeaseWatchdog.release(jedisPool);
+        ScriptRegistry.release(jedisPool);
+    }
+}
@@ -0,0 +1,83 @@
+package com.andyadc.lock;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The locks held through a {@link SimpleRedisLock}, by key, with their owner, so that they can all be released at
+ * once, see {@link SimpleRedisLock#releaseAll()}.
+ * <p>
+ * A lock acquired with an expire time is remembered until it expires, a renewed lock until it is released. The
+ * expired locks are dropped whenever the registry has doubled in size since the last sweep, so a lock left to expire
+ * instead of being released costs nothing for long.
+ */
+final class OwnedLocks {
+
+    private static final int MIN_SWEEP_SIZE = 1024;
+    private static final long RENEWED = Long.MAX_VALUE;
+
+    private final Map<String, Held> locks = new ConcurrentHashMap<>();
+    private volatile int sweepSize = MIN_SWEEP_SIZE;
+
+    /**
+     * @param lockKey    the key of the lock, as given to the lock
+     * @param owner      the owner token of the holder
+     * @param expireTime the lease of the lock, in milliseconds, negative if it is renewed until released
+     */
+    void add(String lockKey,
+             String owner,
+             long expireTime) {
+        long expiresAt = expireTime < 0L ? RENEWED : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(expireTime);
+        locks.put(lockKey, new Held(owner, expiresAt));
+        if (locks.size() >= sweepSize) {
+            sweep();
+        }
+    }
+
+    void remove(String lockKey,
+                String owner) {
+        Held held = locks.get(lockKey);
+        if (held != null && held.owner.equals(owner)) {
+            locks.remove(lockKey, held);
+        }
+    }
+
+    /**
+     * Removes the locks which have not expired yet, and returns them.
+     *
+     * @return the owner of each removed lock, by key
+     */
+    Map<String, String> drain() {
+        long now = System.nanoTime();
+        Map<String, String> drained = new LinkedHashMap<>();
+        for (Map.Entry<String, Held> entry : locks.entrySet()) {
+            Held held = entry.getValue();
+            if (locks.remove(entry.getKey(), held) && !held.isExpired(now)) {
+                drained.put(entry.getKey(), held.owner);
+            }
+        }
+        return drained;
+    }
+
+    private void sweep() {
+        long now = System.nanoTime();
+        locks.entrySet().removeIf(entry -> entry.getValue().isExpired(now));
+        sweepSize = Math.max(MIN_SWEEP_SIZE, locks.size() * 2);
+    }
+
+    private static final class Held {
+        private final String owner;
+        private final long expiresAt;
+
+        private Held(String owner, long expiresAt) {
+            this.owner = owner;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired(long now) {
+            return expiresAt != RENEWED && expiresAt - now <= 0L;
+        }
+    }
+}
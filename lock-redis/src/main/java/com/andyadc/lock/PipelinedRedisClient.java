@@ -0,0 +1,641 @@
+package com.andyadc.lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A lightweight Redis client which multiplexes the commands of any number of threads over a few pipelined
+ * connections, as an alternative to borrowing a {@code Jedis} from a pool for every command. The commands sent by
+ * a thread all go through the same connection, and are executed in order.
+ * <p>
+ * Callers encode their commands straight into the direct output buffer of a connection, and queue the future of the
+ * reply behind the ones of the commands sent before. A single I/O thread writes out everything encoded since its last
+ * write in one go, and completes the futures in order as the replies are read back: concurrent commands share the
+ * round trips and the system calls instead of competing for connections. Apart from the future and the reply itself,
+ * sending a command allocates nothing, unless it has non ASCII arguments.
+ * <p>
+ * Replies are returned raw: {@code String} for status replies, {@code Long} for integers, {@code byte[]} for bulk
+ * strings and {@code List} for arrays. Error replies complete the future with a {@link JedisDataException}, broken
+ * connections with a {@link JedisConnectionException}; a broken connection is opened again by the next command.
+ * <p>
+ * Blocking commands and the commands changing the state of a connection, such as SUBSCRIBE or MULTI, must not be
+ * sent through this client.
+ */
+public final class PipelinedRedisClient implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(PipelinedRedisClient.class);
+
+    private static final int DEFAULT_CONNECTIONS = 2;
+    private static final int DEFAULT_TIMEOUT = 2000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final byte[] EVALSHA = "EVALSHA".getBytes(StandardCharsets.US_ASCII);
+    private static final Object INCOMPLETE = new Object();
+
+    private final InetSocketAddress address;
+    private final String password;
+    private final int timeout;
+    private final Connection[] connections;
+
+    private final Selector selector;
+    private final Queue<Connection> registrations = new ConcurrentLinkedQueue<>();
+    private final Queue<Connection> flushes = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile boolean closed;
+
+    public PipelinedRedisClient(String host, int port) {
+        this(host, port, DEFAULT_CONNECTIONS, null, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * @param host        the host of the server
+     * @param port        the port of the server
+     * @param connections the number of connections to share between the callers
+     * @param password    the password of the server, null if there is none
+     * @param timeout     the connection and reply timeout of the blocking methods, in milliseconds
+     */
+    public PipelinedRedisClient(String host, int port, int connections, String password, int timeout) {
+        if (connections <= 0) {
+            throw new IllegalArgumentException("Number of connections must be positive: " + connections);
+        }
+        this.address = new InetSocketAddress(host, port);
+        this.password = password;
+        this.timeout = timeout;
+        this.connections = new Connection[connections];
+        for (int i = 0; i < connections; i++) {
+            this.connections[i] = new Connection();
+        }
+        try {
+            this.selector = Selector.open();
+        } catch (IOException e) {
+            throw new JedisConnectionException(e);
+        }
+        this.thread = new Thread(this::run, "lock-redis-io");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Sends a command.
+     *
+     * @param args the command and its arguments
+     * @return completes with the raw reply
+     */
+    public CompletableFuture<Object> send(String... args) {
+        CompletableFuture<Object> reply = new CompletableFuture<>();
+        Connection connection = connection();
+        synchronized (connection) {
+            ByteBuffer out = connection.open(args.length);
+            out = connection.ensure(out, 16);
+            writeHeader(out, '*', args.length);
+            for (String arg : args) {
+                out = connection.writeArgument(out, arg);
+            }
+            connection.queue(reply);
+        }
+        return reply;
+    }
+
+    /**
+     * Sends an EVALSHA command.
+     *
+     * @return completes with the raw reply, or with a {@link JedisNoScriptException} if the script is not loaded
+     */
+    public CompletableFuture<Object> evalsha(String sha1, List<String> keys, List<String> args) {
+        CompletableFuture<Object> reply = new CompletableFuture<>();
+        Connection connection = connection();
+        synchronized (connection) {
+            ByteBuffer out = connection.open(3 + keys.size() + args.size());
+            out = connection.ensure(out, 32 + EVALSHA.length);
+            writeHeader(out, '*', 3 + keys.size() + args.size());
+            writeHeader(out, '$', EVALSHA.length);
+            out.put(EVALSHA);
+            writeCrlf(out);
+            out = connection.writeArgument(out, sha1);
+            out = connection.ensure(out, 32);
+            writeNumberArgument(out, keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                out = connection.writeArgument(out, keys.get(i));
+            }
+            for (int i = 0; i < args.size(); i++) {
+                out = connection.writeArgument(out, args.get(i));
+            }
+            connection.queue(reply);
+        }
+        return reply;
+    }
+
+    /**
+     * Sends a binary command, copying its arguments out of the buffer.
+     *
+     * @return completes with the raw reply
+     */
+    CompletableFuture<Object> send(CommandBuffer command) {
+        CompletableFuture<Object> reply = new CompletableFuture<>();
+        Connection connection = connection();
+        synchronized (connection) {
+            ByteBuffer out = connection.open(command.size());
+            out = connection.ensure(out, 16);
+            writeHeader(out, '*', command.size());
+            out = connection.writeArguments(out, command);
+            connection.queue(reply);
+        }
+        return reply;
+    }
+
+    /**
+     * Sends an EVALSHA command whose keys and arguments are in the buffer, the keys first.
+     *
+     * @return completes with the raw reply, or with a {@link JedisNoScriptException} if the script is not loaded
+     */
+    CompletableFuture<Object> evalsha(byte[] sha1, int numKeys, CommandBuffer keysAndArgs) {
+        CompletableFuture<Object> reply = new CompletableFuture<>();
+        Connection connection = connection();
+        synchronized (connection) {
+            ByteBuffer out = connection.open(3 + keysAndArgs.size());
+            out = connection.ensure(out, 64 + EVALSHA.length + sha1.length);
+            writeHeader(out, '*', 3 + keysAndArgs.size());
+            writeHeader(out, '$', EVALSHA.length);
+            out.put(EVALSHA);
+            writeCrlf(out);
+            writeHeader(out, '$', sha1.length);
+            out.put(sha1);
+            writeCrlf(out);
+            writeNumberArgument(out, numKeys);
+            out = connection.writeArguments(out, keysAndArgs);
+            connection.queue(reply);
+        }
+        return reply;
+    }
+
+    /**
+     * Sends a command and waits for its reply.
+     *
+     * @return the raw reply
+     */
+    public Object execute(String... args) {
+        return await(send(args));
+    }
+
+    /**
+     * Waits for a reply, for the timeout of this client at most.
+     *
+     * @return the raw reply
+     * @throws JedisConnectionException if the reply did not arrive in time
+     */
+    public Object await(CompletableFuture<Object> reply) {
+        try {
+            return reply.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new JedisConnectionException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new JedisConnectionException("No reply from " + address + " within " + timeout + " ms", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JedisConnectionException("Interrupted while waiting for " + address, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        ScriptRegistry.release(this);
+        selector.wakeup();
+    }
+
+    private Connection connection() {
+        if (closed) {
+            throw new JedisConnectionException("Client of " + address + " is closed");
+        }
+        // a thread always uses the same connection, so that its commands are executed in order
+        return connections[(int) (Thread.currentThread().getId() % connections.length)];
+    }
+
+    private void run() {
+        while (!closed) {
+            try {
+                selector.select();
+                Connection connection;
+                while ((connection = registrations.poll()) != null) {
+                    connection.register();
+                }
+                while ((connection = flushes.poll()) != null) {
+                    connection.flush();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    connection = (Connection) key.attachment();
+                    if (key.isValid() && key.isWritable()) {
+                        connection.flush();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        connection.read();
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Unexpected failure of the I/O loop of {}", address, e);
+            }
+        }
+        for (Connection connection : connections) {
+            connection.fail(new JedisConnectionException("Client of " + address + " is closed"));
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close the selector of {}", address, e);
+        }
+    }
+
+    private static void writeHeader(ByteBuffer out, char type, int length) {
+        out.put((byte) type);
+        writeNumber(out, length);
+        writeCrlf(out);
+    }
+
+    private static void writeNumberArgument(ByteBuffer out, long value) {
+        int digits = 1;
+        for (long rest = Math.abs(value / 10); rest > 0; rest /= 10) {
+            digits++;
+        }
+        writeHeader(out, '$', value < 0 ? digits + 1 : digits);
+        writeNumber(out, value);
+        writeCrlf(out);
+    }
+
+    private static void writeNumber(ByteBuffer out, long value) {
+        if (value < 0) {
+            out.put((byte) '-');
+        }
+        long divisor = 1;
+        while (Math.abs(value / divisor) >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            out.put((byte) ('0' + Math.abs(value / divisor % 10)));
+        }
+    }
+
+    private static void writeCrlf(ByteBuffer out) {
+        out.put((byte) '\r');
+        out.put((byte) '\n');
+    }
+
+    private static boolean isAscii(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses one reply from the buffer, leaving its position after the reply.
+     *
+     * @return the reply, or {@link #INCOMPLETE} if the buffer does not hold all of it yet
+     */
+    private static Object parse(ByteBuffer in) {
+        if (!in.hasRemaining()) {
+            return INCOMPLETE;
+        }
+        byte type = in.get();
+        int lineEnd = lineEnd(in);
+        if (lineEnd < 0) {
+            return INCOMPLETE;
+        }
+        switch (type) {
+            case '+': {
+                String status = readString(in, lineEnd - in.position());
+                in.position(lineEnd + 2);
+                return status;
+            }
+            case '-': {
+                String message = readString(in, lineEnd - in.position());
+                in.position(lineEnd + 2);
+                return message.startsWith("NOSCRIPT")
+                        ? new JedisNoScriptException(message) : new JedisDataException(message);
+            }
+            case ':': {
+                long value = readNumber(in, lineEnd);
+                in.position(lineEnd + 2);
+                return value;
+            }
+            case '$': {
+                int length = (int) readNumber(in, lineEnd);
+                in.position(lineEnd + 2);
+                if (length < 0) {
+                    return null;
+                }
+                if (in.remaining() < length + 2) {
+                    return INCOMPLETE;
+                }
+                byte[] bulk = new byte[length];
+                in.get(bulk);
+                in.position(in.position() + 2);
+                return bulk;
+            }
+            case '*': {
+                int size = (int) readNumber(in, lineEnd);
+                in.position(lineEnd + 2);
+                if (size < 0) {
+                    return null;
+                }
+                List<Object> array = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    Object element = parse(in);
+                    if (element == INCOMPLETE) {
+                        return INCOMPLETE;
+                    }
+                    array.add(element);
+                }
+                return array;
+            }
+            default:
+                throw new JedisConnectionException("Unknown reply type: " + (char) type);
+        }
+    }
+
+    /**
+     * @return the index of the CR ending the current line, -1 if the buffer does not hold it yet
+     */
+    private static int lineEnd(ByteBuffer in) {
+        for (int i = in.position(); i < in.limit() - 1; i++) {
+            if (in.get(i) == '\r' && in.get(i + 1) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static long readNumber(ByteBuffer in, int end) {
+        int i = in.position();
+        boolean negative = in.get(i) == '-';
+        if (negative) {
+            i++;
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            value = value * 10 + (in.get(i) - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    private static String readString(ByteBuffer in, int length) {
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A pipelined connection. Commands are encoded by the callers under the lock of the connection; the channel and
+     * the input buffer are only accessed by the I/O thread.
+     */
+    private final class Connection {
+
+        /*guarded by this*/
+        private ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        /*guarded by this*/
+        private SocketChannel channel;
+        /*guarded by this*/
+        private boolean flushQueued;
+
+        private final Queue<CompletableFuture<Object>> replies = new ConcurrentLinkedQueue<>();
+        private ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private SelectionKey key;
+
+        /**
+         * Opens the connection if it is not, then returns the output buffer.
+         */
+        private ByteBuffer open(int arguments) {
+            if (channel == null) {
+                SocketChannel channel = null;
+                try {
+                    channel = SocketChannel.open();
+                    channel.socket().setTcpNoDelay(true);
+                    channel.socket().connect(address, timeout);
+                    channel.configureBlocking(false);
+                } catch (IOException e) {
+                    if (channel != null) {
+                        try {
+                            channel.close();
+                        } catch (IOException suppressed) {
+                            e.addSuppressed(suppressed);
+                        }
+                    }
+                    throw new JedisConnectionException("Failed to connect to " + address, e);
+                }
+                this.channel = channel;
+                registrations.add(this);
+                selector.wakeup();
+                if (password != null) {
+                    CompletableFuture<Object> auth = new CompletableFuture<>();
+                    auth.whenComplete((reply, error) -> {
+                        if (error != null) {
+                            logger.warn("Failed to authenticate to {}", address, error);
+                        }
+                    });
+                    writeHeader(out, '*', 2);
+                    out = writeArgument(out, "AUTH");
+                    out = writeArgument(out, password);
+                    queue(auth);
+                }
+            }
+            return out;
+        }
+
+        /**
+         * Makes room for the given number of bytes, growing the output buffer if it is full.
+         */
+        private ByteBuffer ensure(ByteBuffer out, int bytes) {
+            if (out.remaining() >= bytes) {
+                return out;
+            }
+            ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(out.capacity() * 2, out.position() + bytes));
+            out.flip();
+            larger.put(out);
+            this.out = larger;
+            return larger;
+        }
+
+        private ByteBuffer writeArgument(ByteBuffer out, String arg) {
+            if (isAscii(arg)) {
+                out = ensure(out, arg.length() + 16);
+                writeHeader(out, '$', arg.length());
+                for (int i = 0; i < arg.length(); i++) {
+                    out.put((byte) arg.charAt(i));
+                }
+            } else {
+                byte[] bytes = arg.getBytes(StandardCharsets.UTF_8);
+                out = ensure(out, bytes.length + 16);
+                writeHeader(out, '$', bytes.length);
+                out.put(bytes);
+            }
+            writeCrlf(out);
+            return out;
+        }
+
+        private ByteBuffer writeArguments(ByteBuffer out, CommandBuffer command) {
+            for (int i = 0; i < command.size(); i++) {
+                int length = command.length(i);
+                out = ensure(out, length + 16);
+                writeHeader(out, '$', length);
+                out.put(command.array(), command.offset(i), length);
+                writeCrlf(out);
+            }
+            return out;
+        }
+
+        /**
+         * Queues the reply of the command just encoded, and the connection for the next write.
+         */
+        private void queue(CompletableFuture<Object> reply) {
+            replies.add(reply);
+            if (!flushQueued) {
+                flushQueued = true;
+                flushes.add(this);
+                selector.wakeup();
+            }
+        }
+
+        /*I/O thread*/
+        private void register() {
+            SocketChannel channel;
+            synchronized (this) {
+                channel = this.channel;
+            }
+            if (channel == null) {
+                return;
+            }
+            try {
+                key = channel.register(selector, SelectionKey.OP_READ, this);
+            } catch (IOException e) {
+                fail(new JedisConnectionException("Failed to register the connection to " + address, e));
+                return;
+            }
+            // the commands encoded while the registration was pending
+            flush();
+        }
+
+        /*I/O thread*/
+        private void flush() {
+            JedisConnectionException failure = null;
+            synchronized (this) {
+                if (channel == null) {
+                    flushQueued = false;
+                    return;
+                }
+                if (key == null || key.channel() != channel) {
+                    // not registered yet: flushed by register(), queuing it again here would spin the I/O loop
+                    return;
+                }
+                try {
+                    out.flip();
+                    channel.write(out);
+                    out.compact();
+                    if (out.position() > 0) {
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    } else {
+                        key.interestOps(SelectionKey.OP_READ);
+                        flushQueued = false;
+                    }
+                } catch (IOException e) {
+                    failure = new JedisConnectionException("Failed to write to " + address, e);
+                }
+            }
+            if (failure != null) {
+                fail(failure);
+            }
+        }
+
+        /*I/O thread*/
+        private void read() {
+            try {
+                if (channel().read(in) < 0) {
+                    throw new IOException("Connection closed by " + address);
+                }
+            } catch (IOException e) {
+                fail(new JedisConnectionException("Failed to read from " + address, e));
+                return;
+            }
+            in.flip();
+            for (; ; ) {
+                int start = in.position();
+                Object reply = parse(in);
+                if (reply == INCOMPLETE) {
+                    in.position(start);
+                    break;
+                }
+                CompletableFuture<Object> future = replies.poll();
+                if (future == null) {
+                    logger.warn("Unexpected reply from {}", address);
+                } else if (reply instanceof JedisDataException) {
+                    future.completeExceptionally((JedisDataException) reply);
+                } else {
+                    future.complete(reply);
+                }
+            }
+            in.compact();
+            if (!in.hasRemaining()) {
+                // a reply larger than the buffer
+                ByteBuffer larger = ByteBuffer.allocateDirect(in.capacity() * 2);
+                in.flip();
+                larger.put(in);
+                in = larger;
+            }
+        }
+
+        private synchronized SocketChannel channel() {
+            return channel;
+        }
+
+        /**
+         * Closes the connection and fails the commands waiting for a reply, the next command opens it again.
+         */
+        private void fail(JedisConnectionException failure) {
+            synchronized (this) {
+                if (channel != null) {
+                    try {
+                        channel.close();
+                    } catch (IOException e) {
+                        failure.addSuppressed(e);
+                    }
+                }
+                channel = null;
+                key = null;
+                flushQueued = false;
+                out.clear();
+                in.clear();
+                CompletableFuture<Object> reply;
+                while ((reply = replies.poll()) != null) {
+                    reply.completeExceptionally(failure);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package com.andyadc.lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <URL>https://redis.io/topics/distlock</URL>
+ * <p>
+ * A lock held on a majority of independent Redis masters, so that it survives the loss of a minority of them.
+ * <p>
+ * An acquisition sends {@code lock.lua} to every master in parallel and completes as soon as a majority granted or
+ * refused it: its latency is the one of the slowest master of the quorum, not the sum of all masters. The lock is
+ * only considered acquired if its validity, the expire time minus the time spent acquiring it and an allowance for
+ * the clock drift between the masters, is still positive. Otherwise, and whenever no majority is reached, the
+ * acquisition is rolled back on every master.
+ * <p>
+ * A lock is owned by the thread which acquired it, through this object: each thread has an owner token of its own, so
+ * that another thread can not release it, even after it expired and the first thread acquired it again.
+ * <p>
+ * The round trips of every instance run on threads shared by the whole JVM, which time out once idle, so an instance
+ * holds no resource of its own and needs no closing.
+ */
+public class RedLock {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedLock.class);
+
+    private static final Long RELEASE_SUCCESS = 1L;
+    private static final String LOCK_KEY_PREFIX = "lock:";
+    private static final String LOCK_VALUE_PREFIX = "lock:v:";
+    private static final String LOCK_CHANNEL_PREFIX = "lock:channel:";
+    private static final String UNLOCK_MESSAGE = "0";
+
+    private static final RedisScript LOCK_SCRIPT = RedisScript.fromClasspath("lock.lua");
+    private static final RedisScript UNLOCK_SCRIPT = RedisScript.fromClasspath("unlock.lua");
+
+    /**
+     * Clock drift allowance: a ratio of the expire time, plus a fixed margin for small expire times
+     */
+    private static final double CLOCK_DRIFT_FACTOR = 0.01;
+    private static final long CLOCK_DRIFT_MILLIS = 2L;
+    private static final long MAX_RETRY_DELAY_MILLIS = 50L;
+    private static final int THREADS = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+    private static final long KEEP_ALIVE_SECONDS = 60L;
+
+    /**
+     * Runs the round trips to the masters of every instance, queued beyond {@link #THREADS}
+     */
+    private static final ThreadPoolExecutor EXECUTOR = newExecutor();
+
+    private final UUID uuid = UUID.randomUUID();
+    /**
+     * The owner token of each thread
+     */
+    private final ThreadLocal<String> owners = ThreadLocal.withInitial(this::newOwner);
+
+    private final List<JedisPool> jedisPools;
+    private final List<ScriptRegistry> scriptRegistries;
+    private final int quorum;
+    private final BackoffStrategies backoffStrategies = new BackoffStrategies();
+
+    /**
+     * @param jedisPools the pools of the independent masters, preferably an odd number of them
+     */
+    public RedLock(List<JedisPool> jedisPools) {
+        if (jedisPools.isEmpty()) {
+            throw new IllegalArgumentException("At least one Redis master is required");
+        }
+        this.jedisPools = new ArrayList<>(jedisPools);
+        this.scriptRegistries = new ArrayList<>(jedisPools.size());
+        for (JedisPool jedisPool : jedisPools) {
+            scriptRegistries.add(ScriptRegistry.forPool(jedisPool));
+        }
+        this.quorum = jedisPools.size() / 2 + 1;
+        this.backoffStrategies.setDefault(new ExponentialBackoff(MAX_RETRY_DELAY_MILLIS, MAX_RETRY_DELAY_MILLIS));
+    }
+
+    public RedLock(JedisPool... jedisPools) {
+        this(Arrays.asList(jedisPools));
+    }
+
+    /**
+     * Acquires the lock on a majority of the masters, only if it is free at the time of invocation.
+     *
+     * @param lockKey    the key to lock
+     * @param expireTime the lease of the lock on each master, in milliseconds
+     * @return true if the lock was acquired, with a positive validity
+     */
+    public boolean tryLock(String lockKey,
+                           int expireTime) {
+        return tryLockInner(LOCK_KEY_PREFIX + lockKey, LOCK_CHANNEL_PREFIX + lockKey, expireTime, owners.get()) > 0L;
+    }
+
+    /**
+     * Acquires the lock on a majority of the masters, retrying after a backoff delay until the waiting time elapses.
+     *
+     * @param lockKey    the key to lock
+     * @param waitTime   the maximum time to wait for the lock, in milliseconds
+     * @param expireTime the lease of the lock on each master, in milliseconds
+     * @return true if the lock was acquired, with a positive validity
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public boolean tryLock(String lockKey,
+                           long waitTime,
+                           int expireTime) throws InterruptedException {
+        BackoffStrategy backoff = backoffStrategies.forKey(lockKey);
+        String channel = LOCK_CHANNEL_PREFIX + lockKey;
+        lockKey = LOCK_KEY_PREFIX + lockKey;
+        String owner = owners.get();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitTime);
+        long delay = 0L;
+        for (int attempts = 1; ; attempts++) {
+            if (tryLockInner(lockKey, channel, expireTime, owner) > 0L) {
+                return true;
+            }
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0L) {
+                return false;
+            }
+            // desynchronize the competing clients so that one of them can win a majority
+            delay = backoff.delay(attempts, delay, -1L);
+            TimeUnit.MILLISECONDS.sleep(delay >= 0L ? Math.min(remaining, delay) : remaining);
+        }
+    }
+
+    /**
+     * Returns the backoff strategies of the waiting acquisitions, which can be chosen per key prefix. Waiters retry
+     * after a random delay of up to {@value #MAX_RETRY_DELAY_MILLIS} milliseconds by default.
+     *
+     * @return the backoff strategies of this lock
+     */
+    public BackoffStrategies getBackoffStrategies() {
+        return backoffStrategies;
+    }
+
+    /**
+     * Releases the lock on every master, if the current thread holds it.
+     *
+     * @return true if it was released on a majority of the masters
+     */
+    public boolean unlock(String lockKey) {
+        String channel = LOCK_CHANNEL_PREFIX + lockKey;
+        lockKey = LOCK_KEY_PREFIX + lockKey;
+        List<CompletableFuture<Boolean>> releases = releaseAll(lockKey, channel, owners.get());
+        int released = 0;
+        for (CompletableFuture<Boolean> release : releases) {
+            if (release.join()) {
+                released++;
+            }
+        }
+        return released >= quorum;
+    }
+
+    /**
+     * @return the remaining validity of the lock in milliseconds, zero or less if it was not acquired
+     */
+    private long tryLockInner(String lockKey,
+                              String channel,
+                              int expireTime,
+                              String owner) {
+        long start = System.nanoTime();
+        CompletableFuture<Boolean> majority = new CompletableFuture<>();
+        AtomicInteger granted = new AtomicInteger();
+        AtomicInteger refused = new AtomicInteger();
+        List<CompletableFuture<Boolean>> acquisitions = new ArrayList<>(jedisPools.size());
+        for (int i = 0; i < jedisPools.size(); i++) {
+            int node = i;
+            CompletableFuture<Boolean> acquisition = CompletableFuture.supplyAsync(
+                    () -> acquireInner(node, lockKey, expireTime, owner), EXECUTOR);
+            acquisitions.add(acquisition);
+            acquisition.whenComplete((acquired, error) -> {
+                if (error == null && acquired) {
+                    if (granted.incrementAndGet() >= quorum) {
+                        majority.complete(true);
+                    }
+                } else if (refused.incrementAndGet() > jedisPools.size() - quorum) {
+                    majority.complete(false);
+                }
+            });
+        }
+
+        boolean acquired;
+        try {
+            acquired = majority.get(expireTime, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        } catch (ExecutionException | TimeoutException e) {
+            acquired = false;
+        }
+
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        long drift = (long) (expireTime * CLOCK_DRIFT_FACTOR) + CLOCK_DRIFT_MILLIS;
+        long validity = expireTime - elapsed - drift;
+        if (acquired && validity > 0L) {
+            return validity;
+        }
+        // roll back every master which granted it, including the ones which have not answered yet, and wake up the
+        // waiters which saw it held there
+        for (int i = 0; i < acquisitions.size(); i++) {
+            int node = i;
+            acquisitions.get(i).thenAccept(ok -> {
+                if (ok) {
+                    releaseInner(node, lockKey, channel, owner);
+                }
+            });
+        }
+        return 0L;
+    }
+
+    private boolean acquireInner(int node,
+                                 String lockKey,
+                                 int expireTime,
+                                 String owner) {
+        try (Jedis jedis = jedisPools.get(node).getResource()) {
+            return scriptRegistries.get(node).eval(jedis, LOCK_SCRIPT, Collections.singletonList(lockKey),
+                    Arrays.asList(owner, String.valueOf(expireTime))) == null;
+        }
+    }
+
+    /**
+     * Sends the release to every master in parallel.
+     */
+    private List<CompletableFuture<Boolean>> releaseAll(String lockKey,
+                                                        String channel,
+                                                        String owner) {
+        List<CompletableFuture<Boolean>> releases = new ArrayList<>(jedisPools.size());
+        for (int i = 0; i < jedisPools.size(); i++) {
+            int node = i;
+            releases.add(CompletableFuture.supplyAsync(() -> releaseInner(node, lockKey, channel, owner), EXECUTOR));
+        }
+        return releases;
+    }
+
+    private boolean releaseInner(int node,
+                                 String lockKey,
+                                 String channel,
+                                 String owner) {
+        try (Jedis jedis = jedisPools.get(node).getResource()) {
+            Object result = scriptRegistries.get(node).eval(jedis, UNLOCK_SCRIPT, Collections.singletonList(lockKey),
+                    Arrays.asList(owner, channel, UNLOCK_MESSAGE));
+            return RELEASE_SUCCESS.equals(result);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to release {} on master {}", lockKey, node, e);
+            return false;
+        }
+    }
+
+    private String newOwner() {
+        return LOCK_VALUE_PREFIX + uuid + ":" + Thread.currentThread().getId();
+    }
+
+    private static ThreadPoolExecutor newExecutor() {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "lock-redis-redlock-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
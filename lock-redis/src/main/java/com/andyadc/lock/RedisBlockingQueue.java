@@ -0,0 +1,464 @@
+package com.andyadc.lock;
+
+import org.menagerie.Serializer;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+import redis.clients.util.SafeEncoder;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A Redis-based implementation of a {@link BlockingQueue}, a drop-in replacement for
+ * {@code org.menagerie.collections.ZkBlockingQueue} with the same {@link Serializer}.
+ * <p>
+ * The elements are held in a Redis list, inserted at the tail and taken from the head. Taking is a reliable handoff:
+ * {@code queue-take.lua} moves the elements from the queue to the processing list of the consumer in the same call, in
+ * the manner of {@code RPOPLPUSH}, and they are only removed from there once they were deserialized and handed out. The
+ * elements a consumer failed to hand out are put back at the head of the queue by {@link #requeue()}, by the next
+ * queue started with the same consumer name if the consumer died. A consumer started under a random name, by the
+ * constructors which take none, can not be restarted: the elements a dead consumer left behind are put back by
+ * {@link #reclaim} on any queue of the same name, once that consumer took nothing for long enough.
+ * <p>
+ * A bounded queue is checked and filled in the same call, {@code queue-offer.lua}. Parties which have to wait for an
+ * element, or for room in a bounded queue, sleep until one is inserted, or taken, rather than polling the queue or
+ * blocking a connection of the pool, see {@link SimpleRedisLock}. {@link #offerAll} and {@link #drainTo} move the
+ * elements by batches, a round trip per batch.
+ * <p>
+ * Like the other collections, null elements are not permitted. Two equal elements are indistinguishable once
+ * serialized, so {@link #remove(Object)} removes one of them.
+ *
+ * @see org.menagerie.JavaSerializer
+ */
+public class RedisBlockingQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    private static final String QUEUE_KEY_PREFIX = "queue:";
+    private static final String PROCESSING_KEY_PREFIX = "queue-processing:";
+    private static final String CONSUMERS_KEY_PREFIX = "queue-consumers:";
+    private static final String ELEMENT_CHANNEL_PREFIX = "queue:channel:";
+    private static final String SPACE_CHANNEL_PREFIX = "queue:space:";
+    /**
+     * The largest number of elements moved by a single call, a script can not unpack many more
+     */
+    private static final int BATCH_SIZE = 1000;
+    /**
+     * Waiters check the queue again after that time even if no change was published, in milliseconds
+     */
+    private static final BackoffStrategy BACKOFF = new TtlAwareBackoff(1000L);
+    private static final Long WAIT_FOR_CHANGE = -1L;
+
+    private static final RedisScript OFFER_SCRIPT = RedisScript.fromClasspath("queue-offer.lua");
+    private static final RedisScript TAKE_SCRIPT = RedisScript.fromClasspath("queue-take.lua");
+    private static final RedisScript REQUEUE_SCRIPT = RedisScript.fromClasspath("queue-requeue.lua");
+    private static final RedisScript RECLAIM_SCRIPT = RedisScript.fromClasspath("queue-reclaim.lua");
+
+    private final Serializer<E> serializer;
+    private final int bound;
+    private final byte[] key;
+    private final byte[] processingKey;
+    private final byte[] consumersKey;
+    private final String elementChannel;
+    private final String spaceChannel;
+    private final JedisPool jedisPool;
+    private final ScriptRegistry scriptRegistry;
+    private final LockReleaseSubscriber subscriber;
+
+    /**
+     * Creates a new unbounded queue on the specified key, under a random consumer name.
+     *
+     * @param name       the key of the queue
+     * @param serializer the serializer to use
+     * @param jedisPool  the pool to use
+     */
+    public RedisBlockingQueue(String name, Serializer<E> serializer, JedisPool jedisPool) {
+        this(name, serializer, jedisPool, Integer.MAX_VALUE, UUID.randomUUID().toString());
+    }
+
+    /**
+     * Creates a new bounded queue on the specified key, under a random consumer name.
+     *
+     * @param name       the key of the queue
+     * @param serializer the serializer to use
+     * @param jedisPool  the pool to use
+     * @param bound      the maximum size of the queue, the same for every party
+     */
+    public RedisBlockingQueue(String name, Serializer<E> serializer, JedisPool jedisPool, int bound) {
+        this(name, serializer, jedisPool, bound, UUID.randomUUID().toString());
+    }
+
+    /**
+     * Creates a new queue on the specified key.
+     *
+     * @param name       the key of the queue
+     * @param serializer the serializer to use
+     * @param jedisPool  the pool to use
+     * @param bound      the maximum size of the queue, the same for every party, {@link Integer#MAX_VALUE} if it is
+     *                   unbounded
+     * @param consumer   the name of the processing list of this queue, unique among the consumers of the queue;
+     *                   a consumer which is restarted under the same name can {@link #requeue()} the elements it
+     *                   failed to hand out before, the others are left to {@link #reclaim}
+     */
+    public RedisBlockingQueue(String name, Serializer<E> serializer, JedisPool jedisPool, int bound, String consumer) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("Bound must be positive: " + bound);
+        }
+        this.serializer = serializer;
+        this.bound = bound;
+        this.key = SafeEncoder.encode(QUEUE_KEY_PREFIX + name);
+        this.processingKey = SafeEncoder.encode(PROCESSING_KEY_PREFIX + name + ":" + consumer);
+        this.consumersKey = SafeEncoder.encode(CONSUMERS_KEY_PREFIX + name);
+        this.elementChannel = ELEMENT_CHANNEL_PREFIX + name;
+        this.spaceChannel = SPACE_CHANNEL_PREFIX + name;
+        this.jedisPool = jedisPool;
+        this.scriptRegistry = ScriptRegistry.forPool(jedisPool);
+        this.subscriber = LockReleaseSubscriber.forPool(jedisPool);
+    }
+
+    @Override
+    public boolean offer(E e) {
+        return offerInner(serialize(e)) == null;
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        offer(e, -1L, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param timeout the maximum time to wait for room in a bounded queue, negative to wait forever
+     */
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        byte[] element = serialize(e);
+        return subscriber.acquire(spaceChannel, timeout < 0L ? -1L : unit.toNanos(timeout),
+                () -> offerInner(element), BACKOFF);
+    }
+
+    /**
+     * Inserts the elements at the tail of the queue, in order, as many as the bound leaves room for.
+     *
+     * @param c the elements to insert
+     * @return the number of elements inserted, the first ones of the collection
+     */
+    public int offerAll(Collection<? extends E> c) {
+        List<byte[]> elements = new ArrayList<>(c.size());
+        for (E e : c) {
+            elements.add(serialize(e));
+        }
+        if (bound != Integer.MAX_VALUE) {
+            // batch after batch, so that the inserted elements are the first ones
+            int offered = 0;
+            for (int from = 0; from < elements.size(); from += BATCH_SIZE) {
+                List<byte[]> batch = elements.subList(from, Math.min(from + BATCH_SIZE, elements.size()));
+                int count = offerBatch(batch);
+                offered += count;
+                if (count < batch.size()) {
+                    break;
+                }
+            }
+            return offered;
+        }
+        return offerPipelined(elements);
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends E> c) {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        int offered = offerAll(c);
+        if (offered < c.size()) {
+            throw new IllegalStateException("Queue full, " + offered + " of " + c.size() + " elements added");
+        }
+        return offered > 0;
+    }
+
+    @Override
+    public E poll() {
+        List<byte[]> taken = takeInner(1);
+        return taken.isEmpty() ? null : handOut(taken).get(0);
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        return poll(-1L, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param timeout the maximum time to wait for an element, negative to wait forever
+     */
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        List<byte[]> taken = new ArrayList<>(1);
+        if (!subscriber.acquire(elementChannel, timeout < 0L ? -1L : unit.toNanos(timeout), () -> {
+            taken.addAll(takeInner(1));
+            return taken.isEmpty() ? WAIT_FOR_CHANGE : null;
+        }, BACKOFF)) {
+            return null;
+        }
+        return handOut(taken).get(0);
+    }
+
+    @Override
+    public E peek() {
+        byte[] head;
+        try (Jedis jedis = jedisPool.getResource()) {
+            head = jedis.lindex(key, -1L);
+        }
+        return head == null ? null : serializer.deserialize(head);
+    }
+
+    @Override
+    public int size() {
+        try (Jedis jedis = jedisPool.getResource()) {
+            return (int) Math.min(jedis.llen(key), Integer.MAX_VALUE);
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return bound == Integer.MAX_VALUE ? Integer.MAX_VALUE : Math.max(bound - size(), 0);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        int drained = 0;
+        while (drained < maxElements) {
+            int count = Math.min(maxElements - drained, BATCH_SIZE);
+            List<byte[]> taken = takeInner(count);
+            c.addAll(handOut(taken));
+            drained += taken.size();
+            if (taken.size() < count) {
+                break;
+            }
+        }
+        return drained;
+    }
+
+    @Override
+    public void clear() {
+        try (Jedis jedis = jedisPool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            pipeline.del(key);
+            if (bound != Integer.MAX_VALUE) {
+                pipeline.publish(SafeEncoder.encode(spaceChannel), SafeEncoder.encode("0"));
+            }
+            pipeline.sync();
+        }
+    }
+
+    /**
+     * Iterates over a snapshot of the queue, from head to tail. Removing an element removes it from the queue if it
+     * is still there.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        List<byte[]> elements;
+        try (Jedis jedis = jedisPool.getResource()) {
+            elements = jedis.lrange(key, 0L, -1L);
+        }
+        Collections.reverse(elements);
+        return new Itr(elements);
+    }
+
+    /**
+     * Puts the elements this consumer took but failed to hand out, such as those which could not be deserialized or
+     * those left by a previous run under the same consumer name, back at the head of the queue.
+     *
+     * @return the number of elements put back
+     */
+    public int requeue() {
+        CommandBuffer keysAndArgs = CommandBuffer.get()
+                .add(key)
+                .add(processingKey)
+                .add(SafeEncoder.encode(elementChannel));
+        return ((Long) scriptRegistry.eval(REQUEUE_SCRIPT, 2, keysAndArgs)).intValue();
+    }
+
+    /**
+     * Puts the elements left by the consumers of the queue which took nothing for the given time, such as those
+     * which died under a random consumer name, back at the head of the queue. The idle time must be well above the
+     * time a live consumer takes to hand out what it took, or its elements could be handed out twice.
+     *
+     * @param idleTime the time since the last take of a consumer after which it is deemed dead
+     * @param unit     the time unit of the {@code idleTime} argument
+     * @return the number of elements put back
+     */
+    public int reclaim(long idleTime, TimeUnit unit) {
+        if (idleTime <= 0L) {
+            throw new IllegalArgumentException("Idle time must be positive: " + idleTime);
+        }
+        CommandBuffer keysAndArgs = CommandBuffer.get()
+                .add(key)
+                .add(consumersKey)
+                .add(unit.toMillis(idleTime))
+                .add(SafeEncoder.encode(elementChannel));
+        return ((Long) scriptRegistry.eval(RECLAIM_SCRIPT, 2, keysAndArgs)).intValue();
+    }
+
+    /**
+     * @return null if the element was inserted, otherwise the time to wait before the next attempt
+     */
+    private Long offerInner(byte[] element) {
+        return offerBatch(Collections.singletonList(element)) == 1 ? null : WAIT_FOR_CHANGE;
+    }
+
+    private int offerBatch(List<byte[]> elements) {
+        CommandBuffer keysAndArgs = CommandBuffer.get()
+                .add(key)
+                .add(bound == Integer.MAX_VALUE ? 0L : bound)
+                .add(SafeEncoder.encode(elementChannel));
+        for (byte[] element : elements) {
+            keysAndArgs.add(element);
+        }
+        return ((Long) scriptRegistry.eval(OFFER_SCRIPT, 1, keysAndArgs)).intValue();
+    }
+
+    /**
+     * Inserts the elements into an unbounded queue, all the batches in a single pipeline.
+     */
+    private int offerPipelined(List<byte[]> elements) {
+        List<List<byte[]>> batches = new ArrayList<>();
+        for (int from = 0; from < elements.size(); from += BATCH_SIZE) {
+            batches.add(elements.subList(from, Math.min(from + BATCH_SIZE, elements.size())));
+        }
+        int offered = 0;
+        while (!batches.isEmpty()) {
+            scriptRegistry.load(OFFER_SCRIPT);
+            List<Response<Object>> responses = new ArrayList<>(batches.size());
+            try (Jedis jedis = jedisPool.getResource()) {
+                Pipeline pipeline = jedis.pipelined();
+                for (List<byte[]> batch : batches) {
+                    List<byte[]> args = new ArrayList<>(batch.size() + 2);
+                    args.add(SafeEncoder.encode("0"));
+                    args.add(SafeEncoder.encode(elementChannel));
+                    args.addAll(batch);
+                    responses.add(scriptRegistry.eval(pipeline, OFFER_SCRIPT, Collections.singletonList(key), args));
+                }
+                pipeline.sync();
+            }
+            // the batches which met a flushed script cache did not run, they are sent again
+            List<List<byte[]>> failed = new ArrayList<>();
+            for (int i = 0; i < batches.size(); i++) {
+                try {
+                    offered += ((Long) responses.get(i).get()).intValue();
+                } catch (JedisNoScriptException e) {
+                    failed.add(batches.get(i));
+                }
+            }
+            if (!failed.isEmpty()) {
+                scriptRegistry.invalidate(OFFER_SCRIPT);
+            }
+            batches = failed;
+        }
+        return offered;
+    }
+
+    /**
+     * Moves up to the given number of elements from the head of the queue to the processing list.
+     *
+     * @return the elements taken, head first
+     */
+    @SuppressWarnings("unchecked")
+    private List<byte[]> takeInner(int maxElements) {
+        CommandBuffer keysAndArgs = CommandBuffer.get()
+                .add(key)
+                .add(processingKey)
+                .add(consumersKey)
+                .add(maxElements)
+                .add(SafeEncoder.encode(bound == Integer.MAX_VALUE ? "" : spaceChannel));
+        return (List<byte[]>) scriptRegistry.eval(TAKE_SCRIPT, 3, keysAndArgs);
+    }
+
+    /**
+     * Deserializes the elements taken, then removes them from the processing list.
+     */
+    private List<E> handOut(List<byte[]> taken) {
+        if (taken.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<E> elements = new ArrayList<>(taken.size());
+        for (byte[] element : taken) {
+            elements.add(serializer.deserialize(element));
+        }
+        try (Jedis jedis = jedisPool.getResource()) {
+            if (taken.size() == 1) {
+                jedis.lrem(processingKey, 1L, taken.get(0));
+            } else {
+                Pipeline pipeline = jedis.pipelined();
+                for (byte[] element : taken) {
+                    pipeline.lrem(processingKey, 1L, element);
+                }
+                pipeline.sync();
+            }
+        }
+        return elements;
+    }
+
+    private byte[] serialize(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        return serializer.serialize(e);
+    }
+
+    private final class Itr implements Iterator<E> {
+        private final List<byte[]> elements;
+        private int next;
+        private byte[] last;
+
+        private Itr(List<byte[]> elements) {
+            this.elements = elements;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < elements.size();
+        }
+
+        @Override
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            last = elements.get(next++);
+            return serializer.deserialize(last);
+        }
+
+        @Override
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            try (Jedis jedis = jedisPool.getResource()) {
+                jedis.lrem(key, -1L, last);
+            }
+            last = null;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.andyadc.lock;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisClusterInfoCache;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.exceptions.JedisAskDataException;
+import redis.clients.jedis.exceptions.JedisClusterMaxRedirectionsException;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.exceptions.JedisMovedDataException;
+import redis.clients.util.JedisClusterCRC16;
+
+import java.io.Closeable;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Routes the commands on a key to the Redis Cluster shard which owns its slot.
+ * <p>
+ * The slot map is discovered from the given nodes and kept up to date: a {@code MOVED} reply refreshes it before the
+ * command is retried on the new owner, an {@code ASK} reply sends the command once to the importing node, after
+ * {@code ASKING}. A command whose connection was lost is not retried, see {@link #executeOnSlot}. Each shard has a
+ * {@link JedisPool} of its own, so everything built per pool, such as the {@link ScriptRegistry}, works per shard.
+ * <p>
+ * Keys which must be handled together, by the batch methods of {@link SimpleRedisLock} for instance, can be put in the
+ * same slot with a hash tag: only the part of a key between the first <code>{</code> and the next <code>}</code>
+ * is hashed, if it is not empty, so that {@code {order:42}:items} and {@code {order:42}:payment} share a slot.
+ */
+public final class RedisClusterRouter implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisClusterRouter.class);
+
+    private static final int MAX_REDIRECTIONS = 5;
+
+    private final JedisClusterInfoCache cache;
+
+    public RedisClusterRouter(Set<HostAndPort> nodes) {
+        this(nodes, new JedisPoolConfig(), Protocol.DEFAULT_TIMEOUT, null);
+    }
+
+    /**
+     * @param nodes      some nodes of the cluster, to discover the others from
+     * @param poolConfig the configuration of the pool of each shard
+     * @param timeout    the connection and socket timeout, in milliseconds
+     * @param password   the password of the cluster, null if there is none
+     */
+    public RedisClusterRouter(Set<HostAndPort> nodes, GenericObjectPoolConfig poolConfig, int timeout,
+                              String password) {
+        this.cache = new JedisClusterInfoCache(poolConfig, timeout, timeout, password);
+        for (HostAndPort node : nodes) {
+            try (Jedis jedis = new Jedis(node.getHost(), node.getPort(), timeout)) {
+                if (password != null) {
+                    jedis.auth(password);
+                }
+                cache.discoverClusterNodesAndSlots(jedis);
+                return;
+            } catch (JedisConnectionException e) {
+                logger.warn("Failed to discover the cluster from {}", node, e);
+            }
+        }
+        throw new JedisConnectionException("No reachable node to discover the cluster from: " + nodes);
+    }
+
+    /**
+     * @return the slot of the key, honouring its hash tag
+     */
+    public static int slot(String key) {
+        return JedisClusterCRC16.getSlot(key);
+    }
+
+    /**
+     * @return the slot of the key, honouring its hash tag
+     */
+    public static int slot(byte[] key) {
+        return JedisClusterCRC16.getSlot(key);
+    }
+
+    /**
+     * Returns the pool of the shard which owns the slot of the key, as far as this router knows.
+     */
+    public JedisPool poolFor(String key) {
+        return poolForSlot(slot(key));
+    }
+
+    /**
+     * Runs a command on the key on the shard owning its slot, following the redirections of the cluster.
+     *
+     * @param key     the key the command is about, all of its keys must be in the same slot
+     * @param command the command, run again only after a redirection, which the shard replies instead of running it
+     * @return the result of the command
+     * @throws JedisClusterMaxRedirectionsException if the command was redirected too many times
+     */
+    public <T> T execute(String key, Function<Jedis, T> command) {
+        return executeOnSlot(slot(key), (jedis, pool) -> command.apply(jedis));
+    }
+
+    /**
+     * Runs a command on the shard owning the slot, following the redirections of the cluster. The command is given
+     * the pool of the connection it runs on, so that it can use what is built per pool.
+     * <p>
+     * A shard which cannot be connected to is looked up again, since it may have failed over. A connection lost
+     * once the command was sent is not retried: the command may have run, and running it again, an acquisition for
+     * instance, could fail against its own effect.
+     */
+    <T> T executeOnSlot(int slot, SlotCommand<T> command) {
+        JedisPool askPool = null;
+        JedisException last = null;
+        for (int attempt = 0; attempt < MAX_REDIRECTIONS; attempt++) {
+            JedisPool pool = askPool != null ? askPool : poolForSlot(slot);
+            Jedis connection;
+            try {
+                connection = pool.getResource();
+            } catch (JedisConnectionException e) {
+                // nothing was sent, the shard may have failed over
+                last = e;
+                cache.renewClusterSlots(null);
+                continue;
+            }
+            try (Jedis jedis = connection) {
+                if (askPool != null) {
+                    jedis.asking();
+                    askPool = null;
+                }
+                return command.run(jedis, pool);
+            } catch (JedisMovedDataException e) {
+                last = e;
+                cache.renewClusterSlots(null);
+            } catch (JedisAskDataException e) {
+                last = e;
+                askPool = cache.setupNodeIfNotExist(e.getTargetNode());
+            } catch (JedisConnectionException e) {
+                // the next commands go to the new owner if the shard failed over
+                cache.renewClusterSlots(null);
+                throw e;
+            }
+        }
+        throw new JedisClusterMaxRedirectionsException("Too many redirections for slot " + slot + ": " + last);
+    }
+
+    /**
+     * Releases the resources kept for the shards, see {@link LockResources#release(JedisPool)}, and closes their pools.
+     */
+    @Override
+    public void close() {
+        ScriptRegistry.release(this);
+        for (JedisPool pool : cache.getNodes().values()) {
+            LockResources.release(pool);
+        }
+        cache.reset();
+    }
+
+    private JedisPool poolForSlot(int slot) {
+        JedisPool pool = cache.getSlotPool(slot);
+        if (pool == null) {
+            cache.renewClusterSlots(null);
+            pool = cache.getSlotPool(slot);
+            if (pool == null) {
+                throw new JedisConnectionException("No shard owns slot " + slot);
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * A command run on a shard.
+     */
+    @FunctionalInterface
+    interface SlotCommand<T> {
+        T run(Jedis jedis, JedisPool pool);
+    }
+}
@@ -0,0 +1,331 @@
+package com.andyadc.lock;
+
+import org.menagerie.election.LeaderElector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import java.io.Closeable;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A Redis-based implementation of a {@link LeaderElector}, whose leader holds a lease on the key of the election.
+ * <p>
+ * A candidate is elected when the key is free: {@code elect.lua} draws the next epoch of the election from a counter
+ * which never expires, sets the key to the epoch and the candidate with the lease time, and publishes the new leader
+ * on the channel of the election. The lease is renewed by the {@link LeaseWatchdog} until the leader concedes, which
+ * publishes an empty message. The epoch grows with every leadership, so that it can serve as a fencing token, see
+ * {@link #getEpoch()}.
+ * <p>
+ * Candidates waiting for the leadership sleep until a change is published or the lease of the leader expires, and
+ * every elector caches the current leader until then: a leader which fails without conceding is replaced within its
+ * lease time, while reading the leader costs no round trip as long as it does not change. The absence of a leader
+ * is cached for a second at most, and a nomination drops the cached leader.
+ * <p>
+ * Like a lock, the leadership belongs to the thread which was elected; only that thread may concede.
+ */
+public class RedisLeaderElector implements LeaderElector, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisLeaderElector.class);
+
+    private static final String ELECTION_KEY_PREFIX = "election:";
+    private static final String EPOCH_KEY_PREFIX = "election-epoch:";
+    private static final String ELECTION_CHANNEL_PREFIX = "election:channel:";
+    private static final String CONCEDE_MESSAGE = "";
+    private static final String SEPARATOR = "|";
+    private static final int DEFAULT_LEASE_TIME = 10000;
+    private static final Long ELECTED = 1L;
+    private static final Long RELEASE_SUCCESS = 1L;
+    /**
+     * How long the absence of a leader is cached at most
+     */
+    private static final long NO_LEADER_CACHE_MILLIS = 1000L;
+
+    private static final RedisScript ELECT_SCRIPT = RedisScript.fromClasspath("elect.lua");
+    private static final RedisScript CONCEDE_SCRIPT = RedisScript.fromClasspath("unlock.lua");
+
+    private final String key;
+    private final String epochKey;
+    private final String channel;
+    private final String name;
+    private final String id = UUID.randomUUID().toString();
+    private final int leaseTime;
+    private final JedisPool jedisPool;
+    private final ScriptRegistry scriptRegistry;
+    private final LockReleaseSubscriber subscriber;
+    private final LeaseWatchdog watchdog;
+
+    /**
+     * The leadership of this elector, null while it does not lead
+     */
+    private volatile Leadership leadership;
+    /**
+     * The last leader read from Redis
+     */
+    private volatile Leader leader;
+    /*guarded by this, the subscription which keeps the cached leader up to date*/
+    private LockReleaseSubscriber.Entry entry;
+    /*guarded by this*/
+    private boolean closed;
+
+    /**
+     * Creates a new elector on the specified election, whose candidate is named after the IP address of this host.
+     *
+     * @param election  the key of the election
+     * @param jedisPool the pool to use
+     */
+    public RedisLeaderElector(String election, JedisPool jedisPool) {
+        this(election, localAddress(), jedisPool, DEFAULT_LEASE_TIME);
+    }
+
+    /**
+     * Creates a new elector on the specified election.
+     *
+     * @param election  the key of the election
+     * @param name      the name of the candidate, returned by {@link #getLeader()} once it is elected
+     * @param jedisPool the pool to use
+     * @param leaseTime the lease of the leadership, renewed until the leader concedes, in milliseconds; a failed
+     *                  leader is replaced within that time
+     */
+    public RedisLeaderElector(String election, String name, JedisPool jedisPool, int leaseTime) {
+        if (leaseTime <= 0) {
+            throw new IllegalArgumentException("Lease time must be positive: " + leaseTime);
+        }
+        this.key = ELECTION_KEY_PREFIX + election;
+        this.epochKey = EPOCH_KEY_PREFIX + election;
+        this.channel = ELECTION_CHANNEL_PREFIX + election;
+        this.name = name;
+        this.leaseTime = leaseTime;
+        this.jedisPool = jedisPool;
+        this.scriptRegistry = ScriptRegistry.forPool(jedisPool);
+        this.subscriber = LockReleaseSubscriber.forPool(jedisPool);
+        this.watchdog = LeaseWatchdog.forPool(jedisPool);
+    }
+
+    @Override
+    public boolean nominateSelfForLeader() {
+        if (leads()) {
+            return true;
+        }
+        return elect() == null;
+    }
+
+    @Override
+    public boolean nominateSelfForLeader(long timeout, TimeUnit unit) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (leads()) {
+            return true;
+        }
+        return subscriber.acquire(channel, Math.max(unit.toNanos(timeout), 0L), this::elect);
+    }
+
+    /**
+     * Concedes the election, and announces it to the other candidates.
+     *
+     * @throws IllegalMonitorStateException if the current thread is not the leader elected through this elector
+     */
+    @Override
+    public void concede() {
+        Leadership current = leadership;
+        if (current == null || current.thread != Thread.currentThread()) {
+            throw new IllegalMonitorStateException("The current thread is not the leader of " + key);
+        }
+        leadership = null;
+        watchdog.unwatch(key, current.value);
+        Object result = scriptRegistry.eval(CONCEDE_SCRIPT, Collections.singletonList(key),
+                Arrays.asList(current.value, channel, CONCEDE_MESSAGE));
+        if (!RELEASE_SUCCESS.equals(result)) {
+            logger.warn("Leadership of {} in epoch {} was lost before it was conceded", key, current.epoch);
+        }
+    }
+
+    /**
+     * Returns the name of the current leader, the IP address of its host unless another name was given. The leader
+     * is cached until a change is published or its lease expires.
+     *
+     * @return the name of the current leader, null if there is none
+     */
+    @Override
+    public String getLeader() {
+        return leader().name;
+    }
+
+    /**
+     * Returns the epoch of the current leader, which is greater than the epochs of all the previous leaders of the
+     * election. Passed along with the requests of the leader, it lets a resource reject the requests of a deposed
+     * leader, see {@link LockHandle}.
+     *
+     * @return the epoch of the current leader, -1 if there is none
+     */
+    public long getEpoch() {
+        return leader().epoch;
+    }
+
+    /**
+     * @return true if the current thread is the leader elected through this elector, and still holds its lease
+     */
+    public boolean isLeader() {
+        Leadership current = leadership;
+        return current != null && current.thread == Thread.currentThread()
+                && current.value.equals(leader().value);
+    }
+
+    /**
+     * @return the lease of the leadership, in milliseconds
+     */
+    public int getLeaseTime() {
+        return leaseTime;
+    }
+
+    /**
+     * Stops following the changes of leader. The leadership of this elector, if any, is not conceded.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (entry != null) {
+            subscriber.unsubscribe(channel, entry);
+            entry = null;
+        }
+    }
+
+    /**
+     * @return true if the current thread leads already, after dropping a leadership it lost
+     */
+    private boolean leads() {
+        Leadership current = leadership;
+        if (current == null || current.thread != Thread.currentThread()) {
+            return false;
+        }
+        if (current.value.equals(leader().value)) {
+            return true;
+        }
+        logger.warn("Leadership of {} in epoch {} was lost", key, current.epoch);
+        leadership = null;
+        watchdog.unwatch(key, current.value);
+        return false;
+    }
+
+    /**
+     * @return null if this candidate was elected, otherwise the remaining TTL of the leader in milliseconds
+     */
+    @SuppressWarnings("unchecked")
+    private Long elect() {
+        String candidate = id + ":" + Thread.currentThread().getId() + SEPARATOR + name;
+        List<Long> result = (List<Long>) scriptRegistry.eval(ELECT_SCRIPT, Arrays.asList(key, epochKey),
+                Arrays.asList(candidate, String.valueOf(leaseTime), channel));
+        // the outcome tells there is a leader, the cached one is read again rather than awaiting the announcement
+        leader = null;
+        if (!ELECTED.equals(result.get(0))) {
+            return result.get(1);
+        }
+        long epoch = result.get(1);
+        Leadership elected = new Leadership(epoch, epoch + SEPARATOR + candidate, Thread.currentThread());
+        leadership = elected;
+        watchdog.watch(key, elected.value, leaseTime);
+        return null;
+    }
+
+    /**
+     * Returns the cached leader, unless a change was published since it was read or its lease may have expired.
+     */
+    private Leader leader() {
+        Leader cached = leader;
+        if (cached != null && cached.isCurrent(subscriber.releases(channel))) {
+            return cached;
+        }
+        follow();
+        // read before the lookup, so that a change published during the lookup is not missed
+        long stamp = subscriber.releases(channel);
+        Response<String> value;
+        Response<Long> ttl;
+        try (Jedis jedis = jedisPool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            value = pipeline.get(key);
+            ttl = pipeline.pttl(key);
+            pipeline.sync();
+        }
+        Leader current = new Leader(value.get(), ttl.get(), stamp);
+        leader = current;
+        return current;
+    }
+
+    /**
+     * Subscribes to the channel of the election, so that the changes of leader are counted.
+     */
+    private synchronized void follow() {
+        if (entry == null && !closed) {
+            entry = subscriber.subscribe(channel);
+        }
+    }
+
+    private static String localAddress() {
+        try {
+            return InetAddress.getLocalHost().getHostAddress();
+        } catch (UnknownHostException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static final class Leadership {
+        private final long epoch;
+        /**
+         * The value of the election key while this leadership lasts
+         */
+        private final String value;
+        private final Thread thread;
+
+        private Leadership(long epoch, String value, Thread thread) {
+            this.epoch = epoch;
+            this.value = value;
+            this.thread = thread;
+        }
+    }
+
+    private static final class Leader {
+        /**
+         * The value of the election key, {@code epoch|candidate id|name}, null if there is no leader
+         */
+        private final String value;
+        private final String name;
+        private final long epoch;
+        /**
+         * The time the lease of the leader ends at most, if it is not renewed
+         */
+        private final long expiresAt;
+        /**
+         * The change count of the channel when the leader was read, negative if it was not subscribed
+         */
+        private final long changes;
+
+        private Leader(String value, long ttl, long changes) {
+            this.value = value;
+            if (value == null) {
+                this.name = null;
+                this.epoch = -1L;
+            } else {
+                String[] parts = value.split("\\" + SEPARATOR, 3);
+                this.epoch = Long.parseLong(parts[0]);
+                this.name = parts[2];
+            }
+            // no leader: a new one is announced on the channel, but the announcement may be lost with the connection
+            this.expiresAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttl < 0L ? NO_LEADER_CACHE_MILLIS : ttl);
+            this.changes = changes;
+        }
+
+        private boolean isCurrent(long changes) {
+            return this.changes >= 0L && this.changes == changes && expiresAt - System.nanoTime() > 0L;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.andyadc.lock;
+
+import redis.clients.jedis.JedisPool;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A Redis-based rate limiter: a token bucket shared by every party using the same key.
+ * <p>
+ * The bucket holds up to {@code capacity} tokens and is refilled at a constant rate. Refilling and taking tokens is a
+ * single {@code rate-limit.lua} call, which refills the bucket for the time elapsed by the clock of the Redis server,
+ * so that the clocks of the parties do not matter. A bucket left alone is dropped once it would be full again.
+ * <p>
+ * With a batch size above one, a party takes up to that many tokens at once and hands them out locally: high rate
+ * callers then cost a round trip per batch rather than per permit. Tokens taken ahead are lost if they are not used
+ * within the time the bucket takes to refill a batch, so that they cannot be saved up for a burst; but while they are
+ * held, the other parties can not use them.
+ * <p>
+ * Parties which have to wait for tokens sleep until enough tokens are refilled, as computed by the script.
+ *
+ * @see RedisSemaphore
+ */
+public class RedisRateLimiter {
+
+    private static final String RATE_LIMIT_KEY_PREFIX = "rate-limit:";
+
+    private static final RedisScript RATE_LIMIT_SCRIPT = RedisScript.fromClasspath("rate-limit.lua");
+
+    private final String key;
+    private final long capacity;
+    private final double permitsPerSecond;
+    private final int batchSize;
+    /**
+     * The time tokens taken ahead stay usable for, in nanoseconds
+     */
+    private final long batchNanos;
+    private final ScriptRegistry scriptRegistry;
+
+    /*guarded by this, the tokens taken ahead and not handed out yet*/
+    private long localTokens;
+    /*guarded by this*/
+    private long localExpiresAt;
+
+    /**
+     * Creates a new rate limiter on the specified key, which takes tokens one request at a time.
+     *
+     * @param name             the key of the rate limiter
+     * @param jedisPool        the pool to use
+     * @param capacity         the maximum number of tokens of the bucket, the largest burst
+     * @param permitsPerSecond the rate the bucket is refilled at
+     */
+    public RedisRateLimiter(String name, JedisPool jedisPool, long capacity, double permitsPerSecond) {
+        this(name, jedisPool, capacity, permitsPerSecond, 1);
+    }
+
+    /**
+     * Creates a new rate limiter on the specified key.
+     *
+     * @param name             the key of the rate limiter
+     * @param jedisPool        the pool to use
+     * @param capacity         the maximum number of tokens of the bucket, the largest burst
+     * @param permitsPerSecond the rate the bucket is refilled at
+     * @param batchSize        the maximum number of tokens taken at once, the ones not needed yet being kept for
+     *                         the next requests of this rate limiter
+     */
+    public RedisRateLimiter(String name, JedisPool jedisPool, long capacity, double permitsPerSecond, int batchSize) {
+        if (capacity <= 0L) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        if (!(permitsPerSecond > 0.0)) {
+            throw new IllegalArgumentException("Rate must be positive: " + permitsPerSecond);
+        }
+        if (batchSize <= 0 || batchSize > capacity) {
+            throw new IllegalArgumentException("Batch size must be between 1 and " + capacity + ": " + batchSize);
+        }
+        this.key = RATE_LIMIT_KEY_PREFIX + name;
+        this.capacity = capacity;
+        this.permitsPerSecond = permitsPerSecond;
+        this.batchSize = batchSize;
+        this.batchNanos = (long) (batchSize / permitsPerSecond * TimeUnit.SECONDS.toNanos(1L));
+        this.scriptRegistry = ScriptRegistry.forPool(jedisPool);
+    }
+
+    /**
+     * Acquires a permit, blocking until one is available or the current thread is interrupted.
+     *
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public void acquire() throws InterruptedException {
+        acquire(1);
+    }
+
+    /**
+     * Acquires the given number of permits, blocking until all are available or the current thread is interrupted.
+     *
+     * @param permits the number of permits to acquire
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public void acquire(int permits) throws InterruptedException {
+        acquireInner(permits, -1L);
+    }
+
+    /**
+     * Acquires a permit only if one is available at the time of invocation.
+     *
+     * @return true if a permit has been acquired, false otherwise
+     */
+    public boolean tryAcquire() {
+        return tryAcquire(1);
+    }
+
+    /**
+     * Acquires the given number of permits only if all are available at the time of invocation.
+     *
+     * @param permits the number of permits to acquire
+     * @return true if the permits have been acquired, false otherwise
+     */
+    public boolean tryAcquire(int permits) {
+        checkPermits(permits);
+        return acquireInner(permits) == 0L;
+    }
+
+    /**
+     * Acquires the given number of permits if all become available within the given waiting time. It gives up at
+     * once if they can not be available in time.
+     *
+     * @param permits the number of permits to acquire
+     * @param timeout the maximum time to wait for the permits
+     * @param unit    the time unit of the timeout
+     * @return true if the permits have been acquired within the specified time, false otherwise
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public boolean tryAcquire(int permits, long timeout, TimeUnit unit) throws InterruptedException {
+        return acquireInner(permits, Math.max(unit.toNanos(timeout), 0L));
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param waitNanos the maximum time to wait, negative to wait forever
+     */
+    private boolean acquireInner(int permits, long waitNanos) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        checkPermits(permits);
+        long deadline = System.nanoTime() + waitNanos;
+        for (; ; ) {
+            long wait = acquireInner(permits);
+            if (wait == 0L) {
+                return true;
+            }
+            long sleepNanos = TimeUnit.MILLISECONDS.toNanos(wait);
+            if (waitNanos >= 0L && sleepNanos > deadline - System.nanoTime()) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.sleep(sleepNanos);
+        }
+    }
+
+    /**
+     * @return 0 if the permits were acquired, otherwise the time until they are available in milliseconds
+     */
+    @SuppressWarnings("unchecked")
+    private long acquireInner(int permits) {
+        if (batchSize > 1 && takeLocal(permits)) {
+            return 0L;
+        }
+        List<Long> result = (List<Long>) scriptRegistry.eval(RATE_LIMIT_SCRIPT, Collections.singletonList(key),
+                Arrays.asList(String.valueOf(capacity), String.valueOf(permitsPerSecond), String.valueOf(permits),
+                        String.valueOf(Math.max(permits, batchSize))));
+        long taken = result.get(0);
+        if (taken == 0L) {
+            return Math.max(result.get(1), 1L);
+        }
+        if (taken > permits) {
+            putLocal(taken - permits);
+        }
+        return 0L;
+    }
+
+    private synchronized boolean takeLocal(int permits) {
+        if (localTokens > 0L && localExpiresAt - System.nanoTime() <= 0L) {
+            localTokens = 0L;
+        }
+        if (localTokens < permits) {
+            return false;
+        }
+        localTokens -= permits;
+        return true;
+    }
+
+    private synchronized void putLocal(long tokens) {
+        localTokens += tokens;
+        localExpiresAt = System.nanoTime() + batchNanos;
+    }
+
+    private void checkPermits(int permits) {
+        if (permits <= 0 || permits > capacity) {
+            throw new IllegalArgumentException("Number of permits must be between 1 and " + capacity + ": " + permits);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.andyadc.lock;
+
+import redis.clients.util.SafeEncoder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A Lua script together with its SHA1 digest, as used by EVALSHA.
+ * <p>
+ * The digest is computed locally, so a script can be invoked by digest without asking Redis for it first.
+ *
+ * @see ScriptRegistry
+ */
+public final class RedisScript {
+
+    private final String name;
+    private final String source;
+    private final String sha1;
+    private final byte[] rawSha1;
+
+    public RedisScript(String name, String source) {
+        this.name = name;
+        this.source = source;
+        this.sha1 = sha1Hex(source);
+        this.rawSha1 = SafeEncoder.encode(sha1);
+    }
+
+    /**
+     * Reads a script bundled on the classpath, such as {@code unlock.lua}.
+     *
+     * @param resource the classpath resource of the script
+     * @return the script
+     * @throws IllegalArgumentException if the resource does not exist
+     */
+    public static RedisScript fromClasspath(String resource) {
+        return new RedisScript(resource, read(resource));
+    }
+
+    /**
+     * Reads a script bundled on the classpath, preceded by the libraries it uses. Scripts cannot load code from
+     * Redis, so the functions shared by several scripts are prepended to each of them.
+     *
+     * @param resource  the classpath resource of the script
+     * @param libraries the classpath resources of the libraries, in order
+     * @return the script
+     * @throws IllegalArgumentException if a resource does not exist
+     */
+    public static RedisScript fromClasspath(String resource, String... libraries) {
+        StringBuilder source = new StringBuilder();
+        for (String library : libraries) {
+            source.append(read(library)).append('\n');
+        }
+        return new RedisScript(resource, source.append(read(resource)).toString());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String getSha1() {
+        return sha1;
+    }
+
+    byte[] getRawSha1() {
+        return rawSha1;
+    }
+
+    private static String read(String resource) {
+        ClassLoader classLoader = RedisScript.class.getClassLoader();
+        try (InputStream in = classLoader.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalArgumentException("Script not found on classpath: " + resource);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String sha1Hex(String source) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(source.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            //every JVM is required to support SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + "(" + sha1 + ")";
+    }
+}
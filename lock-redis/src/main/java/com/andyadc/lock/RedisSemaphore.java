@@ -0,0 +1,303 @@
+package com.andyadc.lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A Redis-based implementation of a counting Semaphore whose permits are leases.
+ * <p>
+ * Every permit granted by the semaphore is a lease, a member of a Redis sorted set scored by its expiry. Acquiring and
+ * releasing permits are single Lua calls, which first drop the leases that expired: if a party acquires a permit, and
+ * then subsequently fails, its permit returns to the semaphore once its lease expires, allowing another party to
+ * proceed. Leases are renewed by the {@link LeaseWatchdog} until they are released.
+ * <p>
+ * Parties which have to wait for permits sleep until permits are released or the next lease expires, see
+ * {@link SimpleRedisLock}, rather than polling the semaphore.
+ * <p>
+ * Permits are held by the JVM which acquired them, not by a thread: any thread of that JVM may release them, but
+ * another JVM cannot. Every semaphore on the same key must be constructed with the same number of permits.
+ *
+ * @see java.util.concurrent.Semaphore
+ */
+public class RedisSemaphore {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisSemaphore.class);
+
+    private static final String SEMAPHORE_KEY_PREFIX = "semaphore:";
+    private static final String SEMAPHORE_CHANNEL_PREFIX = "semaphore:channel:";
+    private static final String RELEASE_MESSAGE = "0";
+    private static final int DEFAULT_LEASE_TIME = 10000;
+
+    private static final RedisScript ACQUIRE_SCRIPT = RedisScript.fromClasspath("semaphore-acquire.lua");
+    private static final RedisScript RELEASE_SCRIPT = RedisScript.fromClasspath("semaphore-release.lua");
+
+    private static final String CLIENT_ID = UUID.randomUUID().toString();
+    private static final AtomicLong LEASE_IDS = new AtomicLong();
+
+    private final int numPermits;
+    private final String key;
+    private final String channel;
+    private final int leaseTime;
+    private final JedisPool jedisPool;
+    private final ScriptRegistry scriptRegistry;
+    private final LockReleaseSubscriber subscriber;
+    private final LeaseWatchdog watchdog;
+
+    /**
+     * The leases acquired by this JVM through this semaphore and not released yet
+     */
+    private final Deque<String> leases = new ConcurrentLinkedDeque<>();
+
+    /**
+     * Creates a new semaphore on the specified key.
+     *
+     * @param numPermits the number of permits of the semaphore
+     * @param name       the key of the semaphore
+     * @param jedisPool  the pool to use
+     */
+    public RedisSemaphore(int numPermits, String name, JedisPool jedisPool) {
+        this(numPermits, name, jedisPool, DEFAULT_LEASE_TIME);
+    }
+
+    /**
+     * Creates a new semaphore on the specified key.
+     *
+     * @param numPermits the number of permits of the semaphore
+     * @param name       the key of the semaphore
+     * @param jedisPool  the pool to use
+     * @param leaseTime  the lease of each permit, renewed until it is released, in milliseconds
+     */
+    public RedisSemaphore(int numPermits, String name, JedisPool jedisPool, int leaseTime) {
+        if (numPermits <= 0) {
+            throw new IllegalArgumentException("Number of permits must be positive: " + numPermits);
+        }
+        if (leaseTime <= 0) {
+            throw new IllegalArgumentException("Lease time must be positive: " + leaseTime);
+        }
+        this.numPermits = numPermits;
+        this.key = SEMAPHORE_KEY_PREFIX + name;
+        this.channel = SEMAPHORE_CHANNEL_PREFIX + name;
+        this.leaseTime = leaseTime;
+        this.jedisPool = jedisPool;
+        this.scriptRegistry = ScriptRegistry.forPool(jedisPool);
+        this.subscriber = LockReleaseSubscriber.forPool(jedisPool);
+        this.watchdog = LeaseWatchdog.forPool(jedisPool);
+    }
+
+    /**
+     * Acquires a permit, blocking until one is available or the current thread is interrupted.
+     *
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public void acquire() throws InterruptedException {
+        acquire(1);
+    }
+
+    /**
+     * Acquires the given number of permits, blocking until all are available or the current thread is interrupted.
+     *
+     * @param permits the number of permits to acquire
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public void acquire(int permits) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        acquireInner(permits, -1L);
+    }
+
+    /**
+     * Acquires a permit, blocking until one is available. Interruptions are ignored, but the interrupt status of the
+     * current thread is set when this method returns.
+     */
+    public void acquireUninterruptibly() {
+        acquireUninterruptibly(1);
+    }
+
+    /**
+     * Acquires the given number of permits, blocking until all are available. Interruptions are ignored, but the
+     * interrupt status of the current thread is set when this method returns.
+     *
+     * @param permits the number of permits to acquire
+     */
+    public void acquireUninterruptibly(int permits) {
+        boolean interrupted = false;
+        for (; ; ) {
+            try {
+                acquireInner(permits, -1L);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Acquires a permit only if one is available at the time of invocation.
+     *
+     * @return true if a permit has been acquired, false otherwise
+     */
+    public boolean tryAcquire() {
+        return tryAcquire(1);
+    }
+
+    /**
+     * Acquires the given number of permits only if all are available at the time of invocation.
+     *
+     * @param permits the number of permits to acquire
+     * @return true if the permits have been acquired, false otherwise
+     */
+    public boolean tryAcquire(int permits) {
+        checkPermits(permits);
+        List<String> acquired = newLeases(permits);
+        if (acquireInner(acquired) != null) {
+            return false;
+        }
+        acquired(acquired);
+        return true;
+    }
+
+    /**
+     * Acquires a permit if one becomes available within the given waiting time.
+     *
+     * @param timeout the maximum time to wait for a permit
+     * @param unit    the time unit of the timeout
+     * @return true if a permit has been acquired within the specified time, false otherwise
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        return tryAcquire(1, timeout, unit);
+    }
+
+    /**
+     * Acquires the given number of permits if all become available within the given waiting time. No permit is
+     * acquired if they do not.
+     *
+     * @param permits the number of permits to acquire
+     * @param timeout the maximum time to wait for the permits
+     * @param unit    the time unit of the timeout
+     * @return true if the permits have been acquired within the specified time, false otherwise
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public boolean tryAcquire(int permits, long timeout, TimeUnit unit) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        return acquireInner(permits, Math.max(unit.toNanos(timeout), 0L));
+    }
+
+    /**
+     * Releases a permit acquired by this JVM, returning it to the semaphore.
+     */
+    public void release() {
+        release(1);
+    }
+
+    /**
+     * Releases the given number of permits acquired by this JVM, returning them to the semaphore.
+     * <p>
+     * Permits whose lease expired before they were released are already back in the semaphore; this is logged.
+     *
+     * @param permits the number of permits to release
+     * @throws IllegalStateException if this JVM does not hold that many permits of this semaphore
+     */
+    public void release(int permits) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException("Number of permits must be positive: " + permits);
+        }
+        List<String> released = new ArrayList<>(permits);
+        String lease;
+        while (released.size() < permits && (lease = leases.pollFirst()) != null) {
+            watchdog.unwatch(key, lease);
+            released.add(lease);
+        }
+        if (released.isEmpty()) {
+            throw new IllegalStateException("No permit of " + key + " is held by this JVM");
+        }
+
+        List<String> args = new ArrayList<>(released.size() + 2);
+        args.add(channel);
+        args.add(RELEASE_MESSAGE);
+        args.addAll(released);
+        Long result = (Long) scriptRegistry.eval(RELEASE_SCRIPT, Collections.singletonList(key), args);
+        if (result < released.size()) {
+            logger.warn("{} permits of {} expired before they were released", released.size() - result, key);
+        }
+        if (released.size() < permits) {
+            throw new IllegalStateException("Only " + released.size() + " permits of " + key + " were held by this JVM");
+        }
+    }
+
+    /**
+     * Returns the number of permits currently available, for monitoring purposes.
+     *
+     * @return the number of permits which are not leased
+     */
+    public int availablePermits() {
+        try (Jedis jedis = jedisPool.getResource()) {
+            List<String> time = jedis.time();
+            long now = Long.parseLong(time.get(0)) * 1000L + Long.parseLong(time.get(1)) / 1000L;
+            return (int) Math.max(numPermits - jedis.zcount(key, "(" + now, "+inf"), 0L);
+        }
+    }
+
+    /**
+     * @return the lease of each permit, in milliseconds
+     */
+    public int getLeaseTime() {
+        return leaseTime;
+    }
+
+    private boolean acquireInner(int permits, long waitNanos) throws InterruptedException {
+        checkPermits(permits);
+        List<String> acquired = newLeases(permits);
+        if (!subscriber.acquire(channel, waitNanos, () -> acquireInner(acquired))) {
+            return false;
+        }
+        acquired(acquired);
+        return true;
+    }
+
+    private Long acquireInner(List<String> acquired) {
+        List<String> args = new ArrayList<>(acquired.size() + 2);
+        args.add(String.valueOf(numPermits));
+        args.add(String.valueOf(leaseTime));
+        args.addAll(acquired);
+        return (Long) scriptRegistry.eval(ACQUIRE_SCRIPT, Collections.singletonList(key), args);
+    }
+
+    private void acquired(List<String> acquired) {
+        for (String lease : acquired) {
+            leases.addLast(lease);
+            watchdog.watch(key, lease, leaseTime);
+        }
+    }
+
+    private void checkPermits(int permits) {
+        if (permits <= 0 || permits > numPermits) {
+            throw new IllegalArgumentException("Number of permits must be between 1 and " + numPermits + ": " + permits);
+        }
+    }
+
+    private static List<String> newLeases(int permits) {
+        List<String> leases = new ArrayList<>(permits);
+        for (int i = 0; i < permits; i++) {
+            leases.add(CLIENT_ID + ":" + LEASE_IDS.incrementAndGet());
+        }
+        return leases;
+    }
+}
@@ -0,0 +1,250 @@
+package com.andyadc.lock;
+
+import redis.clients.jedis.JedisPool;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * A Redis-based implementation of a Reentrant mutex Lock.
+ * <p>
+ * A {@code ReentrantRedisLock} is <i>owned</i> by the <i>party</i> (both the current thread and this JVM) which has
+ * last successfully locked it, but has not yet unlocked it. The owner and its hold count are kept in a Redis hash
+ * which is only ever modified by Lua scripts, so that every transition is atomic.
+ * <p>
+ * Each thread also counts its holds locally: only the first acquisition and the last release of the current thread
+ * go to Redis, nested acquisitions and releases by the owner never touch the network. This can be checked by
+ * {@link #hasLock()}.
+ * <p>
+ * The lock is leased for {@link #getLeaseTime()} and renewed by the {@link LeaseWatchdog} while it is held. Waiting
+ * parties sleep until the lock is released or its lease expires, see {@link SimpleRedisLock}.
+ * <p>
+ * This lock supports {@code Integer.MAX_VALUE} repeated locks by the same thread. Attempts to exceed this result
+ * in overflows which can create an improper lock state.
+ *
+ * @see java.util.concurrent.locks.ReentrantLock
+ */
+public class ReentrantRedisLock implements Lock {
+
+    private static final String LOCK_KEY_PREFIX = "lock:";
+    private static final String LOCK_CHANNEL_PREFIX = "lock:channel:";
+    private static final String UNLOCK_MESSAGE = "0";
+    private static final int DEFAULT_LEASE_TIME = 10000;
+    private static final Long RELEASE_SUCCESS = 1L;
+
+    private static final RedisScript LOCK_SCRIPT = RedisScript.fromClasspath("reentrant-lock.lua");
+    private static final RedisScript UNLOCK_SCRIPT = RedisScript.fromClasspath("reentrant-unlock.lua");
+
+    /**
+     * Identifies this JVM; lock objects on the same key share the owner of the current thread
+     */
+    private static final String CLIENT_ID = UUID.randomUUID().toString();
+
+    private final String lockKey;
+    private final String channel;
+    private final int leaseTime;
+    private final ScriptRegistry scriptRegistry;
+    private final LockReleaseSubscriber subscriber;
+    private final LeaseWatchdog watchdog;
+
+    private final ThreadLocal<LockHolder> locks = new ThreadLocal<>();
+
+    /**
+     * Constructs a new Lock on the specified key.
+     *
+     * @param lockKey   the key to lock on
+     * @param jedisPool the pool to use
+     */
+    public ReentrantRedisLock(String lockKey, JedisPool jedisPool) {
+        this(lockKey, jedisPool, DEFAULT_LEASE_TIME);
+    }
+
+    /**
+     * Constructs a new Lock on the specified key.
+     *
+     * @param lockKey   the key to lock on
+     * @param jedisPool the pool to use
+     * @param leaseTime the lease of the lock, renewed while it is held, in milliseconds
+     */
+    public ReentrantRedisLock(String lockKey, JedisPool jedisPool, int leaseTime) {
+        this(lockKey, jedisPool, null, leaseTime);
+    }
+
+    /**
+     * Constructs a new Lock on the specified key, whose commands are sent through the given client.
+     *
+     * @param lockKey   the key to lock on
+     * @param jedisPool the pool to use to listen to the releases and to renew the lease
+     * @param client    the client to send the lock commands through, null to use the pool
+     * @param leaseTime the lease of the lock, renewed while it is held, in milliseconds
+     */
+    public ReentrantRedisLock(String lockKey, JedisPool jedisPool, PipelinedRedisClient client, int leaseTime) {
+        if (leaseTime <= 0) {
+            throw new IllegalArgumentException("Lease time must be positive: " + leaseTime);
+        }
+        this.lockKey = LOCK_KEY_PREFIX + lockKey;
+        this.channel = LOCK_CHANNEL_PREFIX + lockKey;
+        this.leaseTime = leaseTime;
+        this.scriptRegistry = client != null ? ScriptRegistry.forClient(client) : ScriptRegistry.forPool(jedisPool);
+        this.subscriber = LockReleaseSubscriber.forPool(jedisPool);
+        this.watchdog = LeaseWatchdog.forPool(jedisPool);
+    }
+
+    /**
+     * Acquires the lock.
+     * <p>
+     * If the lock is not available, then the current thread becomes disabled for thread scheduling purposes and
+     * lies dormant until the lock as been acquired.
+     *
+     * @see Lock#lock()
+     */
+    @Override
+    public final void lock() {
+        if (checkReentrancy()) return;
+
+        boolean interrupted = false;
+        for (; ; ) {
+            try {
+                acquire(-1L);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public final void lockInterruptibly() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (checkReentrancy()) return;
+        acquire(-1L);
+    }
+
+    @Override
+    public final boolean tryLock() {
+        if (checkReentrancy()) return true;
+        String owner = getOwner();
+        if (acquireInner(owner) != null) {
+            return false;
+        }
+        acquired(owner);
+        return true;
+    }
+
+    @Override
+    public final boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (checkReentrancy()) return true;
+        return acquire(unit.toNanos(time));
+    }
+
+    /**
+     * Determines whether or not this party owns the lock.
+     *
+     * @return true if the current thread owns the lock
+     */
+    public final boolean hasLock() {
+        return locks.get() != null;
+    }
+
+    /**
+     * Releases the lock.
+     * <p>
+     * The lock is only released in Redis once the current thread has released all of its holds.
+     *
+     * @throws IllegalMonitorStateException if the current thread does not own the lock, or if its lease was lost
+     *                                      before it could be released
+     */
+    @Override
+    public final void unlock() {
+        LockHolder holder = locks.get();
+        if (holder == null)
+            throw new IllegalMonitorStateException("Attempting to unlock without first obtaining that lock on this thread");
+
+        if (--holder.numLocks > 0) {
+            return;
+        }
+        locks.remove();
+        watchdog.unwatch(lockKey, holder.owner);
+        Long result = (Long) scriptRegistry.eval(UNLOCK_SCRIPT, Collections.singletonList(lockKey),
+                Arrays.asList(holder.owner, String.valueOf(leaseTime), channel, UNLOCK_MESSAGE));
+        if (result == null) {
+            throw new IllegalMonitorStateException("Lease of " + lockKey + " expired before it was unlocked");
+        }
+        if (!RELEASE_SUCCESS.equals(result)) {
+            // another lock object of this thread still holds it
+            watchdog.watch(lockKey, holder.owner, leaseTime);
+        }
+    }
+
+    /**
+     * Conditions are not supported.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public Condition newCondition() {
+        throw new UnsupportedOperationException("Conditions are not supported by " + getClass().getSimpleName());
+    }
+
+    /**
+     * @return the lease of the lock, in milliseconds
+     */
+    public int getLeaseTime() {
+        return leaseTime;
+    }
+
+    private boolean acquire(long waitNanos) throws InterruptedException {
+        String owner = getOwner();
+        if (!subscriber.acquire(channel, waitNanos, () -> acquireInner(owner))) {
+            return false;
+        }
+        acquired(owner);
+        return true;
+    }
+
+    private Long acquireInner(String owner) {
+        return (Long) scriptRegistry.eval(LOCK_SCRIPT, Collections.singletonList(lockKey),
+                Arrays.asList(owner, String.valueOf(leaseTime)));
+    }
+
+    private void acquired(String owner) {
+        locks.set(new LockHolder(owner));
+        watchdog.watch(lockKey, owner, leaseTime);
+    }
+
+    private boolean checkReentrancy() {
+        LockHolder local = locks.get();
+        if (local != null) {
+            local.numLocks++;
+            return true;
+        }
+        return false;
+    }
+
+    private static String getOwner() {
+        return CLIENT_ID + ":" + Thread.currentThread().getId();
+    }
+
+    /*Holder for the holds of the current thread*/
+    private static class LockHolder {
+        private final String owner;
+        /*accessed by the owning thread only*/
+        private int numLocks = 1;
+
+        private LockHolder(String owner) {
+            this.owner = owner;
+        }
+    }
+}
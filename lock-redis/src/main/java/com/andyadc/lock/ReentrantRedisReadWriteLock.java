@@ -0,0 +1,353 @@
+package com.andyadc.lock;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+
+/**
+ * Redis-based implementation of a <i>write-preferring</i> Reentrant Read-Write lock.
+ * <p>
+ * The mode of the lock, the write holds of its writer and the read holds of each of its readers are kept in a single
+ * Redis hash, which is only ever modified by Lua scripts. Any number of parties, on any number of JVMs, can hold the
+ * read lock at the same time; the write lock is held by a single party, and only while nobody reads.
+ * <p>
+ * A party that attempts to acquire the write lock registers as a waiting writer until it gets it. A party that
+ * attempts to acquire the read lock for the first time will wait while there is a waiting writer, so that a steady
+ * flow of readers cannot starve the writers. A waiting writer refreshes its registration while it waits and drops it
+ * when it gives up.
+ * <p>
+ * Every reader holds a lease of its own: a reader which crashed without releasing its read lock only blocks the
+ * writers until its lease expires, whatever the other readers do. Leases are renewed by the {@link LeaseWatchdog}
+ * while the locks are held.
+ * <p>
+ * Note: Downgrading a WriteLock to a ReadLock is possible on the same thread. To do so, acquire the write lock, then
+ * acquire the read lock on the same thread. Finally, release the write lock. However, upgrading from a ReadLock to a
+ * WriteLock is <b>not</b> possible without first releasing the ReadLock.
+ * <p>
+ * Neither lock supports {@link Condition}s.
+ *
+ * @see java.util.concurrent.locks.ReentrantReadWriteLock
+ */
+public class ReentrantRedisReadWriteLock implements ReadWriteLock {
+
+    private static final String LOCK_KEY_PREFIX = "lock:";
+    private static final String WRITERS_KEY_PREFIX = "lock-writers:";
+    private static final String LOCK_CHANNEL_PREFIX = "lock:channel:";
+    private static final String UNLOCK_MESSAGE = "0";
+    private static final int DEFAULT_LEASE_TIME = 10000;
+    private static final Long RELEASE_SUCCESS = 1L;
+
+    /**
+     * A waiting writer which did not refresh its registration for that long no longer holds the readers back
+     */
+    private static final int WAITER_TIMEOUT = 5000;
+    private static final long WAITER_REFRESH = WAITER_TIMEOUT / 2;
+
+    private static final String COMMON_SCRIPT = "rw-common.lua";
+    private static final RedisScript READ_LOCK_SCRIPT = RedisScript.fromClasspath("rw-read-lock.lua", COMMON_SCRIPT);
+    private static final RedisScript READ_UNLOCK_SCRIPT = RedisScript.fromClasspath("rw-read-unlock.lua", COMMON_SCRIPT);
+    private static final RedisScript WRITE_LOCK_SCRIPT = RedisScript.fromClasspath("rw-write-lock.lua", COMMON_SCRIPT);
+    private static final RedisScript WRITE_UNLOCK_SCRIPT = RedisScript.fromClasspath("rw-write-unlock.lua", COMMON_SCRIPT);
+
+    private static final String CLIENT_ID = UUID.randomUUID().toString();
+
+    private final String lockKey;
+    private final String writersKey;
+    private final List<String> keys;
+    private final String channel;
+    private final int leaseTime;
+    private final JedisPool jedisPool;
+    private final ScriptRegistry scriptRegistry;
+    private final LockReleaseSubscriber subscriber;
+    private final LeaseWatchdog watchdog;
+
+    private final ReadLock readLock = new ReadLock();
+    private final WriteLock writeLock = new WriteLock();
+
+    /**
+     * Constructs a new ReadWriteLock on the specified key.
+     *
+     * @param lockKey   the key to lock on
+     * @param jedisPool the pool to use
+     */
+    public ReentrantRedisReadWriteLock(String lockKey, JedisPool jedisPool) {
+        this(lockKey, jedisPool, DEFAULT_LEASE_TIME);
+    }
+
+    /**
+     * Constructs a new ReadWriteLock on the specified key.
+     *
+     * @param lockKey   the key to lock on
+     * @param jedisPool the pool to use
+     * @param leaseTime the lease of the writer and of each reader, renewed while it is held, in milliseconds
+     */
+    public ReentrantRedisReadWriteLock(String lockKey, JedisPool jedisPool, int leaseTime) {
+        if (leaseTime <= 0) {
+            throw new IllegalArgumentException("Lease time must be positive: " + leaseTime);
+        }
+        this.lockKey = LOCK_KEY_PREFIX + lockKey;
+        this.writersKey = WRITERS_KEY_PREFIX + lockKey;
+        this.keys = Arrays.asList(this.lockKey, writersKey);
+        this.channel = LOCK_CHANNEL_PREFIX + lockKey;
+        this.leaseTime = leaseTime;
+        this.jedisPool = jedisPool;
+        this.scriptRegistry = ScriptRegistry.forPool(jedisPool);
+        this.subscriber = LockReleaseSubscriber.forPool(jedisPool);
+        this.watchdog = LeaseWatchdog.forPool(jedisPool);
+    }
+
+    /**
+     * Gets the read lock associated with this lock.
+     *
+     * @return the read lock associated with this lock
+     */
+    @Override
+    public ReadLock readLock() {
+        return readLock;
+    }
+
+    /**
+     * Gets the write lock associated with this lock.
+     *
+     * @return the write lock associated with this lock
+     */
+    @Override
+    public WriteLock writeLock() {
+        return writeLock;
+    }
+
+    /**
+     * @return the lease of the writer and of each reader, in milliseconds
+     */
+    public int getLeaseTime() {
+        return leaseTime;
+    }
+
+    private static String getOwner() {
+        return CLIENT_ID + ":" + Thread.currentThread().getId();
+    }
+
+    public final class ReadLock extends HoldCountingLock {
+
+        private ReadLock() {
+            super(":r");
+        }
+
+        @Override
+        Long acquireInner(String owner, boolean waiting) {
+            return (Long) scriptRegistry.eval(READ_LOCK_SCRIPT, keys, Arrays.asList(owner, String.valueOf(leaseTime)));
+        }
+
+        @Override
+        Long releaseInner(String owner) {
+            return (Long) scriptRegistry.eval(READ_UNLOCK_SCRIPT, Collections.singletonList(lockKey),
+                    Arrays.asList(owner, channel, UNLOCK_MESSAGE));
+        }
+    }
+
+    public final class WriteLock extends HoldCountingLock {
+
+        private WriteLock() {
+            super(":w");
+        }
+
+        @Override
+        Long acquireInner(String owner, boolean waiting) {
+            Long ttl = (Long) scriptRegistry.eval(WRITE_LOCK_SCRIPT, keys, Arrays.asList(owner,
+                    String.valueOf(leaseTime), String.valueOf(WAITER_TIMEOUT), waiting ? "1" : "0"));
+            if (ttl == null || !waiting) {
+                return ttl;
+            }
+            // wake up in time to refresh the registration as a waiting writer
+            return ttl < 0L ? WAITER_REFRESH : Math.min(ttl, WAITER_REFRESH);
+        }
+
+        @Override
+        Long releaseInner(String owner) {
+            return (Long) scriptRegistry.eval(WRITE_UNLOCK_SCRIPT, Collections.singletonList(lockKey),
+                    Arrays.asList(owner, String.valueOf(leaseTime), channel, UNLOCK_MESSAGE));
+        }
+
+        @Override
+        void cancel(String owner) {
+            try (Jedis jedis = jedisPool.getResource()) {
+                if (jedis.zrem(writersKey, owner) > 0L) {
+                    // the readers held back by this writer can go
+                    jedis.publish(channel, UNLOCK_MESSAGE);
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts the holds of each thread locally, so that only its first acquisition and its last release go to Redis.
+     */
+    abstract class HoldCountingLock implements Lock {
+
+        /**
+         * The suffix of the owner's field in the lock hash
+         */
+        private final String suffix;
+        private final ThreadLocal<LockHolder> holds = new ThreadLocal<>();
+
+        private HoldCountingLock(String suffix) {
+            this.suffix = suffix;
+        }
+
+        /**
+         * @return null if the lock was acquired, otherwise the time to wait before the next attempt, in milliseconds
+         */
+        abstract Long acquireInner(String owner, boolean waiting);
+
+        /**
+         * @return null if the owner did not hold the lock anymore, 1 if it was released, 0 if it is still held
+         */
+        abstract Long releaseInner(String owner);
+
+        /**
+         * Called when the owner gives up waiting.
+         */
+        void cancel(String owner) {
+        }
+
+        @Override
+        public final void lock() {
+            if (checkReentrancy()) return;
+
+            boolean interrupted = false;
+            for (; ; ) {
+                try {
+                    acquire(-1L);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public final void lockInterruptibly() throws InterruptedException {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (checkReentrancy()) return;
+            acquire(-1L);
+        }
+
+        @Override
+        public final boolean tryLock() {
+            if (checkReentrancy()) return true;
+            String owner = getOwner();
+            if (acquireInner(owner, false) != null) {
+                return false;
+            }
+            acquired(owner);
+            return true;
+        }
+
+        @Override
+        public final boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (checkReentrancy()) return true;
+            return acquire(unit.toNanos(time));
+        }
+
+        /**
+         * Determines whether or not this party holds the lock.
+         *
+         * @return true if the current thread holds the lock
+         */
+        public final boolean hasLock() {
+            return holds.get() != null;
+        }
+
+        /**
+         * Releases the lock.
+         * <p>
+         * The lock is only released in Redis once the current thread has released all of its holds.
+         *
+         * @throws IllegalMonitorStateException if the current thread does not hold the lock, or if its lease was lost
+         *                                      before it could be released
+         */
+        @Override
+        public final void unlock() {
+            LockHolder holder = holds.get();
+            if (holder == null)
+                throw new IllegalMonitorStateException("Attempting to unlock without first obtaining that lock on this thread");
+
+            if (--holder.numLocks > 0) {
+                return;
+            }
+            holds.remove();
+            String owner = getOwner();
+            watchdog.unwatch(lockKey, owner + suffix);
+            Long result = releaseInner(owner);
+            if (result == null) {
+                throw new IllegalMonitorStateException("Lease of " + lockKey + " expired before it was unlocked");
+            }
+            if (!RELEASE_SUCCESS.equals(result)) {
+                // another lock object of this thread still holds it
+                watchdog.watch(lockKey, owner + suffix, leaseTime);
+            }
+        }
+
+        /**
+         * Conditions are not supported.
+         *
+         * @throws UnsupportedOperationException always
+         */
+        @Override
+        public Condition newCondition() {
+            throw new UnsupportedOperationException("Conditions are not supported by " + getClass().getSimpleName());
+        }
+
+        private boolean acquire(long waitNanos) throws InterruptedException {
+            String owner = getOwner();
+            boolean acquired = false;
+            try {
+                acquired = subscriber.acquire(channel, waitNanos, () -> acquireInner(owner, true));
+            } finally {
+                if (!acquired) {
+                    cancel(owner);
+                }
+            }
+            if (acquired) {
+                acquired(owner);
+            }
+            return acquired;
+        }
+
+        private void acquired(String owner) {
+            holds.set(new LockHolder());
+            watchdog.watch(lockKey, owner + suffix, leaseTime);
+        }
+
+        private boolean checkReentrancy() {
+            LockHolder local = holds.get();
+            if (local != null) {
+                local.numLocks++;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /*Holder for the holds of the current thread*/
+    private static class LockHolder {
+        /*accessed by the owning thread only*/
+        private int numLocks = 1;
+    }
+}
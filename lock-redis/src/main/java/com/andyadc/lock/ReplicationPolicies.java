@@ -0,0 +1,54 @@
+package com.andyadc.lock;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Chooses the {@link ReplicationPolicy} of a key by its prefix: the policy registered for the longest prefix of the
+ * key applies. Keys no registered prefix matches are not replicated before they are granted, unless a default policy
+ * is set.
+ */
+public final class ReplicationPolicies {
+
+    private final Map<String, ReplicationPolicy> policies = new ConcurrentHashMap<>();
+    private volatile ReplicationPolicy defaultPolicy;
+
+    /**
+     * Sets the policy of the keys starting with the given prefix.
+     *
+     * @param keyPrefix the prefix of the keys, as given to the lock, without the {@code lock:} namespace
+     * @param policy    the policy of those keys, null to remove it
+     */
+    public void register(String keyPrefix, ReplicationPolicy policy) {
+        if (policy == null) {
+            policies.remove(keyPrefix);
+        } else {
+            policies.put(keyPrefix, policy);
+        }
+    }
+
+    /**
+     * Sets the policy of the keys no registered prefix matches, none by default.
+     *
+     * @param policy the default policy, null for none
+     */
+    public void setDefault(ReplicationPolicy policy) {
+        this.defaultPolicy = policy;
+    }
+
+    /**
+     * @return the policy of the key, null if acquisitions of the key do not wait for replicas
+     */
+    public ReplicationPolicy forKey(String key) {
+        ReplicationPolicy policy = defaultPolicy;
+        int matched = -1;
+        for (Map.Entry<String, ReplicationPolicy> entry : policies.entrySet()) {
+            String prefix = entry.getKey();
+            if (prefix.length() > matched && key.startsWith(prefix)) {
+                policy = entry.getValue();
+                matched = prefix.length();
+            }
+        }
+        return policy;
+    }
+}
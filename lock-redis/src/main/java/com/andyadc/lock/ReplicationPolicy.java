@@ -0,0 +1,102 @@
+package com.andyadc.lock;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Requires the acquisition of a lock to be acknowledged by replicas before the lock is granted.
+ * <p>
+ * Redis replicates asynchronously: a lock set on a master which fails over before the write reached a replica is
+ * lost, and another party can acquire it on the promoted replica while the first holder still runs. Under this policy
+ * a successful acquisition is followed by {@code WAIT numReplicas timeout}; a lock which was not acknowledged by enough
+ * replicas within the timeout is released again, and the acquisition fails. An attempt which finds the lock held
+ * fails at once, without waiting for the replicas.
+ * <p>
+ * This narrows the window but does not close it: WAIT does not make Redis strongly consistent. Fencing tokens, see
+ * {@link LockHandle}, remain the way to protect a resource against two holders.
+ * <p>
+ * The policy records how long its acquisitions waited for the replicas, the latency it adds, so that it can be chosen
+ * per key prefix with its cost in view.
+ *
+ * @see ReplicationPolicies
+ */
+public final class ReplicationPolicy {
+
+    private final int replicas;
+    private final int timeout;
+
+    private final LongAdder acknowledged = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    /**
+     * @param replicas the number of replicas which must acknowledge an acquisition
+     * @param timeout  the maximum time to wait for them, in milliseconds, which should stay below the socket timeout
+     *                 of the connections
+     */
+    public ReplicationPolicy(int replicas, int timeout) {
+        if (replicas <= 0) {
+            throw new IllegalArgumentException("Number of replicas must be positive: " + replicas);
+        }
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Timeout must be positive: " + timeout);
+        }
+        this.replicas = replicas;
+        this.timeout = timeout;
+    }
+
+    public int getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * @return the maximum time to wait for the replicas, in milliseconds
+     */
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @return the number of acquisitions acknowledged by enough replicas
+     */
+    public long getAcknowledged() {
+        return acknowledged.sum();
+    }
+
+    /**
+     * @return the number of acquisitions which were released again for lack of acknowledgements
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * @return the mean time acquisitions waited for the replicas, in milliseconds
+     */
+    public double getMeanWaitMillis() {
+        long count = acknowledged.sum() + failures.sum();
+        return count == 0L ? 0.0 : totalWaitNanos.sum() / (double) count / TimeUnit.MILLISECONDS.toNanos(1L);
+    }
+
+    /**
+     * @return the longest time an acquisition waited for the replicas, in milliseconds
+     */
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / (double) TimeUnit.MILLISECONDS.toNanos(1L);
+    }
+
+    void record(long waitNanos, boolean acknowledged) {
+        (acknowledged ? this.acknowledged : failures).increment();
+        totalWaitNanos.add(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    @Override
+    public String toString() {
+        return "ReplicationPolicy{replicas=" + replicas + ", timeout=" + timeout
+                + ", acknowledged=" + getAcknowledged() + ", failures=" + getFailures()
+                + ", meanWaitMillis=" + getMeanWaitMillis() + ", maxWaitMillis=" + getMaxWaitMillis() + '}';
+    }
+}
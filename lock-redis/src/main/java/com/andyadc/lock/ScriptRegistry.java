@@ -0,0 +1,265 @@
+package com.andyadc.lock;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+import redis.clients.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Loads Lua scripts into a Redis server once and invokes them by digest with EVALSHA.
+ * <p>
+ * There is one registry per {@link JedisPool}. A script is sent with SCRIPT LOAD the first time it is used through
+ * the registry, every later invocation only sends its SHA1. If the server answers NOSCRIPT, for instance after a
+ * restart or a failover to a replica that never saw the script, the script is loaded again and the call retried.
+ * <p>
+ * There is also one registry per {@link PipelinedRedisClient}, which invokes the scripts through the client instead
+ * of borrowing connections. Its replies are converted as Jedis does, but it has no connection or pipeline to hand out:
+ * only the methods which do not take one can be used.
+ * <p>
+ * Finally there is one registry per {@link RedisClusterRouter}, which runs each script on the shard owning the slot of
+ * its first key, through the registry of that shard. All of the keys of a call must be in the same slot.
+ * <p>
+ * The registry of a client or of a router is dropped when it is closed, the one of a pool by
+ * {@link LockResources#release(JedisPool)} or once the pool is found closed.
+ */
+public final class ScriptRegistry {
+
+    private static final Map<JedisPool, ScriptRegistry> REGISTRIES = new ConcurrentHashMap<>();
+    private static final Map<PipelinedRedisClient, ScriptRegistry> CLIENT_REGISTRIES = new ConcurrentHashMap<>();
+    private static final Map<RedisClusterRouter, ScriptRegistry> CLUSTER_REGISTRIES = new ConcurrentHashMap<>();
+
+    private final JedisPool jedisPool;
+    private final PipelinedRedisClient client;
+    private final RedisClusterRouter cluster;
+    /**
+     * Digests of the scripts known to be cached by the server
+     */
+    private final Set<String> loaded = ConcurrentHashMap.newKeySet();
+
+    private ScriptRegistry(JedisPool jedisPool, PipelinedRedisClient client, RedisClusterRouter cluster) {
+        this.jedisPool = jedisPool;
+        this.client = client;
+        this.cluster = cluster;
+    }
+
+    public static ScriptRegistry forPool(JedisPool jedisPool) {
+        ScriptRegistry registry = REGISTRIES.get(jedisPool);
+        if (registry == null) {
+            // the registries of the pools closed without being released go before a new one is added
+            REGISTRIES.keySet().removeIf(JedisPool::isClosed);
+            registry = REGISTRIES.computeIfAbsent(jedisPool, pool -> new ScriptRegistry(pool, null, null));
+        }
+        return registry;
+    }
+
+    public static ScriptRegistry forClient(PipelinedRedisClient client) {
+        return CLIENT_REGISTRIES.computeIfAbsent(client, c -> new ScriptRegistry(null, c, null));
+    }
+
+    public static ScriptRegistry forCluster(RedisClusterRouter cluster) {
+        return CLUSTER_REGISTRIES.computeIfAbsent(cluster, c -> new ScriptRegistry(null, null, c));
+    }
+
+    static void release(JedisPool jedisPool) {
+        REGISTRIES.remove(jedisPool);
+    }
+
+    static void release(PipelinedRedisClient client) {
+        CLIENT_REGISTRIES.remove(client);
+    }
+
+    static void release(RedisClusterRouter cluster) {
+        CLUSTER_REGISTRIES.remove(cluster);
+    }
+
+    /**
+     * Loads the given scripts that are not loaded yet. Through a cluster, scripts are loaded on each shard the first
+     * time they run there instead.
+     */
+    public void load(RedisScript... scripts) {
+        if (cluster != null) {
+            return;
+        }
+        List<RedisScript> missing = new ArrayList<>(scripts.length);
+        for (RedisScript script : scripts) {
+            if (!loaded.contains(script.getSha1())) {
+                missing.add(script);
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        if (client != null) {
+            for (RedisScript script : missing) {
+                load(client, script);
+            }
+            return;
+        }
+        try (Jedis jedis = jedisPool.getResource()) {
+            for (RedisScript script : missing) {
+                load(jedis, script);
+            }
+        }
+    }
+
+    /**
+     * Invokes the script on a connection borrowed from the pool, or through the client of this registry.
+     */
+    public Object eval(RedisScript script, List<String> keys, List<String> args) {
+        if (client != null) {
+            return eval(client, script, keys, args);
+        }
+        if (cluster != null) {
+            return cluster.executeOnSlot(RedisClusterRouter.slot(firstKey(keys)),
+                    (jedis, pool) -> forPool(pool).eval(jedis, script, keys, args));
+        }
+        try (Jedis jedis = jedisPool.getResource()) {
+            return eval(jedis, script, keys, args);
+        }
+    }
+
+    /**
+     * Invokes the script on the given connection, which must belong to the pool of this registry.
+     */
+    public Object eval(Jedis jedis, RedisScript script, List<String> keys, List<String> args) {
+        String sha1 = script.getSha1();
+        if (!loaded.contains(sha1)) {
+            load(jedis, script);
+        }
+        try {
+            return jedis.evalsha(sha1, keys, args);
+        } catch (JedisNoScriptException e) {
+            loaded.remove(sha1);
+            load(jedis, script);
+            return jedis.evalsha(sha1, keys, args);
+        }
+    }
+
+    /**
+     * Invokes the script with binary keys and arguments, the keys first in the buffer.
+     * <p>
+     * Through a client, nothing is allocated but the reply; through the pool, the arguments are copied out of the
+     * buffer. Replies are returned raw, as with the binary commands of Jedis: bulk replies are {@code byte[]}.
+     */
+    Object eval(RedisScript script, int numKeys, CommandBuffer keysAndArgs) {
+        String sha1 = script.getSha1();
+        if (client != null) {
+            if (!loaded.contains(sha1)) {
+                load(client, script);
+            }
+            try {
+                return client.await(client.evalsha(script.getRawSha1(), numKeys, keysAndArgs));
+            } catch (JedisNoScriptException e) {
+                loaded.remove(sha1);
+                load(client, script);
+                return client.await(client.evalsha(script.getRawSha1(), numKeys, keysAndArgs));
+            }
+        }
+        List<byte[]> keys = keysAndArgs.copy(0, numKeys);
+        List<byte[]> args = keysAndArgs.copy(numKeys, keysAndArgs.size());
+        if (cluster != null) {
+            return cluster.executeOnSlot(RedisClusterRouter.slot(firstKey(keys)),
+                    (jedis, pool) -> forPool(pool).evalBinary(jedis, script, keys, args));
+        }
+        try (Jedis jedis = jedisPool.getResource()) {
+            return evalBinary(jedis, script, keys, args);
+        }
+    }
+
+    /**
+     * Queues the script on a pipeline.
+     * <p>
+     * No command can be sent outside of an open pipeline, so the script must have been passed to {@link #load}
+     * before the pipeline was opened. A NOSCRIPT reply can not be retried from within the pipeline either: callers
+     * seeing a {@link JedisNoScriptException} from the response should {@link #invalidate} the script and run the
+     * pipeline again.
+     * <p>
+     * Replies are returned raw, as with the binary commands of Jedis: bulk replies are {@code byte[]}.
+     */
+    public Response<Object> eval(Pipeline pipeline, RedisScript script, List<byte[]> keys, List<byte[]> args) {
+        return pipeline.evalsha(script.getRawSha1(), keys, args);
+    }
+
+    /**
+     * Forgets that the script is loaded, so that it is sent again on its next invocation.
+     */
+    public void invalidate(RedisScript script) {
+        loaded.remove(script.getSha1());
+    }
+
+    private Object evalBinary(Jedis jedis, RedisScript script, List<byte[]> keys, List<byte[]> args) {
+        String sha1 = script.getSha1();
+        if (!loaded.contains(sha1)) {
+            load(jedis, script);
+        }
+        try {
+            return jedis.evalsha(script.getRawSha1(), keys, args);
+        } catch (JedisNoScriptException e) {
+            loaded.remove(sha1);
+            load(jedis, script);
+            return jedis.evalsha(script.getRawSha1(), keys, args);
+        }
+    }
+
+    private static <K> K firstKey(List<K> keys) {
+        if (keys.isEmpty()) {
+            throw new IllegalArgumentException("Scripts without keys can not be routed to a shard");
+        }
+        return keys.get(0);
+    }
+
+    private Object eval(PipelinedRedisClient client, RedisScript script, List<String> keys, List<String> args) {
+        String sha1 = script.getSha1();
+        if (!loaded.contains(sha1)) {
+            load(client, script);
+        }
+        try {
+            return decode(client.await(client.evalsha(sha1, keys, args)));
+        } catch (JedisNoScriptException e) {
+            loaded.remove(sha1);
+            load(client, script);
+            return decode(client.await(client.evalsha(sha1, keys, args)));
+        }
+    }
+
+    private void load(PipelinedRedisClient client, RedisScript script) {
+        loaded(script, SafeEncoder.encode((byte[]) client.execute("SCRIPT", "LOAD", script.getSource())));
+    }
+
+    private void load(Jedis jedis, RedisScript script) {
+        loaded(script, jedis.scriptLoad(script.getSource()));
+    }
+
+    private void loaded(RedisScript script, String sha1) {
+        if (!script.getSha1().equals(sha1)) {
+            throw new IllegalStateException("Unexpected digest " + sha1 + " for script " + script);
+        }
+        loaded.add(sha1);
+    }
+
+    /**
+     * Converts a raw reply the way Jedis converts the replies of EVALSHA: bulk replies are strings.
+     */
+    private static Object decode(Object reply) {
+        if (reply instanceof byte[]) {
+            return SafeEncoder.encode((byte[]) reply);
+        }
+        if (reply instanceof List) {
+            List<?> raw = (List<?>) reply;
+            List<Object> decoded = new ArrayList<>(raw.size());
+            for (Object element : raw) {
+                decoded.add(decode(element));
+            }
+            return decoded;
+        }
+        return reply;
+    }
+}
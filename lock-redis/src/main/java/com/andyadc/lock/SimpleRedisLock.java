@@ -1,21 +1,83 @@
 package com.andyadc.lock;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.util.SafeEncoder;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * <URL>http://wudashan.com/2017/10/23/Redis-Distributed-Lock-Implement/</URL>
  * <p>只考虑Redis服务端单机部署的场景</p>
+ * <p>
+ * Blocking acquisitions do not poll: the waiter subscribes to the release channel of the key and sleeps until
+ * the holder publishes its release, or until the remaining TTL of the holder elapses. Waiters of the same key
+ * queue on a per-key local lock, so only one of them per JVM talks to Redis: the others do not interfere with the
+ * waiters of unrelated keys, and Redis sees one contender per host instead of one per thread.
+ * <p>
+ * Locks acquired without an explicit expire time are leased for {@link #getLeaseTime()} and renewed by the
+ * {@link LeaseWatchdog} for as long as they are held, so the lease can stay short without bounding the length of
+ * the critical section: a crashed holder only blocks the other parties until its last lease runs out.
+ * <p>
+ * The asynchronous methods never block the calling thread: a pending acquisition is woken up by the releases
+ * published on its key and by timers, and holds no thread while it waits. Thousands of them only cost a few objects
+ * each. Their Redis round trips run on a small pool of daemon threads shared by the locks of the same pool.
+ * <p>
+ * How long a waiter sleeps when no release is published can be chosen per key prefix, see
+ * {@link #getBackoffStrategies()}.
+ * <p>
+ * Locks acquired by {@link #tryAcquire(String, int)} come with a fencing token, see {@link LockHandle}, which lets
+ * the protected resource reject the writes of a holder whose lease expired.
+ * <p>
+ * A lock is owned by the thread which acquired it, through this lock object: each thread has an owner token of its
+ * own, computed once. The asynchronous methods act on behalf of the calling thread.
+ * <p>
+ * The binary methods, {@link #tryLock(byte[], int)} and {@link #unlock(byte[])}, take the key as bytes and write
+ * it after its prefix into a buffer of the current thread: with a {@link PipelinedRedisClient}, they allocate nothing
+ * but the reply.
+ * <p>
+ * The acquisitions of the keys which must survive a failover can be made to wait for replicas, per key prefix, see
+ * {@link #getReplicationPolicies()}.
+ * <p>
+ * On a Redis Cluster, see {@link RedisClusterRouter}, each lock is handled by the shard owning the slot of its key,
+ * so the lock throughput grows with the number of shards. The batch methods take the keys slot by slot: a hash tag
+ * puts keys in the same slot, to lock them in a single call. The fencing token counter of a key is hash tagged into
+ * the slot of its lock.
+ * <p>
+ * Under contention, the locks found held can be remembered until their TTL runs out or their release is published,
+ * see {@link #setNearCacheEnabled(boolean)}, so that the attempts on a hot key fail without a round trip.
+ * <p>
+ * The locks held through this object are remembered, so that {@link #releaseAll()} can release them in a single
+ * round trip; it runs for every live lock object when the JVM shuts down, so that the other parties do not wait for
+ * the leases of a stopped process to run out.
+ * <p>
+ * The lock commands can be sent through a {@link PipelinedRedisClient} instead of connections borrowed from the
+ * pool, so that many threads share a few connections and their round trips; the pool is then only used to listen
+ * to the releases and to renew the leases.
  *
  * @author andaicheng
  * @since 2018/4/22
  */
 public class SimpleRedisLock {
 
+    private static final Logger logger = LoggerFactory.getLogger(SimpleRedisLock.class);
+
     private static final String LOCK_SUCCESS = "OK";
     private static final Long RELEASE_SUCCESS = 1L;
     private static final String SET_IF_NOT_EXIST = "NX";
@@ -23,20 +85,122 @@ public class SimpleRedisLock {
 
     private static final String LOCK_KEY_PREFIX = "lock:";
     private static final String LOCK_VALUE_PREFIX = "lock:v:";
+    private static final String LOCK_CHANNEL_PREFIX = "lock:channel:";
+    /**
+     * The fencing token counters, outside of the lock keys: no key given to a lock maps to one of them
+     */
+    private static final String FENCE_KEY_PREFIX = "lock-fence:";
+    private static final String UNLOCK_MESSAGE = "0";
 
-    private final UUID uuid = UUID.randomUUID();
-    private String lockValue;
+    private static final byte[] SET = SafeEncoder.encode("SET");
+    private static final byte[] SET_IF_NOT_EXIST_BYTES = SafeEncoder.encode(SET_IF_NOT_EXIST);
+    private static final byte[] SET_WITH_EXPIRE_TIME_BYTES = SafeEncoder.encode(SET_WITH_EXPIRE_TIME);
+    private static final byte[] LOCK_KEY_PREFIX_BYTES = SafeEncoder.encode(LOCK_KEY_PREFIX);
+    private static final byte[] LOCK_CHANNEL_PREFIX_BYTES = SafeEncoder.encode(LOCK_CHANNEL_PREFIX);
+    private static final byte[] UNLOCK_MESSAGE_BYTES = SafeEncoder.encode(UNLOCK_MESSAGE);
+    private static final int DEFAULT_LEASE_TIME = 10000;
+
+    private static final RedisScript LOCK_SCRIPT = RedisScript.fromClasspath("lock.lua");
+    private static final RedisScript UNLOCK_SCRIPT = RedisScript.fromClasspath("unlock.lua");
+    private static final RedisScript FENCED_LOCK_SCRIPT = RedisScript.fromClasspath("fenced-lock.lua");
+    private static final RedisScript LOCK_ALL_SCRIPT = RedisScript.fromClasspath("lock-all.lua");
+    private static final RedisScript UNLOCK_ALL_SCRIPT = RedisScript.fromClasspath("unlock-all.lua");
+    private static final RedisScript RELEASE_ALL_SCRIPT = RedisScript.fromClasspath("release-all.lua");
 
+    /*guarded by itself, the lock objects whose locks are released on shutdown*/
+    private static final Set<SimpleRedisLock> LIVE_LOCKS = Collections.newSetFromMap(new WeakHashMap<>());
+    /*guarded by LIVE_LOCKS*/
+    private static boolean shutdownHookAdded;
+
+    private final UUID uuid = UUID.randomUUID();
     /**
-     * A local mutex lock for managing inter-thread synchronization
+     * The owner token of each thread
      */
-    private final ReentrantLock localLock = new ReentrantLock(false);
+    private final ThreadLocal<Owner> owners = ThreadLocal.withInitial(this::newOwner);
 
     private JedisPool jedisPool;
+    private final PipelinedRedisClient client;
+    private final RedisClusterRouter cluster;
+    private final ScriptRegistry scriptRegistry;
+    private final LockReleaseSubscriber subscriber;
+    private final LeaseWatchdog watchdog;
+    private final int leaseTime;
+    private final BackoffStrategies backoffStrategies = new BackoffStrategies();
+    private final ReplicationPolicies replicationPolicies = new ReplicationPolicies();
+    private final OwnedLocks ownedLocks = new OwnedLocks();
+    private volatile boolean nearCacheEnabled;
+    private volatile ContentionTracker contentionTracker;
 
     public SimpleRedisLock(JedisPool jedisPool) {
+        this(jedisPool, DEFAULT_LEASE_TIME);
+    }
+
+    /**
+     * @param jedisPool the pool to use
+     * @param leaseTime the lease of the auto-renewed locks, in milliseconds
+     */
+    public SimpleRedisLock(JedisPool jedisPool, int leaseTime) {
+        this(jedisPool, null, leaseTime);
+    }
+
+    /**
+     * @param jedisPool the pool to use to listen to the releases and to renew the leases
+     * @param client    the client to send the lock commands through
+     */
+    public SimpleRedisLock(JedisPool jedisPool, PipelinedRedisClient client) {
+        this(jedisPool, client, DEFAULT_LEASE_TIME);
+    }
+
+    /**
+     * @param jedisPool the pool to use to listen to the releases and to renew the leases
+     * @param client    the client to send the lock commands through, null to use the pool
+     * @param leaseTime the lease of the auto-renewed locks, in milliseconds
+     */
+    public SimpleRedisLock(JedisPool jedisPool, PipelinedRedisClient client, int leaseTime) {
+        this(jedisPool, client, null, leaseTime);
+    }
+
+    /**
+     * @param cluster the cluster to use
+     */
+    public SimpleRedisLock(RedisClusterRouter cluster) {
+        this(cluster, DEFAULT_LEASE_TIME);
+    }
+
+    /**
+     * @param cluster   the cluster to use
+     * @param leaseTime the lease of the auto-renewed locks, in milliseconds
+     */
+    public SimpleRedisLock(RedisClusterRouter cluster, int leaseTime) {
+        this(null, null, cluster, leaseTime);
+    }
+
+    private SimpleRedisLock(JedisPool jedisPool, PipelinedRedisClient client, RedisClusterRouter cluster,
+                            int leaseTime) {
+        if (leaseTime <= 0) {
+            throw new IllegalArgumentException("Lease time must be positive: " + leaseTime);
+        }
         this.jedisPool = jedisPool;
-        this.lockValue = this.getLockValue();
+        this.client = client;
+        this.cluster = cluster;
+        if (cluster != null) {
+            // per shard, see subscriber() and watchdog()
+            this.scriptRegistry = ScriptRegistry.forCluster(cluster);
+            this.subscriber = null;
+            this.watchdog = null;
+        } else {
+            this.scriptRegistry = client != null ? ScriptRegistry.forClient(client) : ScriptRegistry.forPool(jedisPool);
+            this.subscriber = LockReleaseSubscriber.forPool(jedisPool);
+            this.watchdog = LeaseWatchdog.forPool(jedisPool);
+            try {
+                scriptRegistry.load(LOCK_SCRIPT, UNLOCK_SCRIPT);
+            } catch (JedisException e) {
+                // loaded on their first call instead
+                logger.debug("Failed to preload the lock scripts", e);
+            }
+        }
+        this.leaseTime = leaseTime;
+        releaseOnShutdown(this);
     }
 
     /**
@@ -44,24 +208,565 @@ public class SimpleRedisLock {
      */
     public boolean tryLock(String lockKey,
                            int expireTime) {
-        lockKey = LOCK_KEY_PREFIX + lockKey;
-        try (Jedis jedis = jedisPool.getResource()) {
-            return this.tryLockInner(jedis, lockKey, expireTime, lockValue);
+        String owner = getOwner();
+        if (!tryLockOnce(lockKey, expireTime, owner)) {
+            contended(lockKey, 1L, 0L);
+            return false;
         }
+        ownedLocks.add(lockKey, owner, expireTime);
+        return true;
+    }
+
+    /**
+     * Acquires the lock only if it is free at the time of invocation, renewing its lease until it is released.
+     */
+    public boolean tryLock(String lockKey) {
+        ReplicationPolicy policy = replicationPolicies.forKey(lockKey);
+        String key = LOCK_KEY_PREFIX + lockKey;
+        String owner = getOwner();
+        Long ttl = policy == null ? acquireCached(lockKey, () -> acquireInner(key, leaseTime, owner, null))
+                : acquireInner(key, leaseTime, owner, policy);
+        if (ttl != null) {
+            contended(lockKey, 1L, 0L);
+            return false;
+        }
+        watch(lockKey, owner);
+        return true;
+    }
+
+    /**
+     * Acquires the lock if it is free within the given waiting time, renewing its lease until it is released.
+     *
+     * @param lockKey  the key to lock
+     * @param waitTime the maximum time to wait for the lock
+     * @param unit     the time unit of the {@code waitTime} argument
+     * @return true if the lock was acquired
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public boolean tryLock(String lockKey,
+                           long waitTime,
+                           TimeUnit unit) throws InterruptedException {
+        String owner = getOwner();
+        if (!lockInner(lockKey, unit.toNanos(waitTime), leaseTime, owner)) {
+            return false;
+        }
+        watch(lockKey, owner);
+        return true;
+    }
+
+    /**
+     * Acquires the lock, waiting for as long as it takes to become available, and renews its lease until it
+     * is released.
+     */
+    public void lock(String lockKey) {
+        lock(lockKey, leaseTime);
+        watch(lockKey, getOwner());
+    }
+
+    /**
+     * Acquires the lock if it is free within the given waiting time (in milliseconds).
+     * <p>
+     * While the lock is held by another party the current thread sleeps until the holder releases it or
+     * its lease expires, it does not poll Redis.
+     *
+     * @param lockKey    the key to lock
+     * @param waitTime   the maximum time to wait for the lock, in milliseconds
+     * @param expireTime the lease of the lock once acquired, in milliseconds
+     * @return true if the lock was acquired
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public boolean tryLock(String lockKey,
+                           long waitTime,
+                           int expireTime) throws InterruptedException {
+        return lockInner(lockKey, TimeUnit.MILLISECONDS.toNanos(waitTime), expireTime, getOwner());
+    }
+
+    /**
+     * Acquires the lock, waiting for as long as it takes to become available.
+     * <p>
+     * Like {@link java.util.concurrent.locks.Lock#lock()}, this method is not interruptible; the interrupt status
+     * of the current thread is restored once the lock has been acquired.
+     *
+     * @param lockKey    the key to lock
+     * @param expireTime the lease of the lock once acquired, in milliseconds
+     */
+    public void lock(String lockKey,
+                     int expireTime) {
+        String owner = getOwner();
+        boolean interrupted = false;
+        for (; ; ) {
+            try {
+                lockInner(lockKey, -1L, expireTime, owner);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Acquires the lock only if it is free at the time of invocation, and draws its fencing token.
+     *
+     * @param lockKey    the key to lock
+     * @param expireTime the lease of the lock once acquired, in milliseconds
+     * @return the handle of the lock, carrying its fencing token, or null if the lock was not acquired
+     * @see LockHandle
+     */
+    public LockHandle tryAcquire(String lockKey,
+                                 int expireTime) {
+        String owner = getOwner();
+        long[] token = new long[1];
+        if (acquireCached(lockKey, () -> acquireFencedInner(lockKey, expireTime, owner, token)) != null) {
+            contended(lockKey, 1L, 0L);
+            return null;
+        }
+        ownedLocks.add(lockKey, owner, expireTime);
+        return new LockHandle(this, lockKey, owner, token[0]);
+    }
+
+    /**
+     * Acquires the lock if it is free within the given waiting time (in milliseconds), and draws its fencing token.
+     *
+     * @param lockKey    the key to lock
+     * @param waitTime   the maximum time to wait for the lock, in milliseconds
+     * @param expireTime the lease of the lock once acquired, in milliseconds
+     * @return the handle of the lock, carrying its fencing token, or null if the lock was not acquired
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     * @see LockHandle
+     */
+    public LockHandle tryAcquire(String lockKey,
+                                 long waitTime,
+                                 int expireTime) throws InterruptedException {
+        String owner = getOwner();
+        long[] token = new long[1];
+        if (!acquireTracked(lockKey, TimeUnit.MILLISECONDS.toNanos(waitTime),
+                () -> owned(lockKey, owner, expireTime, acquireFencedInner(lockKey, expireTime, owner, token)))) {
+            return null;
+        }
+        return new LockHandle(this, lockKey, owner, token[0]);
+    }
+
+    /**
+     * Acquires the lock asynchronously, only if it is free at the time of the attempt.
+     *
+     * @param lockKey    the key to lock
+     * @param expireTime the lease of the lock once acquired, in milliseconds
+     * @return completes with true if the lock was acquired
+     */
+    public CompletableFuture<Boolean> tryLockAsync(String lockKey,
+                                                   int expireTime) {
+        return lockAsyncInner(lockKey, 0L, expireTime, getOwner());
+    }
+
+    /**
+     * Acquires the lock asynchronously if it is free within the given waiting time (in milliseconds).
+     * <p>
+     * Cancelling the returned future gives up waiting; a lock acquired concurrently with the cancellation is
+     * released.
+     *
+     * @param lockKey    the key to lock
+     * @param waitTime   the maximum time to wait for the lock, in milliseconds
+     * @param expireTime the lease of the lock once acquired, in milliseconds
+     * @return completes with true if the lock was acquired, with false if the waiting time elapsed first
+     */
+    public CompletableFuture<Boolean> tryLockAsync(String lockKey,
+                                                   long waitTime,
+                                                   int expireTime) {
+        return lockAsyncInner(lockKey, TimeUnit.MILLISECONDS.toNanos(Math.max(waitTime, 0L)), expireTime,
+                getOwner());
+    }
+
+    /**
+     * Acquires the lock asynchronously, waiting for as long as it takes to become available.
+     *
+     * @param lockKey    the key to lock
+     * @param expireTime the lease of the lock once acquired, in milliseconds
+     * @return completes once the lock is acquired
+     */
+    public CompletableFuture<Void> lockAsync(String lockKey,
+                                             int expireTime) {
+        return lockAsyncInner(lockKey, -1L, expireTime, getOwner()).thenApply(acquired -> null);
+    }
+
+    /**
+     * Acquires the lock asynchronously, waiting for as long as it takes to become available, and renews its lease
+     * until it is released.
+     *
+     * @param lockKey the key to lock
+     * @return completes once the lock is acquired
+     */
+    public CompletableFuture<Void> lockAsync(String lockKey) {
+        String owner = getOwner();
+        return lockAsyncInner(lockKey, -1L, leaseTime, owner).thenApply(acquired -> {
+            watch(lockKey, owner);
+            return null;
+        });
+    }
+
+    /**
+     * Releases the lock asynchronously.
+     *
+     * @param lockKey the key to unlock
+     * @return completes with true if the lock was held and has been released
+     */
+    public CompletableFuture<Boolean> unlockAsync(String lockKey) {
+        String owner = getOwner();
+        return CompletableFuture.supplyAsync(() -> unlock(lockKey, owner),
+                subscriber(LOCK_KEY_PREFIX + lockKey).executor());
+    }
+
+    /**
+     * Acquires all of the locks at once, only if all of them are free at the time of invocation.
+     * <p>
+     * Either every lock is acquired or none is, in a single round trip: there is nothing to roll back when one of
+     * them is held by another party.
+     * <p>
+     * On a cluster, that holds for the keys of a same slot. Keys spread over several slots are locked one slot after
+     * the other, in slot order, and the slots already locked are released if one of them can not be.
+     *
+     * @param lockKeys   the keys to lock
+     * @param expireTime the lease of the locks once acquired, in milliseconds
+     * @return true if all of the locks were acquired
+     */
+    public boolean tryLockAll(Collection<String> lockKeys,
+                              int expireTime) {
+        String owner = getOwner();
+        Set<String> distinctKeys = new LinkedHashSet<>(lockKeys);
+        if (cluster == null) {
+            if (!tryLockAllInner(distinctKeys, expireTime, owner)) {
+                return false;
+            }
+            distinctKeys.forEach(lockKey -> ownedLocks.add(lockKey, owner, expireTime));
+            return true;
+        }
+        Collection<List<String>> groups = groupBySlot(distinctKeys);
+        List<String> locked = new ArrayList<>(distinctKeys.size());
+        for (List<String> group : groups) {
+            if (!tryLockAllInner(group, expireTime, owner)) {
+                groupBySlot(locked).forEach(keys -> unlockAllInner(keys, owner));
+                return false;
+            }
+            locked.addAll(group);
+        }
+        distinctKeys.forEach(lockKey -> ownedLocks.add(lockKey, owner, expireTime));
+        return true;
+    }
+
+    /**
+     * Releases all of the locks still held, in a single round trip.
+     *
+     * @param lockKeys the keys to unlock
+     * @return true if all of the locks were held and have been released
+     */
+    public boolean unlockAll(Collection<String> lockKeys) {
+        String owner = getOwner();
+        Set<String> distinctKeys = new LinkedHashSet<>(lockKeys);
+        distinctKeys.forEach(lockKey -> ownedLocks.remove(lockKey, owner));
+        if (cluster == null) {
+            return unlockAllInner(distinctKeys, owner) == distinctKeys.size();
+        }
+        long released = 0L;
+        for (List<String> group : groupBySlot(distinctKeys)) {
+            released += unlockAllInner(group, owner);
+        }
+        return released == distinctKeys.size();
     }
 
     public boolean unlock(String lockKey) {
-        lockKey = LOCK_KEY_PREFIX + lockKey;
+        return unlock(lockKey, getOwner());
+    }
+
+    /**
+     * Releases every lock held through this object, whichever thread holds it, in a single round trip per slot.
+     * <p>
+     * Each lock is only released if it is still owned by its holder, so a lock which expired and was acquired by
+     * another party meanwhile is left alone. The locks acquired by the binary methods are not remembered, and not
+     * released.
+     *
+     * @return the number of locks which were held and have been released
+     */
+    public long releaseAll() {
+        Map<String, String> held = ownedLocks.drain();
+        if (held.isEmpty()) {
+            return 0L;
+        }
+        for (Map.Entry<String, String> entry : held.entrySet()) {
+            String key = LOCK_KEY_PREFIX + entry.getKey();
+            watchdog(key).unwatch(key, entry.getValue());
+        }
+        if (cluster == null) {
+            return releaseAllInner(held.keySet(), held);
+        }
+        long released = 0L;
+        for (List<String> group : groupBySlot(held.keySet())) {
+            released += releaseAllInner(group, held);
+        }
+        return released;
+    }
+
+    /**
+     * Acquires the lock only if it is free at the time of invocation.
+     * <p>
+     * The binary variant of {@link #tryLock(String, int)}, for the same keys encoded in UTF-8: the prefixed key is
+     * written into a buffer of the current thread instead of a new String.
+     *
+     * @param lockKey    the key to lock
+     * @param expireTime the lease of the lock, in milliseconds
+     * @return true if the lock was acquired
+     */
+    public boolean tryLock(byte[] lockKey,
+                           int expireTime) {
+        byte[] owner = owners.get().bytes;
+        if (client != null) {
+            CommandBuffer command = CommandBuffer.get().add(SET).add(LOCK_KEY_PREFIX_BYTES, lockKey).add(owner)
+                    .add(SET_IF_NOT_EXIST_BYTES).add(SET_WITH_EXPIRE_TIME_BYTES).add(expireTime);
+            return LOCK_SUCCESS.equals(client.await(client.send(command)));
+        }
+        byte[] key = CommandBuffer.get().add(LOCK_KEY_PREFIX_BYTES, lockKey).copy(0);
+        if (cluster != null) {
+            return cluster.executeOnSlot(RedisClusterRouter.slot(key), (jedis, pool) -> LOCK_SUCCESS.equals(
+                    jedis.set(key, owner, SET_IF_NOT_EXIST_BYTES, SET_WITH_EXPIRE_TIME_BYTES, expireTime)));
+        }
         try (Jedis jedis = jedisPool.getResource()) {
-            return releaseLockInner(jedis, lockKey, lockValue);
+            return LOCK_SUCCESS.equals(jedis.set(key, owner, SET_IF_NOT_EXIST_BYTES, SET_WITH_EXPIRE_TIME_BYTES,
+                    expireTime));
         }
     }
 
+    /**
+     * Releases a lock acquired by {@link #tryLock(byte[], int)}.
+     * <p>
+     * The lease of the lock is not renewed, so there is no renewal to stop: a lock acquired by one of the methods
+     * which renew the lease must be released by {@link #unlock(String)}.
+     *
+     * @param lockKey the key to unlock, encoded in UTF-8
+     * @return true if the lock was held and has been released
+     */
+    public boolean unlock(byte[] lockKey) {
+        CommandBuffer keysAndArgs = CommandBuffer.get()
+                .add(LOCK_KEY_PREFIX_BYTES, lockKey)
+                .add(owners.get().bytes)
+                .add(LOCK_CHANNEL_PREFIX_BYTES, lockKey)
+                .add(UNLOCK_MESSAGE_BYTES);
+        return RELEASE_SUCCESS.equals(scriptRegistry.eval(UNLOCK_SCRIPT, 1, keysAndArgs));
+    }
+
+    /**
+     * @return the lease of the auto-renewed locks, in milliseconds
+     */
+    public int getLeaseTime() {
+        return leaseTime;
+    }
+
+    /**
+     * Returns the backoff strategies of the waiting acquisitions, which can be chosen per key prefix. Waiters sleep
+     * for the remaining TTL of the holder by default.
+     *
+     * @return the backoff strategies of this lock
+     */
+    public BackoffStrategies getBackoffStrategies() {
+        return backoffStrategies;
+    }
+
+    /**
+     * Returns the replication policies of the acquisitions, which can be chosen per key prefix. Acquisitions do not
+     * wait for replicas by default.
+     * <p>
+     * They apply to {@link #tryLock(String, int)}, {@link #tryLock(String)} and the waiting and asynchronous
+     * acquisitions, not to the binary, fenced or batch ones.
+     *
+     * @return the replication policies of this lock
+     */
+    public ReplicationPolicies getReplicationPolicies() {
+        return replicationPolicies;
+    }
+
+    /**
+     * Enables the near-cache of the locks held by other parties, disabled by default.
+     * <p>
+     * An attempt which finds a lock held remembers until when it is held at most, from the remaining TTL of the
+     * holder, and subscribes to its release channel: the next attempts on the key fail locally until then, or until
+     * a release is published. A lock may thus be seen held for a moment after it was released, for as long as the
+     * notification takes, but never seen free while it is held.
+     * <p>
+     * It applies to {@link #tryLock(String, int)}, {@link #tryLock(String)} and {@link #tryAcquire(String, int)},
+     * except for the keys with a replication policy. The cache is shared by the locks of the same pool, or shard.
+     *
+     * @param nearCacheEnabled true to fail fast on the locks known to be held
+     */
+    public void setNearCacheEnabled(boolean nearCacheEnabled) {
+        this.nearCacheEnabled = nearCacheEnabled;
+    }
+
+    public boolean isNearCacheEnabled() {
+        return nearCacheEnabled;
+    }
+
+    /**
+     * Sets the tracker which records the contention of the keys, none by default.
+     * <p>
+     * An acquisition which fails, or succeeds after failed attempts, records its number of failed attempts and the
+     * time it took; an acquisition which succeeds at once records nothing. It applies to the single key acquisitions,
+     * not to the binary or batch ones. A tracker can be shared by several locks.
+     *
+     * @param contentionTracker the tracker, null to stop tracking
+     */
+    public void setContentionTracker(ContentionTracker contentionTracker) {
+        this.contentionTracker = contentionTracker;
+    }
+
+    public ContentionTracker getContentionTracker() {
+        return contentionTracker;
+    }
+
+    /**
+     * Releases the lock on behalf of the given owner.
+     */
+    boolean unlock(String lockKey, String owner) {
+        ownedLocks.remove(lockKey, owner);
+        String channel = LOCK_CHANNEL_PREFIX + lockKey;
+        lockKey = LOCK_KEY_PREFIX + lockKey;
+        watchdog(lockKey).unwatch(lockKey, owner);
+        return releaseLockInner(lockKey, owner, channel);
+    }
+
+    private boolean tryLockAllInner(Collection<String> lockKeys,
+                                    int expireTime,
+                                    String owner) {
+        List<String> keys = new ArrayList<>(lockKeys.size());
+        for (String lockKey : lockKeys) {
+            keys.add(LOCK_KEY_PREFIX + lockKey);
+        }
+        return scriptRegistry.eval(LOCK_ALL_SCRIPT, keys, Arrays.asList(owner, String.valueOf(expireTime))) == null;
+    }
+
+    /**
+     * @return the number of locks which were held and have been released
+     */
+    private long unlockAllInner(Collection<String> lockKeys,
+                                String owner) {
+        List<String> keys = new ArrayList<>(lockKeys.size());
+        List<String> args = new ArrayList<>(lockKeys.size() + 2);
+        args.add(owner);
+        args.add(UNLOCK_MESSAGE);
+        for (String lockKey : lockKeys) {
+            keys.add(LOCK_KEY_PREFIX + lockKey);
+            args.add(LOCK_CHANNEL_PREFIX + lockKey);
+        }
+        return (Long) scriptRegistry.eval(UNLOCK_ALL_SCRIPT, keys, args);
+    }
+
+    /**
+     * @param owners the owner of each key
+     * @return the number of locks which were held and have been released
+     */
+    private long releaseAllInner(Collection<String> lockKeys,
+                                 Map<String, String> owners) {
+        List<String> keys = new ArrayList<>(lockKeys.size());
+        List<String> args = new ArrayList<>(lockKeys.size() * 2 + 1);
+        args.add(UNLOCK_MESSAGE);
+        for (String lockKey : lockKeys) {
+            keys.add(LOCK_KEY_PREFIX + lockKey);
+            args.add(owners.get(lockKey));
+            args.add(LOCK_CHANNEL_PREFIX + lockKey);
+        }
+        return (Long) scriptRegistry.eval(RELEASE_ALL_SCRIPT, keys, args);
+    }
+
+    /**
+     * Groups the keys by the slot of their lock, in slot order.
+     */
+    private static Collection<List<String>> groupBySlot(Collection<String> lockKeys) {
+        Map<Integer, List<String>> groups = new TreeMap<>();
+        for (String lockKey : lockKeys) {
+            groups.computeIfAbsent(RedisClusterRouter.slot(LOCK_KEY_PREFIX + lockKey), slot -> new ArrayList<>())
+                    .add(lockKey);
+        }
+        return groups.values();
+    }
+
+    /**
+     * @param key the key of the lock in Redis
+     * @return the subscriber of the shard owning the key
+     */
+    private LockReleaseSubscriber subscriber(String key) {
+        return cluster == null ? subscriber : LockReleaseSubscriber.forPool(cluster.poolFor(key));
+    }
+
+    /**
+     * @param key the key of the lock in Redis
+     * @return the watchdog of the shard owning the key
+     */
+    private LeaseWatchdog watchdog(String key) {
+        return cluster == null ? watchdog : LeaseWatchdog.forShard(cluster.poolFor(key));
+    }
+
+    /**
+     * Renews the lease of the lock until it is released.
+     */
+    private void watch(String lockKey,
+                       String owner) {
+        watchdog(LOCK_KEY_PREFIX + lockKey).watch(LOCK_KEY_PREFIX + lockKey, owner, leaseTime);
+        ownedLocks.add(lockKey, owner, -1L);
+    }
+
+    /**
+     * Remembers the lock if the attempt acquired it.
+     *
+     * @param ttl the result of the attempt, null if the lock was acquired
+     * @return the result of the attempt
+     */
+    private Long owned(String lockKey,
+                       String owner,
+                       int expireTime,
+                       Long ttl) {
+        if (ttl == null) {
+            ownedLocks.add(lockKey, owner, expireTime);
+        }
+        return ttl;
+    }
+
+    /**
+     * @return the owner token of the current thread
+     */
+    private String getOwner() {
+        return owners.get().value;
+    }
+
     /**
      * 生成唯一的 value
      */
-    private String getLockValue() {
-        return LOCK_VALUE_PREFIX + uuid + ":" + Thread.currentThread().getId();
+    private Owner newOwner() {
+        return new Owner(LOCK_VALUE_PREFIX + uuid + ":" + Thread.currentThread().getId());
+    }
+
+    private boolean tryLockOnce(String lockKey,
+                                int expireTime,
+                                String owner) {
+        ReplicationPolicy policy = replicationPolicies.forKey(lockKey);
+        if (policy != null) {
+            return acquireReplicated(LOCK_KEY_PREFIX + lockKey, expireTime, owner, policy) == null;
+        }
+        if (nearCacheEnabled) {
+            // the script returns the TTL of the holder, to be cached
+            String key = LOCK_KEY_PREFIX + lockKey;
+            return acquireCached(lockKey, () -> acquireInner(key, expireTime, owner, null)) == null;
+        }
+        lockKey = LOCK_KEY_PREFIX + lockKey;
+        if (client != null) {
+            return LOCK_SUCCESS.equals(client.execute("SET", lockKey, owner, SET_IF_NOT_EXIST,
+                    SET_WITH_EXPIRE_TIME, String.valueOf(expireTime)));
+        }
+        if (cluster != null) {
+            String key = lockKey;
+            return cluster.execute(key, jedis -> tryLockInner(jedis, key, expireTime, owner));
+        }
+        try (Jedis jedis = jedisPool.getResource()) {
+            return this.tryLockInner(jedis, lockKey, expireTime, owner);
+        }
     }
 
     private boolean tryLockInner(Jedis jedis,
@@ -72,30 +777,267 @@ public class SimpleRedisLock {
         return LOCK_SUCCESS.equals(result);
     }
 
-    private void lockInner(Jedis jedis,
-                           String lockKey,
-                           int expireTime,
-                           String lockValue) {
-        for (; ; ) {
-            localLock.lock();
+    /**
+     * Runs the attempt unless the lock is known to be held, and remembers it if the attempt finds it held.
+     *
+     * @param attempt returns null if the lock was acquired, otherwise the remaining TTL of the holder
+     * @return null if the lock was acquired, otherwise the time the lock is held for at most, in milliseconds
+     */
+    private Long acquireCached(String lockKey,
+                               Supplier<Long> attempt) {
+        if (!nearCacheEnabled) {
+            return attempt.get();
+        }
+        String channel = LOCK_CHANNEL_PREFIX + lockKey;
+        HeldLockCache heldLocks = subscriber(LOCK_KEY_PREFIX + lockKey).heldLocks();
+        Long heldFor = heldLocks.heldFor(channel);
+        if (heldFor != null) {
+            return heldFor;
+        }
+        long stamp = heldLocks.stamp(channel);
+        Long ttl = attempt.get();
+        if (ttl != null) {
+            heldLocks.held(channel, ttl, stamp);
+        }
+        return ttl;
+    }
+
+    /**
+     * @param waitNanos the maximum time to wait, negative to wait forever
+     */
+    private boolean lockInner(String lockKey,
+                              long waitNanos,
+                              int expireTime,
+                              String owner) throws InterruptedException {
+        String key = LOCK_KEY_PREFIX + lockKey;
+        ReplicationPolicy policy = replicationPolicies.forKey(lockKey);
+        return acquireTracked(lockKey, waitNanos,
+                () -> owned(lockKey, owner, expireTime, acquireInner(key, expireTime, owner, policy)));
+    }
+
+    /**
+     * Runs the attempt until it succeeds or the waiting time elapses, and records the contention it met.
+     *
+     * @param waitNanos the maximum time to wait, negative to wait forever
+     */
+    private boolean acquireTracked(String lockKey,
+                                   long waitNanos,
+                                   Supplier<Long> attempt) throws InterruptedException {
+        String channel = LOCK_CHANNEL_PREFIX + lockKey;
+        LockReleaseSubscriber subscriber = subscriber(LOCK_KEY_PREFIX + lockKey);
+        BackoffStrategy backoff = backoffStrategies.forKey(lockKey);
+        if (contentionTracker == null) {
+            return subscriber.acquire(channel, waitNanos, attempt, backoff);
+        }
+        long start = System.nanoTime();
+        long[] failures = new long[1];
+        boolean acquired = subscriber.acquire(channel, waitNanos, counted(attempt, failures), backoff);
+        contended(lockKey, acquired ? failures[0] : Math.max(failures[0], 1L), System.nanoTime() - start);
+        return acquired;
+    }
+
+    /**
+     * @param waitNanos the maximum time to wait, negative to wait forever
+     */
+    private CompletableFuture<Boolean> lockAsyncInner(String lockKey,
+                                                      long waitNanos,
+                                                      int expireTime,
+                                                      String owner) {
+        String channel = LOCK_CHANNEL_PREFIX + lockKey;
+        String key = LOCK_KEY_PREFIX + lockKey;
+        ReplicationPolicy policy = replicationPolicies.forKey(lockKey);
+        Supplier<Long> attempt = () -> owned(lockKey, owner, expireTime, acquireInner(key, expireTime, owner, policy));
+        if (contentionTracker == null) {
+            return subscriber(key).acquireAsync(channel, waitNanos, attempt, backoffStrategies.forKey(lockKey),
+                    () -> unlock(lockKey, owner));
+        }
+        long start = System.nanoTime();
+        long[] failures = new long[1];
+        CompletableFuture<Boolean> acquired = subscriber(key).acquireAsync(channel, waitNanos,
+                counted(attempt, failures), backoffStrategies.forKey(lockKey), () -> unlock(lockKey, owner));
+        acquired.whenComplete((result, error) -> contended(lockKey,
+                Boolean.TRUE.equals(result) ? failures[0] : Math.max(failures[0], 1L), System.nanoTime() - start));
+        return acquired;
+    }
+
+    /**
+     * Counts the failures of the attempt.
+     *
+     * @param failures incremented by every failed attempt, the attempts of an acquisition do not overlap
+     */
+    private static Supplier<Long> counted(Supplier<Long> attempt,
+                                          long[] failures) {
+        return () -> {
+            Long ttl = attempt.get();
+            if (ttl != null) {
+                failures[0]++;
+            }
+            return ttl;
+        };
+    }
+
+    /**
+     * Records the contention met by an acquisition, if contention is tracked.
+     *
+     * @param failures  the number of failed attempts, nothing is recorded for none
+     * @param waitNanos the time the acquisition took
+     */
+    private void contended(String lockKey,
+                           long failures,
+                           long waitNanos) {
+        ContentionTracker tracker = contentionTracker;
+        if (tracker != null && failures > 0L) {
+            tracker.record(lockKey, failures, waitNanos);
+        }
+    }
+
+    /**
+     * @param policy the replication policy of the key, null if there is none
+     * @return null if the lock was acquired, otherwise the remaining TTL of the holder in milliseconds
+     */
+    private Long acquireInner(String lockKey,
+                              int expireTime,
+                              String lockValue,
+                              ReplicationPolicy policy) {
+        if (policy != null) {
+            return acquireReplicated(lockKey, expireTime, lockValue, policy);
+        }
+        return (Long) scriptRegistry.eval(LOCK_SCRIPT, Collections.singletonList(lockKey),
+                Arrays.asList(lockValue, String.valueOf(expireTime)));
+    }
+
+    /**
+     * Acquires the lock, then waits for the replicas once it is acquired: an attempt which finds the lock held costs
+     * no WAIT. Blocking WAIT can not share a pipelined connection, so it always runs on a connection of the pool, or
+     * of the shard.
+     *
+     * @return null if the lock was acquired and acknowledged, otherwise the time to wait before the next attempt
+     */
+    private Long acquireReplicated(String lockKey,
+                                   int expireTime,
+                                   String lockValue,
+                                   ReplicationPolicy policy) {
+        if (cluster != null) {
+            return cluster.executeOnSlot(RedisClusterRouter.slot(lockKey),
+                    (jedis, pool) -> acquireReplicated(jedis, pool, lockKey, expireTime, lockValue, policy));
+        }
+        try (Jedis jedis = jedisPool.getResource()) {
+            return acquireReplicated(jedis, jedisPool, lockKey, expireTime, lockValue, policy);
+        }
+    }
+
+    private Long acquireReplicated(Jedis jedis,
+                                   JedisPool pool,
+                                   String lockKey,
+                                   int expireTime,
+                                   String lockValue,
+                                   ReplicationPolicy policy) {
+        ScriptRegistry registry = ScriptRegistry.forPool(pool);
+        Long ttl = (Long) registry.eval(jedis, LOCK_SCRIPT, Collections.singletonList(lockKey),
+                Arrays.asList(lockValue, String.valueOf(expireTime)));
+        if (ttl != null) {
+            return ttl;
+        }
+        long acquiredAt = System.nanoTime();
+        long replicas = jedis.waitReplicas(policy.getReplicas(), policy.getTimeout());
+        long waitNanos = System.nanoTime() - acquiredAt;
+
+        boolean acknowledged = replicas >= policy.getReplicas();
+        policy.record(waitNanos, acknowledged);
+        if (acknowledged) {
+            return null;
+        }
+        logger.warn("Lock {} was acknowledged by {} of {} replicas, releasing it", lockKey, replicas,
+                policy.getReplicas());
+        String channel = LOCK_CHANNEL_PREFIX + lockKey.substring(LOCK_KEY_PREFIX.length());
+        registry.eval(jedis, UNLOCK_SCRIPT, Collections.singletonList(lockKey),
+                Arrays.asList(lockValue, channel, UNLOCK_MESSAGE));
+        return (long) policy.getTimeout();
+    }
+
+    /**
+     * @param token receives the fencing token once the lock is acquired
+     * @return null if the lock was acquired, otherwise the remaining TTL of the holder in milliseconds
+     */
+    @SuppressWarnings("unchecked")
+    private Long acquireFencedInner(String lockKey,
+                                    int expireTime,
+                                    String owner,
+                                    long[] token) {
+        List<Long> result = (List<Long>) scriptRegistry.eval(FENCED_LOCK_SCRIPT,
+                Arrays.asList(LOCK_KEY_PREFIX + lockKey, fenceKey(lockKey)),
+                Arrays.asList(owner, String.valueOf(expireTime)));
+        if (result.get(0) == 1L) {
+            token[0] = result.get(1);
+            return null;
+        }
+        return result.get(1);
+    }
+
+    /**
+     * @return the key of the fencing token counter of the lock, in the slot of the lock on a cluster
+     */
+    private String fenceKey(String lockKey) {
+        String fenceKey = FENCE_KEY_PREFIX + lockKey;
+        if (cluster == null) {
+            return fenceKey;
+        }
+        int slot = RedisClusterRouter.slot(LOCK_KEY_PREFIX + lockKey);
+        if (RedisClusterRouter.slot(fenceKey) == slot) {
+            // the key has a hash tag of its own
+            return fenceKey;
+        }
+        fenceKey = FENCE_KEY_PREFIX + "{" + LOCK_KEY_PREFIX + lockKey + "}";
+        if (RedisClusterRouter.slot(fenceKey) != slot) {
+            throw new IllegalArgumentException("Unbalanced braces, no fencing token counter in the slot of " + lockKey);
+        }
+        return fenceKey;
+    }
+
+    private boolean releaseLockInner(String lockKey,
+                                     String lockValue,
+                                     String channel) {
+        Object result = scriptRegistry.eval(UNLOCK_SCRIPT, Collections.singletonList(lockKey),
+                Arrays.asList(lockValue, channel, UNLOCK_MESSAGE));
+        return RELEASE_SUCCESS.equals(result);
+    }
+
+    private static void releaseOnShutdown(SimpleRedisLock lock) {
+        synchronized (LIVE_LOCKS) {
+            LIVE_LOCKS.add(lock);
+            if (!shutdownHookAdded) {
+                Runtime.getRuntime().addShutdownHook(new Thread(SimpleRedisLock::releaseAllOnShutdown,
+                        "lock-redis-shutdown"));
+                shutdownHookAdded = true;
+            }
+        }
+    }
+
+    private static void releaseAllOnShutdown() {
+        List<SimpleRedisLock> locks;
+        synchronized (LIVE_LOCKS) {
+            locks = new ArrayList<>(LIVE_LOCKS);
+        }
+        for (SimpleRedisLock lock : locks) {
             try {
-                String result = jedis.set(lockKey, lockValue, SET_IF_NOT_EXIST, SET_WITH_EXPIRE_TIME, expireTime);
-                if (LOCK_SUCCESS.equals(result)) {
-                    return;
+                long released = lock.releaseAll();
+                if (released > 0L) {
+                    logger.info("Released {} locks on shutdown", released);
                 }
-            } finally {
-                localLock.unlock();
+            } catch (RuntimeException e) {
+                logger.warn("Failed to release the locks on shutdown", e);
             }
         }
     }
 
-    private boolean releaseLockInner(Jedis jedis,
-                                     String lockKey,
-                                     String lockValue) {
+    /*The owner token of a thread, as a String and in UTF-8*/
+    private static final class Owner {
+        private final String value;
+        private final byte[] bytes;
 
-        // lua script
-        String script = "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end";
-        Object result = jedis.eval(script, Collections.singletonList(lockKey), Collections.singletonList(lockValue));
-        return RELEASE_SUCCESS.equals(result);
+        private Owner(String value) {
+            this.value = value;
+            this.bytes = SafeEncoder.encode(value);
+        }
     }
 }
@@ -0,0 +1,29 @@
+package com.andyadc.lock;
+
+/**
+ * Waits until the lease of the holder runs out, observed by the {@code PTTL} of its key: a waiter makes a single
+ * attempt per lease of the holder, unless the holder releases the lock sooner.
+ * <p>
+ * This is the default strategy of the Redis locks.
+ */
+public final class TtlAwareBackoff implements BackoffStrategy {
+
+    /**
+     * Waits for the remaining TTL of the holder, or for its release if it has no TTL.
+     */
+    public static final TtlAwareBackoff INSTANCE = new TtlAwareBackoff(-1L);
+
+    private final long maxDelay;
+
+    /**
+     * @param maxDelay the delay when the holder has no TTL, in milliseconds, negative to wait for its release
+     */
+    public TtlAwareBackoff(long maxDelay) {
+        this.maxDelay = maxDelay;
+    }
+
+    @Override
+    public long delay(int attempt, long previousDelay, long ttl) {
+        return ttl >= 0L ? ttl : maxDelay;
+    }
+}
@@ -0,0 +1,18 @@
+--
+-- Elect
+-- become the leader if there is none: draw the next epoch of the election, set the leader key to it and to the
+-- candidate and announce the new leader on the channel, otherwise return the remaining ttl of the leader
+--
+-- KEYS[1] leader key, KEYS[2] epoch counter (never expires)
+-- ARGV[1] candidate, ARGV[2] expire time (milliseconds), ARGV[3] leader channel
+--
+-- returns {1, epoch} if the candidate was elected, {0, ttl} otherwise
+--
+if redis.call('exists', KEYS[1]) == 1 then
+    return {0, redis.call('pttl', KEYS[1])}
+end
+local epoch = redis.call('incr', KEYS[2])
+local leader = epoch .. '|' .. ARGV[1]
+redis.call('set', KEYS[1], leader, 'PX', ARGV[2])
+redis.call('publish', ARGV[3], leader)
+return {1, epoch}
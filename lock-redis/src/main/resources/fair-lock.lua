@@ -0,0 +1,43 @@
+--
+-- Fair lock
+-- take the key if it was handed over to the owner, or if it is free and no other party is queued before the owner,
+-- otherwise (optionally) queue the owner and return the remaining ttl of the holder
+--
+-- KEYS[1] lock key, KEYS[2] waiter queue, KEYS[3] waiter timeouts
+-- ARGV[1] owner, ARGV[2] expire time (milliseconds), ARGV[3] waiter timeout (milliseconds), ARGV[4] 1 to queue
+--
+redis.replicate_commands()
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+-- drop the waiters at the head of the queue which stopped refreshing their timeout
+while true do
+    local head = redis.call('lindex', KEYS[2], 0)
+    if not head then
+        break
+    end
+    local timeout = redis.call('zscore', KEYS[3], head)
+    if timeout and tonumber(timeout) > now then
+        break
+    end
+    redis.call('lpop', KEYS[2])
+    redis.call('zrem', KEYS[3], head)
+end
+
+local holder = redis.call('get', KEYS[1])
+local head = redis.call('lindex', KEYS[2], 0)
+if holder == ARGV[1] or (not holder and (not head or head == ARGV[1])) then
+    redis.call('set', KEYS[1], ARGV[1], 'PX', ARGV[2])
+    redis.call('lrem', KEYS[2], 1, ARGV[1])
+    redis.call('zrem', KEYS[3], ARGV[1])
+    return nil
+end
+
+if ARGV[4] == '1' then
+    if redis.call('zadd', KEYS[3], now + tonumber(ARGV[3]), ARGV[1]) == 1 then
+        redis.call('rpush', KEYS[2], ARGV[1])
+    end
+    redis.call('pexpire', KEYS[2], ARGV[3])
+    redis.call('pexpire', KEYS[3], ARGV[3])
+end
+return redis.call('pttl', KEYS[1])
@@ -0,0 +1,34 @@
+--
+-- Fair unlock
+-- leave the queue; if the owner holds the key, hand it over to the first live waiter and notify only that waiter,
+-- or del the key if nobody waits
+--
+-- KEYS[1] lock key, KEYS[2] waiter queue, KEYS[3] waiter timeouts
+-- ARGV[1] owner, ARGV[2] time given to the next owner to claim the key (milliseconds),
+-- ARGV[3] prefix of the waiter channels, ARGV[4] release message
+--
+redis.replicate_commands()
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+redis.call('lrem', KEYS[2], 1, ARGV[1])
+redis.call('zrem', KEYS[3], ARGV[1])
+if redis.call('get', KEYS[1]) ~= ARGV[1] then
+    return 0
+end
+
+while true do
+    local head = redis.call('lpop', KEYS[2])
+    if not head then
+        break
+    end
+    local timeout = redis.call('zscore', KEYS[3], head)
+    redis.call('zrem', KEYS[3], head)
+    if timeout and tonumber(timeout) > now then
+        redis.call('set', KEYS[1], head, 'PX', ARGV[2])
+        redis.call('publish', ARGV[3] .. head, ARGV[4])
+        return 1
+    end
+end
+redis.call('del', KEYS[1])
+return 1
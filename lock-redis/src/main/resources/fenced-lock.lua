@@ -0,0 +1,14 @@
+--
+-- Fenced lock
+-- set the key if it is absent and draw the next fencing token of the key,
+-- otherwise return the remaining ttl of the holder
+--
+-- KEYS[1] lock key, KEYS[2] fencing token counter (never expires)
+-- ARGV[1] lock value, ARGV[2] expire time (milliseconds)
+--
+-- returns {1, token} if the lock was acquired, {0, ttl} otherwise
+--
+if redis.call('set', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then
+    return {1, redis.call('incr', KEYS[2])}
+end
+return {0, redis.call('pttl', KEYS[1])}
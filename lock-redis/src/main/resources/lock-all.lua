@@ -0,0 +1,17 @@
+--
+-- Lock all
+-- set every key if all of them are absent, otherwise set none of them
+-- and return the remaining ttl of the first key held by someone else
+--
+-- KEYS[i] lock key
+-- ARGV[1] lock value, ARGV[2] expire time (milliseconds)
+--
+for i = 1, #KEYS do
+    if redis.call('exists', KEYS[i]) == 1 then
+        return redis.call('pttl', KEYS[i])
+    end
+end
+for i = 1, #KEYS do
+    redis.call('set', KEYS[i], ARGV[1], 'PX', ARGV[2])
+end
+return nil
@@ -0,0 +1,11 @@
+--
+-- Lock
+-- set the key if it is absent, otherwise return the remaining ttl of the holder
+--
+-- KEYS[1] lock key
+-- ARGV[1] lock value, ARGV[2] expire time (milliseconds)
+--
+if redis.call('set', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then
+    return nil
+end
+return redis.call('pttl', KEYS[1])
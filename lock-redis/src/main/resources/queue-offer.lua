@@ -0,0 +1,20 @@
+--
+-- Queue offer
+-- insert the elements at the tail of the queue, as many as the bound leaves room for, and notify the takers
+--
+-- KEYS[1] queue key (the head is the right end of the list)
+-- ARGV[1] bound of the queue (0 if unbounded), ARGV[2] element channel, ARGV[3...] elements
+--
+-- returns the number of elements inserted, the first ones
+--
+local count = #ARGV - 2
+local bound = tonumber(ARGV[1])
+if bound > 0 then
+    count = math.min(count, bound - redis.call('llen', KEYS[1]))
+end
+if count <= 0 then
+    return 0
+end
+redis.call('lpush', KEYS[1], unpack(ARGV, 3, count + 2))
+redis.call('publish', ARGV[2], count)
+return count
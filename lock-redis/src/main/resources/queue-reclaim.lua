@@ -0,0 +1,30 @@
+--
+-- Queue reclaim
+-- put the elements left in the processing lists of the consumers which took nothing for the given time back at the
+-- head of the queue, forget those consumers, and notify the takers
+-- the processing lists are the members of the set of consumers, so the queue can not be spread over a cluster
+--
+-- KEYS[1] queue key (the head is the right end of the list),
+-- KEYS[2] consumers of the queue (sorted set of processing lists by last take, in milliseconds)
+-- ARGV[1] idle time (milliseconds), ARGV[2] element channel
+--
+-- returns the number of elements put back
+--
+redis.replicate_commands()
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+local idle = redis.call('zrangebyscore', KEYS[2], '-inf', now - tonumber(ARGV[1]))
+local count = 0
+for _, processing in ipairs(idle) do
+    local elements = redis.call('lrange', processing, 0, -1)
+    for i = 1, #elements, 1000 do
+        redis.call('rpush', KEYS[1], unpack(elements, i, math.min(i + 999, #elements)))
+    end
+    redis.call('del', processing)
+    redis.call('zrem', KEYS[2], processing)
+    count = count + #elements
+end
+if count > 0 then
+    redis.call('publish', ARGV[2], count)
+end
+return count
@@ -0,0 +1,19 @@
+--
+-- Queue requeue
+-- put the elements left in the processing list of a consumer back at the head of the queue, and notify the takers
+--
+-- KEYS[1] queue key (the head is the right end of the list), KEYS[2] processing list of the consumer
+-- ARGV[1] element channel
+--
+-- returns the number of elements put back
+--
+local elements = redis.call('lrange', KEYS[2], 0, -1)
+if #elements == 0 then
+    return 0
+end
+for i = 1, #elements, 1000 do
+    redis.call('rpush', KEYS[1], unpack(elements, i, math.min(i + 999, #elements)))
+end
+redis.call('del', KEYS[2])
+redis.call('publish', ARGV[1], #elements)
+return #elements
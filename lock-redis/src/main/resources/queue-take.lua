@@ -0,0 +1,30 @@
+--
+-- Queue take
+-- move up to the given number of elements from the head of the queue to the processing list of the consumer,
+-- where they stay until the consumer has handed them out, and notify the putters of a bounded queue
+-- the consumer is recorded in the set of consumers with the time of the take, see queue-reclaim.lua
+--
+-- KEYS[1] queue key (the head is the right end of the list), KEYS[2] processing list of the consumer,
+-- KEYS[3] consumers of the queue (sorted set of processing lists by last take, in milliseconds)
+-- ARGV[1] maximum number of elements, ARGV[2] space channel (empty if the queue is unbounded)
+--
+-- returns the elements taken, head first
+--
+redis.replicate_commands()
+local taken = redis.call('lrange', KEYS[1], -tonumber(ARGV[1]), -1)
+if #taken == 0 then
+    return taken
+end
+redis.call('ltrim', KEYS[1], 0, -#taken - 1)
+redis.call('rpush', KEYS[2], unpack(taken))
+local time = redis.call('time')
+redis.call('zadd', KEYS[3], tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000), KEYS[2])
+if ARGV[2] ~= '' then
+    redis.call('publish', ARGV[2], #taken)
+end
+-- lrange lists the head last
+local elements = {}
+for i = #taken, 1, -1 do
+    elements[#elements + 1] = taken[i]
+end
+return elements
@@ -0,0 +1,33 @@
+--
+-- Rate limit
+-- refill the token bucket for the time elapsed since its last refill, by the server clock,
+-- then take as many tokens as available up to the maximum if at least the requested number is available,
+-- otherwise return the time until the requested number is available (milliseconds)
+--
+-- KEYS[1] bucket key
+-- ARGV[1] capacity, ARGV[2] refill rate (tokens per second), ARGV[3] requested tokens, ARGV[4] maximum tokens
+--
+-- returns {taken, 0} if tokens were taken, {0, wait} otherwise
+--
+redis.replicate_commands()
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+local capacity, rate = tonumber(ARGV[1]), tonumber(ARGV[2]) / 1000
+local requested, maximum = tonumber(ARGV[3]), tonumber(ARGV[4])
+
+local bucket = redis.call('hmget', KEYS[1], 'tokens', 'time')
+local tokens, last = tonumber(bucket[1]), tonumber(bucket[2])
+if not tokens then
+    tokens, last = capacity, now
+end
+tokens = math.min(capacity, tokens + math.max(now - last, 0) * rate)
+if tokens < requested then
+    return {0, math.ceil((requested - tokens) / rate)}
+end
+
+local taken = math.min(math.floor(tokens), maximum)
+redis.call('hmset', KEYS[1], 'tokens', tostring(tokens - taken), 'time', string.format('%d', now))
+-- a bucket left alone is full again after that time, it can be dropped
+redis.call('pexpire', KEYS[1], math.ceil(capacity / rate))
+return {taken, 0}
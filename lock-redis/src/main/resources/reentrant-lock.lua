@@ -0,0 +1,14 @@
+--
+-- Reentrant lock
+-- count one more hold for the owner if the key is free or already owned by it,
+-- otherwise return the remaining ttl of the holder
+--
+-- KEYS[1] lock key
+-- ARGV[1] owner, ARGV[2] expire time (milliseconds)
+--
+if redis.call('exists', KEYS[1]) == 0 or redis.call('hexists', KEYS[1], ARGV[1]) == 1 then
+    redis.call('hincrby', KEYS[1], ARGV[1], 1)
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    return nil
+end
+return redis.call('pttl', KEYS[1])
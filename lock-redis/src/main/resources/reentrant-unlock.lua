@@ -0,0 +1,17 @@
+--
+-- Reentrant unlock
+-- count one hold less for the owner, del the key and notify the waiters once it is released
+--
+-- KEYS[1] lock key
+-- ARGV[1] owner, ARGV[2] expire time (milliseconds), ARGV[3] release channel, ARGV[4] release message
+--
+if redis.call('hexists', KEYS[1], ARGV[1]) == 0 then
+    return nil
+end
+if redis.call('hincrby', KEYS[1], ARGV[1], -1) > 0 then
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    return 0
+end
+redis.call('del', KEYS[1])
+redis.call('publish', ARGV[3], ARGV[4])
+return 1
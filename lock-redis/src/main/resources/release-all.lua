@@ -0,0 +1,16 @@
+--
+-- Release all
+-- del every key still owned by its value and notify its waiters, the keys may have different owners
+--
+-- KEYS[i] lock key
+-- ARGV[1] release message, ARGV[2 * i] lock value of KEYS[i], ARGV[2 * i + 1] release channel of KEYS[i]
+--
+local released = 0
+for i = 1, #KEYS do
+    if redis.call('get', KEYS[i]) == ARGV[2 * i] then
+        redis.call('del', KEYS[i])
+        redis.call('publish', ARGV[2 * i + 1], ARGV[1])
+        released = released + 1
+    end
+end
+return released
@@ -0,0 +1,44 @@
+--
+-- Renew
+-- reset the expire time of every key still owned by the given value,
+-- either a plain lock value, an owner field of a reentrant or read/write lock or a lease of a semaphore;
+-- the deadline of a reader or of a semaphore lease is reset as well, without shortening the other leases
+--
+-- KEYS[i] lock key
+-- ARGV[2i - 1] lock value, ARGV[2i] expire time (milliseconds)
+--
+redis.replicate_commands()
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+local renewed = {}
+for i = 1, #KEYS do
+    local value, expire = ARGV[2 * i - 1], tonumber(ARGV[2 * i])
+    local type = redis.call('type', KEYS[i]).ok
+    local owned, shared = false, false
+    if type == 'hash' then
+        owned = redis.call('hexists', KEYS[i], value) == 1
+        if owned and string.sub(value, -2) == ':r' then
+            redis.call('hset', KEYS[i], string.sub(value, 1, -3) .. ':t', now + expire)
+            shared = true
+        end
+    elseif type == 'zset' then
+        local deadline = redis.call('zscore', KEYS[i], value)
+        owned = deadline and tonumber(deadline) > now
+        if owned then
+            redis.call('zadd', KEYS[i], now + expire, value)
+            shared = true
+        end
+    else
+        owned = redis.call('get', KEYS[i]) == value
+    end
+    if not owned then
+        renewed[i] = 0
+    else
+        if not shared or redis.call('pttl', KEYS[i]) < expire then
+            redis.call('pexpire', KEYS[i], expire)
+        end
+        renewed[i] = 1
+    end
+end
+return renewed
@@ -0,0 +1,27 @@
+--
+-- Read-write lock common
+-- prepended to the rw-*.lua scripts, see RedisScript#fromClasspath(String, String...)
+--
+-- defines now, the time of the server (milliseconds), and reap(key)
+--
+redis.replicate_commands()
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+-- drop the readers whose lease expired, return the number of live readers and their latest deadline
+local function reap(key)
+    local fields = redis.call('hgetall', key)
+    local readers, latest = 0, 0
+    for i = 1, #fields, 2 do
+        if string.sub(fields[i], -2) == ':t' then
+            local deadline = tonumber(fields[i + 1])
+            if deadline <= now then
+                redis.call('hdel', key, fields[i], string.sub(fields[i], 1, -3) .. ':r')
+            else
+                readers = readers + 1
+                latest = math.max(latest, deadline)
+            end
+        end
+    end
+    return readers, latest
+end
@@ -0,0 +1,40 @@
+--
+-- Read lock
+-- add a read hold for the owner if the key is free, read locked, or write locked by the owner itself;
+-- a party which does not read yet also waits while a writer is waiting, so that writers do not starve,
+-- otherwise return the time to wait (milliseconds)
+--
+-- KEYS[1] lock key, KEYS[2] waiting writers
+-- ARGV[1] owner, ARGV[2] expire time (milliseconds)
+--
+-- runs after rw-common.lua, which defines now and reap(key)
+--
+local reader = ARGV[1] .. ':r'
+local mode = redis.call('hget', KEYS[1], 'mode')
+if mode == 'write' then
+    if redis.call('hexists', KEYS[1], ARGV[1] .. ':w') == 0 then
+        return redis.call('pttl', KEYS[1])
+    end
+else
+    if mode == 'read' then
+        reap(KEYS[1])
+    end
+    redis.call('zremrangebyscore', KEYS[2], '-inf', now)
+    if redis.call('hexists', KEYS[1], reader) == 0 and redis.call('zcard', KEYS[2]) > 0 then
+        local ttl = redis.call('pttl', KEYS[1])
+        if ttl > 0 then
+            return ttl
+        end
+        -- the writer takes the key on its next attempt, or drops out at its waiter timeout
+        local writer = redis.call('zrange', KEYS[2], 0, 0, 'withscores')
+        return tonumber(writer[2]) - now
+    end
+    redis.call('hset', KEYS[1], 'mode', 'read')
+end
+
+redis.call('hincrby', KEYS[1], reader, 1)
+redis.call('hset', KEYS[1], ARGV[1] .. ':t', now + tonumber(ARGV[2]))
+if redis.call('pttl', KEYS[1]) < tonumber(ARGV[2]) then
+    redis.call('pexpire', KEYS[1], ARGV[2])
+end
+return nil
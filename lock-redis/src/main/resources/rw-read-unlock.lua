@@ -0,0 +1,27 @@
+--
+-- Read unlock
+-- count one read hold less for the owner; once the last reader is gone, del the key and notify the waiters
+--
+-- KEYS[1] lock key
+-- ARGV[1] owner, ARGV[2] release channel, ARGV[3] release message
+--
+-- runs after rw-common.lua, which defines now and reap(key)
+--
+local reader = ARGV[1] .. ':r'
+if redis.call('hexists', KEYS[1], reader) == 0 then
+    return nil
+end
+if redis.call('hincrby', KEYS[1], reader, -1) > 0 then
+    return 0
+end
+redis.call('hdel', KEYS[1], reader, ARGV[1] .. ':t')
+if redis.call('hget', KEYS[1], 'mode') == 'read' then
+    local readers, latest = reap(KEYS[1])
+    if readers == 0 then
+        redis.call('del', KEYS[1])
+        redis.call('publish', ARGV[2], ARGV[3])
+    else
+        redis.call('pexpire', KEYS[1], latest - now)
+    end
+end
+return 1
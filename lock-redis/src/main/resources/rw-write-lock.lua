@@ -0,0 +1,29 @@
+--
+-- Write lock
+-- count one more write hold for the owner if the key is free or already write locked by it,
+-- otherwise (optionally) register the owner as a waiting writer and return the remaining ttl of the holders
+--
+-- KEYS[1] lock key, KEYS[2] waiting writers
+-- ARGV[1] owner, ARGV[2] expire time (milliseconds), ARGV[3] waiter timeout (milliseconds), ARGV[4] 1 to wait
+--
+-- runs after rw-common.lua, which defines now and reap(key)
+--
+local writer = ARGV[1] .. ':w'
+local mode = redis.call('hget', KEYS[1], 'mode')
+if mode == 'read' and reap(KEYS[1]) == 0 then
+    redis.call('del', KEYS[1])
+    mode = false
+end
+if not mode or redis.call('hexists', KEYS[1], writer) == 1 then
+    redis.call('hset', KEYS[1], 'mode', 'write')
+    redis.call('hincrby', KEYS[1], writer, 1)
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    redis.call('zrem', KEYS[2], ARGV[1])
+    return nil
+end
+
+if ARGV[4] == '1' then
+    redis.call('zadd', KEYS[2], now + tonumber(ARGV[3]), ARGV[1])
+    redis.call('pexpire', KEYS[2], ARGV[3])
+end
+return redis.call('pttl', KEYS[1])
@@ -0,0 +1,28 @@
+--
+-- Write unlock
+-- count one write hold less for the owner; once released, keep the key read locked if the owner still reads
+-- (downgrade) or del it, and notify the waiters
+--
+-- KEYS[1] lock key
+-- ARGV[1] owner, ARGV[2] expire time (milliseconds), ARGV[3] release channel, ARGV[4] release message
+--
+-- runs after rw-common.lua, which defines now and reap(key)
+--
+local writer = ARGV[1] .. ':w'
+if redis.call('hexists', KEYS[1], writer) == 0 then
+    return nil
+end
+if redis.call('hincrby', KEYS[1], writer, -1) > 0 then
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    return 0
+end
+redis.call('hdel', KEYS[1], writer)
+local readers, latest = reap(KEYS[1])
+if readers == 0 then
+    redis.call('del', KEYS[1])
+else
+    redis.call('hset', KEYS[1], 'mode', 'read')
+    redis.call('pexpire', KEYS[1], latest - now)
+end
+redis.call('publish', ARGV[3], ARGV[4])
+return 1
@@ -0,0 +1,29 @@
+--
+-- Semaphore acquire
+-- drop the leases which expired, then lease the given permits if enough of them are free,
+-- otherwise return the time until the next lease expires (milliseconds)
+--
+-- KEYS[1] semaphore key
+-- ARGV[1] number of permits of the semaphore, ARGV[2] expire time (milliseconds), ARGV[3...] one lease per permit
+--
+redis.replicate_commands()
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+redis.call('zremrangebyscore', KEYS[1], '-inf', now)
+if redis.call('zcard', KEYS[1]) + #ARGV - 2 > tonumber(ARGV[1]) then
+    local next = redis.call('zrange', KEYS[1], 0, 0, 'withscores')
+    if not next[2] then
+        return -1
+    end
+    return tonumber(next[2]) - now
+end
+
+local expiry = now + tonumber(ARGV[2])
+for i = 3, #ARGV do
+    redis.call('zadd', KEYS[1], expiry, ARGV[i])
+end
+if redis.call('pttl', KEYS[1]) < tonumber(ARGV[2]) then
+    redis.call('pexpire', KEYS[1], ARGV[2])
+end
+return nil
@@ -0,0 +1,15 @@
+--
+-- Semaphore release
+-- return the given leases to the semaphore and notify the waiters
+--
+-- KEYS[1] semaphore key
+-- ARGV[1] release channel, ARGV[2] release message, ARGV[3...] one lease per permit
+--
+local released = 0
+for i = 3, #ARGV do
+    released = released + redis.call('zrem', KEYS[1], ARGV[i])
+end
+if released > 0 then
+    redis.call('publish', ARGV[1], ARGV[2])
+end
+return released
@@ -0,0 +1,16 @@
+--
+-- Unlock all
+-- del every key still owned by the given value and notify its waiters
+--
+-- KEYS[i] lock key
+-- ARGV[1] lock value, ARGV[2] release message, ARGV[2 + i] release channel of KEYS[i]
+--
+local released = 0
+for i = 1, #KEYS do
+    if redis.call('get', KEYS[i]) == ARGV[1] then
+        redis.call('del', KEYS[i])
+        redis.call('publish', ARGV[2 + i], ARGV[2])
+        released = released + 1
+    end
+end
+return released
@@ -4,10 +4,15 @@
 -- Time: 16:57
 --
 -- Unlock
--- del the key
+-- del the key and notify the waiters
 --
-if redis.call('get', KEY[1]) == ARGV[1] then
-    return redis.call('del', KEYS[1])
+-- KEYS[1] lock key
+-- ARGV[1] lock value, ARGV[2] release channel, ARGV[3] release message
+--
+if redis.call('get', KEYS[1]) == ARGV[1] then
+    redis.call('del', KEYS[1])
+    redis.call('publish', ARGV[2], ARGV[3])
+    return 1
 else
     return 0
 end
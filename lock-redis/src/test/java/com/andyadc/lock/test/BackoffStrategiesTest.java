@@ -0,0 +1,43 @@
+package com.andyadc.lock.test;
+
+import com.andyadc.lock.BackoffStrategies;
+import com.andyadc.lock.BackoffStrategy;
+import com.andyadc.lock.DecorrelatedJitterBackoff;
+import com.andyadc.lock.ExponentialBackoff;
+import com.andyadc.lock.TtlAwareBackoff;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BackoffStrategiesTest {
+
+    @Test
+    public void longestPrefixWins() {
+        BackoffStrategy orders = new ExponentialBackoff(10L, 1000L);
+        BackoffStrategy payments = new DecorrelatedJitterBackoff(10L, 1000L);
+        BackoffStrategies strategies = new BackoffStrategies();
+        strategies.register("order:", orders);
+        strategies.register("order:payment:", payments);
+
+        Assert.assertSame(orders, strategies.forKey("order:42"));
+        Assert.assertSame(payments, strategies.forKey("order:payment:42"));
+        Assert.assertSame(TtlAwareBackoff.INSTANCE, strategies.forKey("stock:42"));
+
+        strategies.register("order:payment:", null);
+        Assert.assertSame(orders, strategies.forKey("order:payment:42"));
+    }
+
+    @Test
+    public void delaysStayWithinBounds() {
+        BackoffStrategy exponential = new ExponentialBackoff(10L, 1000L);
+        BackoffStrategy decorrelated = new DecorrelatedJitterBackoff(10L, 1000L);
+        long previous = 0L;
+        for (int attempt = 1; attempt < 100; attempt++) {
+            long delay = exponential.delay(attempt, 0L, -1L);
+            Assert.assertTrue(delay >= 1L && delay <= Math.min(1000L, 10L << Math.min(attempt - 1, 20)));
+            previous = decorrelated.delay(attempt, previous, -1L);
+            Assert.assertTrue(previous >= 10L && previous <= 1000L);
+        }
+        Assert.assertEquals(250L, TtlAwareBackoff.INSTANCE.delay(1, 0L, 250L));
+        Assert.assertEquals(-1L, TtlAwareBackoff.INSTANCE.delay(1, 0L, -1L));
+    }
+}
@@ -0,0 +1,118 @@
+package com.andyadc.lock.test;
+
+import com.andyadc.lock.ContentionTracker;
+import com.andyadc.lock.LockResources;
+import com.andyadc.lock.SimpleRedisLock;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class ContentionTrackerTest {
+
+    private static EmbeddedRedisServer server;
+    private static JedisPool jedisPool;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        server = new EmbeddedRedisServer();
+        jedisPool = new JedisPool(new JedisPoolConfig(), server.getHost(), server.getPort());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        LockResources.release(jedisPool);
+        jedisPool.close();
+        server.close();
+    }
+
+    @Test
+    public void hottestKeysStandOutAmongManyColdOnes() {
+        ContentionTracker tracker = new ContentionTracker(64);
+        List<ContentionTracker.KeyContention> hot = new ArrayList<>();
+        tracker.setThreshold(500L, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        tracker.setListener(hot::add);
+
+        for (int i = 0; i < 100000; i++) {
+            tracker.record("cold:" + i, 1L, 0L);
+            if (i % 10 == 0) {
+                tracker.record("hot:a", 1L, 0L);
+            }
+            if (i % 20 == 0) {
+                tracker.record("hot:b", 1L, 1000L);
+            }
+        }
+
+        List<ContentionTracker.KeyContention> top = tracker.topKeys(2);
+        Assert.assertEquals(2, top.size());
+        Assert.assertEquals("hot:a", top.get(0).getKey());
+        Assert.assertEquals("hot:b", top.get(1).getKey());
+        Assert.assertTrue(top.get(0).getFailures() - top.get(0).getError() <= 10000L);
+        Assert.assertTrue(top.get(0).getFailures() >= 10000L);
+
+        Assert.assertTrue(tracker.isHot("hot:a"));
+        Assert.assertTrue(tracker.isHot("hot:b"));
+        Assert.assertFalse(tracker.isHot("cold:1"));
+        Assert.assertEquals(2, hot.size());
+
+        tracker.reset();
+        Assert.assertTrue(tracker.topKeys(2).isEmpty());
+        Assert.assertTrue(tracker.getHotKeys().isEmpty());
+    }
+
+    @Test
+    public void keyWithTheFewestFailuresIsTakenOver() {
+        ContentionTracker tracker = new ContentionTracker(3);
+        tracker.record("a", 5L, 0L);
+        tracker.record("b", 3L, 0L);
+        tracker.record("c", 1L, 0L);
+        tracker.record("b", 4L, 0L);
+        tracker.record("d", 1L, 0L);
+        tracker.record("e", 7L, 0L);
+
+        List<ContentionTracker.KeyContention> top = tracker.topKeys(3);
+        Assert.assertEquals(3, top.size());
+        Assert.assertEquals("e", top.get(0).getKey());
+        Assert.assertEquals(9L, top.get(0).getFailures());
+        Assert.assertEquals(2L, top.get(0).getError());
+        Assert.assertEquals("b", top.get(1).getKey());
+        Assert.assertEquals(7L, top.get(1).getFailures());
+        Assert.assertEquals("a", top.get(2).getKey());
+        Assert.assertEquals(0L, top.get(2).getError());
+    }
+
+    @Test
+    public void lockRecordsFailedAndWaitingAcquisitions() throws Exception {
+        String key = "contention:held";
+        SimpleRedisLock holder = new SimpleRedisLock(jedisPool);
+        SimpleRedisLock contender = new SimpleRedisLock(jedisPool);
+        ContentionTracker tracker = new ContentionTracker(8);
+        tracker.setThreshold(Long.MAX_VALUE, 100L, TimeUnit.MILLISECONDS);
+        contender.setContentionTracker(tracker);
+
+        Assert.assertTrue(contender.tryLock("contention:free", 10000));
+        Assert.assertTrue(tracker.topKeys(8).isEmpty());
+
+        Assert.assertTrue(holder.tryLock(key, 10000));
+        Assert.assertFalse(contender.tryLock(key, 10000));
+        Assert.assertNull(contender.tryAcquire(key, 10000));
+        Assert.assertFalse(tracker.isHot(key));
+        Assert.assertFalse(contender.tryLock(key, 200L, 10000));
+
+        ContentionTracker.KeyContention contention = tracker.topKeys(1).get(0);
+        Assert.assertEquals(key, contention.getKey());
+        Assert.assertTrue(contention.getFailures() >= 3L);
+        Assert.assertTrue(contention.getWaitMillis() >= 200.0);
+        Assert.assertTrue(tracker.isHot(key));
+
+        Assert.assertTrue(holder.unlock(key));
+        Assert.assertTrue(contender.unlock("contention:free"));
+    }
+}
@@ -0,0 +1,94 @@
+package com.andyadc.lock.test;
+
+import com.andyadc.lock.RedisScript;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+public class EmbeddedRedisServerTest {
+
+    private static EmbeddedRedisServer server;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        server = new EmbeddedRedisServer();
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void scriptsRunByDigest() {
+        RedisScript lock = RedisScript.fromClasspath("lock.lua");
+        try (Jedis jedis = new Jedis(server.getHost(), server.getPort())) {
+            try {
+                jedis.evalsha(lock.getSha1(), Collections.singletonList("script:key"), Arrays.asList("a", "100000"));
+                Assert.fail("EVALSHA of a script never loaded");
+            } catch (JedisDataException e) {
+                Assert.assertTrue(e.getMessage().startsWith("NOSCRIPT"));
+            }
+            Assert.assertEquals(lock.getSha1(), jedis.scriptLoad(lock.getSource()));
+            Assert.assertNull(jedis.evalsha(lock.getSha1(), Collections.singletonList("script:key"),
+                    Arrays.asList("a", "100000")));
+            Long ttl = (Long) jedis.evalsha(lock.getSha1(), Collections.singletonList("script:key"),
+                    Arrays.asList("b", "100000"));
+            Assert.assertTrue(ttl > 0L && ttl <= 100000L);
+            Assert.assertEquals("a", jedis.get("script:key"));
+            Assert.assertEquals(1L, (long) jedis.del("script:key"));
+        }
+    }
+
+    @Test
+    public void latencyIsSpentOncePerRoundTrip() throws IOException {
+        try (LatencyProxy proxy = new LatencyProxy(server.getHost(), server.getPort());
+             Jedis jedis = new Jedis(proxy.getHost(), proxy.getPort())) {
+            jedis.ping();
+            proxy.setLatency(50, TimeUnit.MILLISECONDS);
+            long start = System.nanoTime();
+            Pipeline pipeline = jedis.pipelined();
+            for (int i = 0; i < 10; i++) {
+                pipeline.set("latency:" + i, "v");
+            }
+            pipeline.sync();
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            Assert.assertTrue("took " + elapsed + " ms", elapsed >= 50L && elapsed < 250L);
+        }
+    }
+
+    @Test
+    public void waitReportsTheReplicas() throws IOException {
+        try (Jedis jedis = new Jedis(server.getHost(), server.getPort())) {
+            server.setReplicas(1);
+            jedis.set("replicated", "v");
+            Assert.assertEquals(1L, (long) jedis.waitReplicas(1, 1000));
+            server.setReplicas(0);
+            jedis.set("replicated", "w");
+            long start = System.nanoTime();
+            Assert.assertEquals(0L, (long) jedis.waitReplicas(1, 100));
+            Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100L));
+        }
+    }
+
+    @Test
+    public void commandsOfScriptsAreCounted() {
+        try (Jedis jedis = new Jedis(server.getHost(), server.getPort())) {
+            long commands = server.getCommandCount();
+            long scripts = server.getCommandCount("eval");
+            jedis.eval("redis.call('set', KEYS[1], ARGV[1]) return redis.call('get', KEYS[1])",
+                    Collections.singletonList("counted"), Collections.singletonList("v"));
+            Assert.assertEquals(commands + 3L, server.getCommandCount());
+            Assert.assertEquals(scripts + 1L, server.getCommandCount("eval"));
+        }
+    }
+}
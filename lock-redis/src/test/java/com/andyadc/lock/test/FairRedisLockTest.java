@@ -0,0 +1,108 @@
+package com.andyadc.lock.test;
+
+import com.andyadc.lock.FairRedisLock;
+import com.andyadc.lock.LockResources;
+import com.andyadc.lock.SimpleRedisLock;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class FairRedisLockTest {
+
+    private static EmbeddedRedisServer server;
+    private static JedisPool jedisPool;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        server = new EmbeddedRedisServer();
+        JedisPoolConfig config = new JedisPoolConfig();
+        config.setMaxTotal(30);
+        jedisPool = new JedisPool(config, server.getHost(), server.getPort());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        LockResources.release(jedisPool);
+        jedisPool.close();
+        server.close();
+    }
+
+    @Test
+    public void waitersAcquireInArrivalOrder() throws Exception {
+        FairRedisLock lock = new FairRedisLock("fair", jedisPool);
+        lock.lock();
+
+        int parties = 5;
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService executorService = Executors.newFixedThreadPool(parties);
+        for (int i = 0; i < parties; i++) {
+            int party = i;
+            executorService.execute(() -> {
+                lock.lock();
+                order.add(party);
+                lock.unlock();
+            });
+            // let the party queue up before the next one arrives
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        // a newcomer must not barge ahead of the queue
+        ExecutorService barger = Executors.newSingleThreadExecutor();
+        Assert.assertFalse(barger.submit(() -> lock.tryLock()).get());
+        barger.shutdown();
+
+        lock.unlock();
+        executorService.shutdown();
+        Assert.assertTrue(executorService.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertEquals(order.toString(), 0, order.get(0).intValue());
+        for (int i = 1; i < parties; i++) {
+            Assert.assertEquals(order.toString(), i, order.get(i).intValue());
+        }
+    }
+
+    @Test
+    public void waiterGivingUpLeavesQueue() throws Exception {
+        FairRedisLock lock = new FairRedisLock("fair:giveup", jedisPool);
+        lock.lock();
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            Assert.assertFalse(executorService.submit(() -> lock.tryLock(200, TimeUnit.MILLISECONDS)).get());
+            lock.unlock();
+            Assert.assertTrue(executorService.submit(() -> lock.tryLock()).get());
+            executorService.submit(lock::unlock).get();
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    public void queueKeysAreNotLockKeys() throws Exception {
+        SimpleRedisLock other = new SimpleRedisLock(jedisPool);
+        Assert.assertTrue(other.tryLock("queue:fair:keys", 100000));
+        Assert.assertTrue(other.tryLock("timeout:fair:keys", 100000));
+
+        FairRedisLock lock = new FairRedisLock("fair:keys", jedisPool);
+        lock.lock();
+        ExecutorService waiter = Executors.newSingleThreadExecutor();
+        try {
+            // the waiter queues up, then times out
+            Assert.assertFalse(waiter.submit(() -> lock.tryLock(200, TimeUnit.MILLISECONDS)).get());
+        } finally {
+            waiter.shutdown();
+        }
+        lock.unlock();
+        Assert.assertTrue(other.unlock("queue:fair:keys"));
+        Assert.assertTrue(other.unlock("timeout:fair:keys"));
+    }
+}
@@ -0,0 +1,86 @@
+package com.andyadc.lock.test;
+
+import com.andyadc.lock.LockResources;
+import com.andyadc.lock.SimpleRedisLock;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.io.IOException;
+
+public class HeldLockCacheTest {
+
+    private static EmbeddedRedisServer server;
+    private static JedisPool jedisPool;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        server = new EmbeddedRedisServer();
+        jedisPool = new JedisPool(new JedisPoolConfig(), server.getHost(), server.getPort());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        LockResources.release(jedisPool);
+        jedisPool.close();
+        server.close();
+    }
+
+    @Test
+    public void heldLockFailsWithoutRedisUntilReleased() throws Exception {
+        String key = "near:released";
+        SimpleRedisLock holder = new SimpleRedisLock(jedisPool);
+        SimpleRedisLock contender = new SimpleRedisLock(jedisPool);
+        contender.setNearCacheEnabled(true);
+
+        Assert.assertTrue(holder.tryLock(key, 100000));
+        Assert.assertFalse(contender.tryLock(key, 100000));
+        // the release channel is subscribed by the first failure, the records are trusted from then on
+        Thread.sleep(200L);
+        Assert.assertFalse(contender.tryLock(key, 100000));
+        long commands = server.getCommandCount();
+        Assert.assertFalse(contender.tryLock(key, 100000));
+        Assert.assertEquals(commands, server.getCommandCount());
+
+        // removed behind the back of the cache: the lock is still seen held
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.del("lock:" + key);
+            Assert.assertFalse(contender.tryLock(key, 100000));
+            Assert.assertNull(contender.tryAcquire(key, 100000));
+            jedis.publish("lock:channel:" + key, "0");
+        }
+        Assert.assertTrue(awaitLock(contender, key));
+        Assert.assertTrue(contender.unlock(key));
+    }
+
+    @Test
+    public void heldLockIsForgottenWhenItsTtlRunsOut() throws Exception {
+        String key = "near:expired";
+        SimpleRedisLock holder = new SimpleRedisLock(jedisPool);
+        SimpleRedisLock contender = new SimpleRedisLock(jedisPool);
+        contender.setNearCacheEnabled(true);
+
+        Assert.assertTrue(holder.tryLock(key, 500));
+        Assert.assertFalse(contender.tryLock(key, 100000));
+        Thread.sleep(100L);
+        Assert.assertFalse(contender.tryLock(key, 100000));
+        Thread.sleep(500L);
+        Assert.assertTrue(contender.tryLock(key, 100000));
+        Assert.assertTrue(contender.unlock(key));
+    }
+
+    private static boolean awaitLock(SimpleRedisLock lock, String key) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000L;
+        while (System.currentTimeMillis() < deadline) {
+            if (lock.tryLock(key, 100000)) {
+                return true;
+            }
+            Thread.sleep(10L);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,79 @@
+package com.andyadc.lock.test;
+
+import com.andyadc.lock.LockResources;
+import com.andyadc.lock.SimpleRedisLock;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class LockResourcesTest {
+
+    private static EmbeddedRedisServer server;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        server = new EmbeddedRedisServer();
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void releaseStopsTheThreadsOfThePool() throws Exception {
+        Set<Thread> before = lockThreads();
+        JedisPool jedisPool = new JedisPool(new JedisPoolConfig(), server.getHost(), server.getPort());
+        try {
+            SimpleRedisLock lock = new SimpleRedisLock(jedisPool, 300);
+            Assert.assertTrue(lock.tryLock("resources:held"));
+
+            // a waiter subscribes to the release channel, and the watchdog renews the lease meanwhile
+            ExecutorService executorService = Executors.newSingleThreadExecutor();
+            try {
+                Assert.assertFalse(executorService.submit(() -> new SimpleRedisLock(jedisPool)
+                        .tryLock("resources:held", 300L, TimeUnit.MILLISECONDS)).get());
+            } finally {
+                executorService.shutdown();
+            }
+            Set<Thread> started = lockThreads();
+            started.removeAll(before);
+            Assert.assertEquals(2, started.size());
+
+            LockResources.release(jedisPool);
+            for (Thread thread : started) {
+                thread.join(5000L);
+                Assert.assertFalse(thread.getName(), thread.isAlive());
+            }
+
+            // the lease is no longer renewed
+            TimeUnit.MILLISECONDS.sleep(600L);
+            try (Jedis jedis = jedisPool.getResource()) {
+                Assert.assertFalse(jedis.exists("lock:resources:held"));
+            }
+        } finally {
+            jedisPool.close();
+        }
+    }
+
+    private static Set<Thread> lockThreads() {
+        Set<Thread> threads = new HashSet<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("lock-redis-subscriber") || thread.getName().equals("lock-redis-watchdog")) {
+                threads.add(thread);
+            }
+        }
+        return threads;
+    }
+}
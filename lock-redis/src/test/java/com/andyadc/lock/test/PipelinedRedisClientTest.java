@@ -0,0 +1,95 @@
+package com.andyadc.lock.test;
+
+import com.andyadc.lock.LockResources;
+import com.andyadc.lock.PipelinedRedisClient;
+import com.andyadc.lock.ReentrantRedisLock;
+import com.andyadc.lock.SimpleRedisLock;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class PipelinedRedisClientTest {
+
+    private static EmbeddedRedisServer server;
+    private static JedisPool jedisPool;
+    private static PipelinedRedisClient client;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        server = new EmbeddedRedisServer();
+        jedisPool = new JedisPool(new JedisPoolConfig(), server.getHost(), server.getPort());
+        client = new PipelinedRedisClient(server.getHost(), server.getPort());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        client.close();
+        LockResources.release(jedisPool);
+        jedisPool.close();
+        server.close();
+    }
+
+    @Test
+    public void repliesMatchTheirCommands() throws Exception {
+        List<CompletableFuture<Object>> replies = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            replies.add(client.send("SET", "pipelined:" + i, "värde-" + i));
+            replies.add(client.send("GET", "pipelined:" + i));
+            replies.add(client.send("DEL", "pipelined:" + i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals("OK", replies.get(3 * i).get(1, TimeUnit.SECONDS));
+            Assert.assertEquals("värde-" + i,
+                    new String((byte[]) replies.get(3 * i + 1).get(1, TimeUnit.SECONDS), StandardCharsets.UTF_8));
+            Assert.assertEquals(1L, replies.get(3 * i + 2).get(1, TimeUnit.SECONDS));
+        }
+        Assert.assertNull(client.execute("GET", "pipelined:0"));
+        Assert.assertEquals(Arrays.asList(1L, 2L), client.execute("EVAL", "return {1, 2}", "0"));
+    }
+
+    @Test(expected = JedisDataException.class)
+    public void errorRepliesAreThrown() {
+        client.execute("NOT-A-COMMAND");
+    }
+
+    @Test
+    public void locksRunOnTheClient() throws Exception {
+        SimpleRedisLock simpleLock = new SimpleRedisLock(jedisPool, client);
+        ReentrantRedisLock reentrantLock = new ReentrantRedisLock("pipelined", jedisPool, client, 10000);
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            Assert.assertTrue(simpleLock.tryLock("pipelined:simple", 10000));
+            Assert.assertFalse(simpleLock.tryLock("pipelined:simple", 0L, 10000));
+            Assert.assertTrue(simpleLock.unlock("pipelined:simple"));
+
+            byte[] key = "pipelined:binary".getBytes(StandardCharsets.UTF_8);
+            Assert.assertTrue(simpleLock.tryLock(key, 10000));
+            Assert.assertFalse(simpleLock.tryLock("pipelined:binary", 10000));
+            Assert.assertTrue(simpleLock.unlock(key));
+            Assert.assertFalse(simpleLock.unlock(key));
+
+            reentrantLock.lock();
+            Future<Boolean> waiter = executorService.submit(() -> reentrantLock.tryLock(5, TimeUnit.SECONDS));
+            reentrantLock.unlock();
+            Assert.assertTrue(waiter.get(1, TimeUnit.SECONDS));
+            executorService.submit(reentrantLock::unlock).get();
+        } finally {
+            executorService.shutdown();
+        }
+    }
+}
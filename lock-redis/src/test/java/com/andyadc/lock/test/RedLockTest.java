@@ -0,0 +1,120 @@
+package com.andyadc.lock.test;
+
+import com.andyadc.lock.LockResources;
+import com.andyadc.lock.RedLock;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.JedisPubSub;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class RedLockTest {
+
+    private static final EmbeddedRedisServer[] servers = new EmbeddedRedisServer[3];
+    private static final JedisPool[] jedisPools = new JedisPool[servers.length];
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        for (int i = 0; i < servers.length; i++) {
+            servers[i] = new EmbeddedRedisServer();
+            jedisPools[i] = new JedisPool(new JedisPoolConfig(), servers[i].getHost(), servers[i].getPort());
+        }
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        for (JedisPool jedisPool : jedisPools) {
+            LockResources.release(jedisPool);
+            jedisPool.close();
+        }
+        for (EmbeddedRedisServer server : servers) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void lockIsExclusive() throws Exception {
+        RedLock lock = new RedLock(jedisPools);
+        Assert.assertTrue(lock.tryLock("redlock", 10000));
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            Assert.assertFalse(executorService.submit(() -> new RedLock(jedisPools).tryLock("redlock", 200L, 10000)).get());
+            Assert.assertTrue(lock.unlock("redlock"));
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    public void lockIsOwnedByThread() throws Exception {
+        RedLock lock = new RedLock(jedisPools);
+        Assert.assertTrue(lock.tryLock("redlock:thread", 100000));
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        Assert.assertFalse(executorService.submit(() -> lock.tryLock("redlock:thread", 100000)).get());
+        Assert.assertFalse(executorService.submit(() -> lock.unlock("redlock:thread")).get());
+        executorService.shutdown();
+        Assert.assertTrue(lock.unlock("redlock:thread"));
+    }
+
+    @Test
+    public void minorityIsRolledBack() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            try (Jedis jedis = jedisPools[i].getResource()) {
+                jedis.set("lock:redlock:minority", "someone", "NX", "PX", 10000);
+            }
+        }
+        Assert.assertFalse(new RedLock(jedisPools).tryLock("redlock:minority", 10000));
+
+        Thread.sleep(100);
+        try (Jedis jedis = jedisPools[2].getResource()) {
+            Assert.assertFalse(jedis.exists("lock:redlock:minority"));
+        }
+    }
+
+    @Test
+    public void rollbackWakesUpTheWaiters() throws Exception {
+        CountDownLatch subscribed = new CountDownLatch(1);
+        CountDownLatch released = new CountDownLatch(1);
+        JedisPubSub waiter = new JedisPubSub() {
+            @Override
+            public void onSubscribe(String channel, int subscribedChannels) {
+                subscribed.countDown();
+            }
+
+            @Override
+            public void onMessage(String channel, String message) {
+                released.countDown();
+            }
+        };
+        Thread subscriber = new Thread(() -> {
+            try (Jedis jedis = jedisPools[2].getResource()) {
+                jedis.subscribe(waiter, "lock:channel:redlock:rollback");
+            }
+        });
+        subscriber.start();
+        try {
+            Assert.assertTrue(subscribed.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 2; i++) {
+                try (Jedis jedis = jedisPools[i].getResource()) {
+                    jedis.set("lock:redlock:rollback", "someone", "NX", "PX", 10000);
+                }
+            }
+            Assert.assertFalse(new RedLock(jedisPools).tryLock("redlock:rollback", 10000));
+            Assert.assertTrue(released.await(5, TimeUnit.SECONDS));
+        } finally {
+            waiter.unsubscribe();
+            subscriber.join();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.andyadc.lock.test;
+
+import com.andyadc.lock.LockResources;
+import com.andyadc.lock.RedisBlockingQueue;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.menagerie.JavaSerializer;
+import org.menagerie.Serializer;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class RedisBlockingQueueTest {
+
+    private static EmbeddedRedisServer server;
+    private static JedisPool jedisPool;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        server = new EmbeddedRedisServer();
+        jedisPool = new JedisPool(new JedisPoolConfig(), server.getHost(), server.getPort());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        LockResources.release(jedisPool);
+        jedisPool.close();
+        server.close();
+    }
+
+    @Test
+    public void elementsComeOutInOrderByBatches() {
+        RedisBlockingQueue<Integer> queue = new RedisBlockingQueue<>("test:fifo", new JavaSerializer<>(), jedisPool);
+        queue.clear();
+        List<Integer> elements = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            elements.add(i);
+        }
+        Assert.assertEquals(2500, queue.offerAll(elements));
+        Assert.assertEquals(2500, queue.size());
+        Assert.assertEquals(Integer.valueOf(0), queue.peek());
+        Assert.assertEquals(Integer.valueOf(0), queue.poll());
+
+        List<Integer> drained = new ArrayList<>();
+        Assert.assertEquals(10, queue.drainTo(drained, 10));
+        Assert.assertEquals(elements.subList(1, 11), drained);
+        Assert.assertTrue(queue.remove(11));
+        Assert.assertEquals(2488, queue.drainTo(drained));
+        Assert.assertEquals(elements.subList(12, 2500), drained.subList(10, drained.size()));
+        Assert.assertNull(queue.poll());
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void boundedQueueMakesPuttersWait() throws Exception {
+        RedisBlockingQueue<String> queue = new RedisBlockingQueue<>("test:bounded", new JavaSerializer<>(), jedisPool, 2);
+        queue.clear();
+        Assert.assertEquals(2, queue.offerAll(Arrays.asList("a", "b", "c")));
+        Assert.assertEquals(0, queue.remainingCapacity());
+        Assert.assertFalse(queue.offer("c"));
+        Assert.assertFalse(queue.offer("c", 50L, TimeUnit.MILLISECONDS));
+        try {
+            queue.add("c");
+            Assert.fail();
+        } catch (IllegalStateException expected) {
+        }
+
+        CompletableFuture<Void> put = CompletableFuture.runAsync(() -> {
+            try {
+                queue.put("c");
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(100L);
+        Assert.assertFalse(put.isDone());
+        long start = System.nanoTime();
+        Assert.assertEquals("a", queue.take());
+        put.get(2L, TimeUnit.SECONDS);
+        // woken by the notification, not by the periodic check
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(800L));
+        Assert.assertEquals(Arrays.asList("b", "c"), new ArrayList<>(queue));
+        queue.clear();
+    }
+
+    @Test
+    public void takerIsWokenByAnOffer() throws Exception {
+        RedisBlockingQueue<String> queue = new RedisBlockingQueue<>("test:wake", new JavaSerializer<>(), jedisPool);
+        queue.clear();
+        Assert.assertNull(queue.poll(50L, TimeUnit.MILLISECONDS));
+        CompletableFuture<String> taken = CompletableFuture.supplyAsync(() -> {
+            try {
+                return queue.take();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(200L);
+        long start = System.nanoTime();
+        Assert.assertTrue(queue.offer("x"));
+        Assert.assertEquals("x", taken.get(2L, TimeUnit.SECONDS));
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(800L));
+    }
+
+    @Test
+    public void elementsNotHandedOutAreRequeued() {
+        Serializer<String> serializer = new JavaSerializer<>();
+        Serializer<String> failing = new Serializer<String>() {
+            @Override
+            public byte[] serialize(String instance) {
+                return serializer.serialize(instance);
+            }
+
+            @Override
+            public String deserialize(byte[] data) {
+                throw new IllegalArgumentException("corrupt");
+            }
+        };
+        RedisBlockingQueue<String> consumer =
+                new RedisBlockingQueue<>("test:requeue", failing, jedisPool, Integer.MAX_VALUE, "consumer-1");
+        consumer.clear();
+        Assert.assertTrue(consumer.offer("first"));
+        Assert.assertTrue(consumer.offer("second"));
+        try {
+            consumer.poll();
+            Assert.fail();
+        } catch (IllegalArgumentException expected) {
+        }
+
+        RedisBlockingQueue<String> restarted =
+                new RedisBlockingQueue<>("test:requeue", serializer, jedisPool, Integer.MAX_VALUE, "consumer-1");
+        Assert.assertEquals(1, restarted.requeue());
+        Assert.assertEquals(0, restarted.requeue());
+        Assert.assertEquals("first", restarted.poll());
+        Assert.assertEquals("second", restarted.poll());
+        Assert.assertNull(restarted.poll());
+    }
+
+    @Test
+    public void elementsOfDeadConsumersAreReclaimed() throws Exception {
+        Serializer<String> serializer = new JavaSerializer<>();
+        Serializer<String> failing = new Serializer<String>() {
+            @Override
+            public byte[] serialize(String instance) {
+                return serializer.serialize(instance);
+            }
+
+            @Override
+            public String deserialize(byte[] data) {
+                throw new IllegalArgumentException("corrupt");
+            }
+        };
+        RedisBlockingQueue<String> dead = new RedisBlockingQueue<>("test:reclaim", failing, jedisPool);
+        dead.clear();
+        Assert.assertTrue(dead.offer("first"));
+        Assert.assertTrue(dead.offer("second"));
+        try {
+            dead.poll();
+            Assert.fail();
+        } catch (IllegalArgumentException expected) {
+        }
+
+        RedisBlockingQueue<String> survivor = new RedisBlockingQueue<>("test:reclaim", serializer, jedisPool);
+        Assert.assertEquals(0, survivor.reclaim(1L, TimeUnit.HOURS));
+        TimeUnit.MILLISECONDS.sleep(100L);
+        Assert.assertEquals(1, survivor.reclaim(50L, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(0, survivor.reclaim(50L, TimeUnit.MILLISECONDS));
+        Assert.assertEquals("first", survivor.poll());
+        Assert.assertEquals("second", survivor.poll());
+        Assert.assertNull(survivor.poll());
+    }
+
+    @Test
+    public void listsOfAConsumerAreNotQueues() {
+        RedisBlockingQueue<String> queue = new RedisBlockingQueue<>("q", new JavaSerializer<>(), jedisPool);
+        RedisBlockingQueue<String> consumers =
+                new RedisBlockingQueue<>("consumers:q", new JavaSerializer<>(), jedisPool);
+        RedisBlockingQueue<String> processing =
+                new RedisBlockingQueue<>("processing:q", new JavaSerializer<>(), jedisPool);
+        queue.clear();
+        consumers.clear();
+        processing.clear();
+
+        Assert.assertTrue(queue.offer("element"));
+        Assert.assertEquals("element", queue.poll());
+        Assert.assertTrue(consumers.offer("consumer"));
+        Assert.assertTrue(processing.offer("processing"));
+        Assert.assertTrue(queue.offer("next"));
+        Assert.assertEquals("next", queue.poll());
+        Assert.assertEquals("consumer", consumers.poll());
+        Assert.assertEquals("processing", processing.poll());
+    }
+}
@@ -0,0 +1,148 @@
+package com.andyadc.lock.test;
+
+import com.andyadc.lock.LockHandle;
+import com.andyadc.lock.RedisClusterRouter;
+import com.andyadc.lock.SimpleRedisLock;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class RedisClusterLockTest {
+
+    private static EmbeddedRedisCluster servers;
+    private static RedisClusterRouter cluster;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        servers = new EmbeddedRedisCluster(3);
+        cluster = new RedisClusterRouter(Collections.singleton(servers.getNodes().iterator().next()));
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        cluster.close();
+        servers.close();
+    }
+
+    @Test
+    public void locksAreSpreadOverShards() {
+        SimpleRedisLock lock = new SimpleRedisLock(cluster);
+        HashSet<Integer> ports = new HashSet<>();
+        for (int i = 0; i < 30; i++) {
+            String key = "cluster:" + i;
+            Assert.assertTrue(lock.tryLock(key, 100000));
+            Assert.assertFalse(lock.tryLock(key));
+            ports.add(cluster.execute("lock:" + key, jedis -> jedis.getClient().getPort()));
+            Assert.assertTrue(lock.unlock(key));
+        }
+        Assert.assertEquals(servers.getNodes().size(), ports.size());
+    }
+
+    @Test
+    public void fencedLocksDrawTokensInTheirSlot() {
+        SimpleRedisLock lock = new SimpleRedisLock(cluster);
+        for (String key : Arrays.asList("fenced:1", "fenced:2", "fenced:3", "{order:7}:fenced")) {
+            LockHandle first = lock.tryAcquire(key, 100000);
+            Assert.assertNotNull(key, first);
+            Assert.assertNull(lock.tryAcquire(key, 100000));
+            Assert.assertTrue(first.unlock());
+
+            LockHandle second = lock.tryAcquire(key, 100000);
+            Assert.assertNotNull(key, second);
+            Assert.assertTrue(second.getToken() > first.getToken());
+            Assert.assertTrue(second.unlock());
+        }
+    }
+
+    @Test
+    public void leasesOfManySlotsAreRenewed() throws Exception {
+        SimpleRedisLock lock = new SimpleRedisLock(cluster, 300);
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            keys.add("renewed:" + i);
+        }
+        for (String key : keys) {
+            Assert.assertTrue(lock.tryLock(key));
+        }
+        // several renewals of leases spread over the slots of every shard
+        Thread.sleep(1000L);
+        for (String key : keys) {
+            Assert.assertTrue(key, cluster.execute("lock:" + key, jedis -> jedis.pttl("lock:" + key)) > 0L);
+            Assert.assertTrue(key, lock.unlock(key));
+        }
+    }
+
+    @Test
+    public void lockAllGroupsKeysBySlot() throws Exception {
+        SimpleRedisLock lock = new SimpleRedisLock(cluster);
+        Assert.assertTrue(lock.tryLockAll(Arrays.asList("{order:1}:items", "{order:1}:payment", "order:2"), 100000));
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            Assert.assertFalse(executorService.submit(
+                    () -> lock.tryLockAll(Arrays.asList("order:3", "{order:1}:payment"), 100000)).get());
+            // the slot locked before the failure was released
+            Future<Boolean> other = executorService.submit(() -> lock.tryLock("order:3", 100000));
+            Assert.assertTrue(other.get());
+            Assert.assertTrue(executorService.submit(() -> lock.unlock("order:3")).get());
+        } finally {
+            executorService.shutdown();
+        }
+        Assert.assertTrue(lock.unlockAll(Arrays.asList("{order:1}:items", "{order:1}:payment", "order:2")));
+    }
+
+    @Test
+    public void movedSlotsAreFollowed() throws Exception {
+        SimpleRedisLock lock = new SimpleRedisLock(cluster);
+        String key = "cluster:moved";
+        int slot = RedisClusterRouter.slot("lock:" + key);
+        Assert.assertTrue(lock.tryLock(key, 100000));
+        Assert.assertTrue(lock.unlock(key));
+
+        int port = cluster.execute("lock:" + key, jedis -> jedis.getClient().getPort());
+        List<EmbeddedRedisServer> nodes = servers.getServers();
+        int target = port;
+        for (int i = 0; i < nodes.size(); i++) {
+            if (nodes.get(i).getPort() == port) {
+                target = nodes.get((i + 1) % nodes.size()).getPort();
+            }
+        }
+        assignSlot(slot, target);
+        try {
+            Assert.assertTrue(lock.tryLock(key, 100000));
+            Assert.assertEquals(target, (int) cluster.execute("lock:" + key, jedis -> jedis.getClient().getPort()));
+            Assert.assertTrue(lock.unlock(key));
+        } finally {
+            assignSlot(slot, port);
+        }
+    }
+
+    private static void assignSlot(int slot, int port) {
+        String nodeId = null;
+        try (Jedis jedis = new Jedis(servers.getServers().get(0).getHost(), port)) {
+            for (String node : jedis.clusterNodes().split("\n")) {
+                if (node.contains("myself")) {
+                    nodeId = node.substring(0, node.indexOf(' '));
+                }
+            }
+        }
+        for (HostAndPort node : servers.getNodes()) {
+            try (Jedis jedis = new Jedis(node.getHost(), node.getPort())) {
+                jedis.clusterSetSlotNode(slot, nodeId);
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.andyadc.lock.test;
+
+import com.andyadc.lock.LockResources;
+import com.andyadc.lock.RedisLeaderElector;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class RedisLeaderElectorTest {
+
+    private static EmbeddedRedisServer server;
+    private static JedisPool jedisPool;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        server = new EmbeddedRedisServer();
+        jedisPool = new JedisPool(new JedisPoolConfig(), server.getHost(), server.getPort());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        LockResources.release(jedisPool);
+        jedisPool.close();
+        server.close();
+    }
+
+    @Test
+    public void followersSeeTheLeaderWithoutAskingRedisAgain() throws Exception {
+        RedisLeaderElector first = new RedisLeaderElector("cached", "first", jedisPool, 10000);
+        RedisLeaderElector second = new RedisLeaderElector("cached", "second", jedisPool, 10000);
+
+        Assert.assertNull(second.getLeader());
+        Assert.assertTrue(first.nominateSelfForLeader());
+        Assert.assertTrue(first.nominateSelfForLeader());
+        Assert.assertTrue(first.isLeader());
+        Assert.assertFalse(second.nominateSelfForLeader());
+        Assert.assertEquals("first", awaitLeader(second, "first"));
+        long epoch = second.getEpoch();
+        Assert.assertTrue(epoch > 0L);
+
+        // the channel is subscribed by the first lookup, the cached leader is trusted from then on
+        Thread.sleep(200L);
+        Assert.assertEquals("first", second.getLeader());
+        long commands = server.getCommandCount();
+        Assert.assertEquals("first", second.getLeader());
+        Assert.assertEquals(epoch, second.getEpoch());
+        Assert.assertEquals(commands, server.getCommandCount());
+
+        CompletableFuture<Boolean> elected = CompletableFuture.supplyAsync(() -> {
+            try {
+                return second.nominateSelfForLeader(5L, TimeUnit.SECONDS) && second.isLeader();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(100L);
+        first.concede();
+        Assert.assertTrue(elected.get(2L, TimeUnit.SECONDS));
+        Assert.assertFalse(first.isLeader());
+        Assert.assertEquals("second", awaitLeader(first, "second"));
+        Assert.assertTrue(first.getEpoch() > epoch);
+
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void failedLeaderIsReplacedWithinItsLease() throws Exception {
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.set("election-epoch:failover", "41");
+            jedis.set("election:failover", "41|gone:1|failed", "NX", "PX", 300L);
+        }
+        RedisLeaderElector elector = new RedisLeaderElector("failover", "next", jedisPool, 10000);
+        Assert.assertEquals("failed", elector.getLeader());
+
+        long start = System.nanoTime();
+        Assert.assertTrue(elector.nominateSelfForLeader(2L, TimeUnit.SECONDS));
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1000L));
+        Assert.assertEquals(42L, elector.getEpoch());
+        Assert.assertEquals("next", elector.getLeader());
+
+        elector.concede();
+        Assert.assertNull(awaitLeader(elector, null));
+        elector.close();
+    }
+
+    @Test
+    public void onlyTheLeaderMayConcede() throws Exception {
+        RedisLeaderElector elector = new RedisLeaderElector("concede", "leader", jedisPool, 10000);
+        try {
+            elector.concede();
+            Assert.fail();
+        } catch (IllegalMonitorStateException expected) {
+        }
+        Assert.assertTrue(elector.nominateSelfForLeader());
+        try {
+            CompletableFuture.runAsync(elector::concede).get();
+            Assert.fail();
+        } catch (ExecutionException expected) {
+            Assert.assertTrue(expected.getCause() instanceof IllegalMonitorStateException);
+        }
+        elector.concede();
+        elector.close();
+    }
+
+    @Test
+    public void epochCountersAreNotElections() throws Exception {
+        RedisLeaderElector election = new RedisLeaderElector("keys", "leader", jedisPool, 10000);
+        RedisLeaderElector epochs = new RedisLeaderElector("epoch:keys", "leader", jedisPool, 10000);
+        Assert.assertTrue(election.nominateSelfForLeader());
+        Assert.assertTrue(epochs.nominateSelfForLeader());
+        long epoch = election.getEpoch();
+        election.concede();
+        Assert.assertTrue(election.nominateSelfForLeader());
+        Assert.assertEquals(epoch + 1, election.getEpoch());
+        election.concede();
+        epochs.concede();
+        election.close();
+        epochs.close();
+    }
+
+    private static String awaitLeader(RedisLeaderElector elector, String expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000L;
+        String leader = elector.getLeader();
+        while ((expected == null ? leader != null : !expected.equals(leader)) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+            leader = elector.getLeader();
+        }
+        return leader;
+    }
+}
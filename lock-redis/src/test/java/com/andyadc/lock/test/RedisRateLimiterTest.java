@@ -0,0 +1,89 @@
+package com.andyadc.lock.test;
+
+import com.andyadc.lock.LockResources;
+import com.andyadc.lock.RedisRateLimiter;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class RedisRateLimiterTest {
+
+    private static EmbeddedRedisServer server;
+    private static JedisPool jedisPool;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        server = new EmbeddedRedisServer();
+        jedisPool = new JedisPool(new JedisPoolConfig(), server.getHost(), server.getPort());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        LockResources.release(jedisPool);
+        jedisPool.close();
+        server.close();
+    }
+
+    @Test
+    public void bucketRefillsAtItsRate() throws Exception {
+        RedisRateLimiter limiter = new RedisRateLimiter("refill", jedisPool, 10L, 10.0);
+        RedisRateLimiter other = new RedisRateLimiter("refill", jedisPool, 10L, 10.0);
+
+        Assert.assertTrue(limiter.tryAcquire(6));
+        Assert.assertTrue(other.tryAcquire(4));
+        Assert.assertFalse(limiter.tryAcquire());
+        Assert.assertFalse(other.tryAcquire(1, 20L, TimeUnit.MILLISECONDS));
+
+        long start = System.nanoTime();
+        Assert.assertTrue(limiter.tryAcquire(2, 1L, TimeUnit.SECONDS));
+        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertTrue("waited " + waited, waited >= 150L && waited < 600L);
+        Assert.assertFalse(other.tryAcquire());
+    }
+
+    @Test
+    public void batchesCostOneRoundTripEach() {
+        // the script is loaded once for all
+        Assert.assertTrue(new RedisRateLimiter("warm-up", jedisPool, 1L, 1.0).tryAcquire());
+
+        RedisRateLimiter limiter = new RedisRateLimiter("batch", jedisPool, 100L, 1.0, 10);
+        RedisRateLimiter other = new RedisRateLimiter("batch", jedisPool, 100L, 1.0);
+        long scripts = server.getCommandCount("evalsha");
+        for (int i = 0; i < 50; i++) {
+            Assert.assertTrue(limiter.tryAcquire());
+        }
+        Assert.assertEquals(scripts + 5L, server.getCommandCount("evalsha"));
+
+        // the tokens taken ahead are gone from the bucket
+        Assert.assertTrue(other.tryAcquire(50));
+        Assert.assertFalse(other.tryAcquire());
+        Assert.assertFalse(limiter.tryAcquire(10));
+    }
+
+    @Test
+    public void bucketIsAHashDroppedOnceFullAgain() {
+        RedisRateLimiter limiter = new RedisRateLimiter("stored", jedisPool, 10L, 10.0);
+        Assert.assertTrue(limiter.tryAcquire(4));
+        try (Jedis jedis = jedisPool.getResource()) {
+            Map<String, String> bucket = jedis.hgetAll("rate-limit:stored");
+            Assert.assertEquals(bucket.toString(), 6.0, Double.parseDouble(bucket.get("tokens")), 0.5);
+            Assert.assertTrue(Long.parseLong(bucket.get("time")) > 0L);
+            long ttl = jedis.pttl("rate-limit:stored");
+            Assert.assertTrue("ttl " + ttl, ttl > 0L && ttl <= 1000L);
+
+            // the script refills from the stored state
+            jedis.hset("rate-limit:stored", "tokens", "0");
+            Assert.assertFalse(limiter.tryAcquire(5));
+            jedis.del("rate-limit:stored");
+            Assert.assertTrue(limiter.tryAcquire(10));
+        }
+    }
+}
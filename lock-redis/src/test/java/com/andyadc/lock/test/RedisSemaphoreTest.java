@@ -0,0 +1,73 @@
+package com.andyadc.lock.test;
+
+import com.andyadc.lock.LockResources;
+import com.andyadc.lock.RedisSemaphore;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class RedisSemaphoreTest {
+
+    private static EmbeddedRedisServer server;
+    private static JedisPool jedisPool;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        server = new EmbeddedRedisServer();
+        jedisPool = new JedisPool(new JedisPoolConfig(), server.getHost(), server.getPort());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        LockResources.release(jedisPool);
+        jedisPool.close();
+        server.close();
+    }
+
+    @Test
+    public void waiterGetsReleasedPermits() throws Exception {
+        RedisSemaphore semaphore = new RedisSemaphore(3, "permits", jedisPool);
+        Assert.assertTrue(semaphore.tryAcquire(2));
+        Assert.assertEquals(1, semaphore.availablePermits());
+        Assert.assertFalse(semaphore.tryAcquire(2));
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> waiter = executorService.submit(() -> semaphore.tryAcquire(3, 5, TimeUnit.SECONDS));
+            TimeUnit.MILLISECONDS.sleep(100);
+            Assert.assertFalse(waiter.isDone());
+            semaphore.release(2);
+            Assert.assertTrue(waiter.get(1, TimeUnit.SECONDS));
+            Assert.assertEquals(0, semaphore.availablePermits());
+        } finally {
+            semaphore.release(3);
+            executorService.shutdown();
+        }
+        Assert.assertEquals(3, semaphore.availablePermits());
+    }
+
+    @Test
+    public void expiredLeaseReturnsPermit() throws Exception {
+        RedisSemaphore semaphore = new RedisSemaphore(1, "permits:expired", jedisPool, 200);
+        semaphore.acquire();
+        // a crashed party: its lease is not renewed anymore
+        try (Jedis jedis = jedisPool.getResource()) {
+            String lease = jedis.zrange("semaphore:permits:expired", 0, 0).iterator().next();
+            jedis.zadd("semaphore:permits:expired", 0, lease);
+        }
+        Assert.assertTrue(semaphore.tryAcquire(1, TimeUnit.SECONDS));
+        // the expired lease is still counted as held locally
+        semaphore.release(2);
+        Assert.assertEquals(1, semaphore.availablePermits());
+    }
+}
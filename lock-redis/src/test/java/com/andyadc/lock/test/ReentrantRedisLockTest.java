@@ -0,0 +1,64 @@
+package com.andyadc.lock.test;
+
+import com.andyadc.lock.LockResources;
+import com.andyadc.lock.ReentrantRedisLock;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class ReentrantRedisLockTest {
+
+    private static EmbeddedRedisServer server;
+    private static JedisPool jedisPool;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        server = new EmbeddedRedisServer();
+        jedisPool = new JedisPool(new JedisPoolConfig(), server.getHost(), server.getPort());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        LockResources.release(jedisPool);
+        jedisPool.close();
+        server.close();
+    }
+
+    @Test
+    public void reentrantLockIsHeldUntilLastUnlock() throws Exception {
+        ReentrantRedisLock lock = new ReentrantRedisLock("reentrant", jedisPool);
+        lock.lock();
+        lock.lock();
+        Assert.assertTrue(lock.tryLock());
+        Assert.assertTrue(lock.hasLock());
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            lock.unlock();
+            lock.unlock();
+            Assert.assertFalse(executorService.submit(() -> lock.tryLock()).get());
+
+            Future<Boolean> waiter = executorService.submit(() -> lock.tryLock(5, TimeUnit.SECONDS));
+            lock.unlock();
+            Assert.assertFalse(lock.hasLock());
+            Assert.assertTrue(waiter.get(1, TimeUnit.SECONDS));
+        } finally {
+            executorService.submit(lock::unlock).get();
+            executorService.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalMonitorStateException.class)
+    public void unlockWithoutLockFails() {
+        new ReentrantRedisLock("reentrant:unowned", jedisPool).unlock();
+    }
+}
@@ -0,0 +1,144 @@
+package com.andyadc.lock.test;
+
+import com.andyadc.lock.LockResources;
+import com.andyadc.lock.ReentrantRedisReadWriteLock;
+import com.andyadc.lock.SimpleRedisLock;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class ReentrantRedisReadWriteLockTest {
+
+    private static EmbeddedRedisServer server;
+    private static JedisPool jedisPool;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        server = new EmbeddedRedisServer();
+        jedisPool = new JedisPool(new JedisPoolConfig(), server.getHost(), server.getPort());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        LockResources.release(jedisPool);
+        jedisPool.close();
+        server.close();
+    }
+
+    @Test
+    public void readersShareTheLock() throws Exception {
+        ReentrantRedisReadWriteLock lock = new ReentrantRedisReadWriteLock("rw:shared", jedisPool);
+        lock.readLock().lock();
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            Assert.assertTrue(executorService.submit(() -> lock.readLock().tryLock()).get());
+            Assert.assertFalse(lock.writeLock().tryLock());
+            executorService.submit(() -> lock.readLock().unlock()).get();
+        } finally {
+            lock.readLock().unlock();
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    public void waitingWriterHoldsNewReadersBack() throws Exception {
+        ReentrantRedisReadWriteLock lock = new ReentrantRedisReadWriteLock("rw:writer", jedisPool);
+        lock.readLock().lock();
+
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> write = writer.submit(() -> lock.writeLock().tryLock(5, TimeUnit.SECONDS));
+            TimeUnit.MILLISECONDS.sleep(200);
+            // the current reader can still come back, a new one has to wait for the writer
+            Assert.assertTrue(lock.readLock().tryLock());
+            lock.readLock().unlock();
+            Assert.assertFalse(reader.submit(() -> lock.readLock().tryLock()).get());
+
+            Future<Boolean> read = reader.submit(() -> lock.readLock().tryLock(5, TimeUnit.SECONDS));
+            lock.readLock().unlock();
+            Assert.assertTrue(write.get(1, TimeUnit.SECONDS));
+            Assert.assertFalse(read.isDone());
+
+            writer.submit(() -> lock.writeLock().unlock()).get();
+            Assert.assertTrue(read.get(1, TimeUnit.SECONDS));
+            reader.submit(() -> lock.readLock().unlock()).get();
+        } finally {
+            writer.shutdown();
+            reader.shutdown();
+        }
+    }
+
+    @Test
+    public void writeLockDowngradesToReadLock() throws Exception {
+        ReentrantRedisReadWriteLock lock = new ReentrantRedisReadWriteLock("rw:downgrade", jedisPool);
+        lock.writeLock().lock();
+        lock.readLock().lock();
+        lock.writeLock().unlock();
+        Assert.assertTrue(lock.readLock().hasLock());
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            Assert.assertFalse(executorService.submit(() -> lock.writeLock().tryLock()).get());
+            Assert.assertTrue(executorService.submit(() -> lock.readLock().tryLock()).get());
+            executorService.submit(() -> lock.readLock().unlock()).get();
+        } finally {
+            lock.readLock().unlock();
+            executorService.shutdown();
+        }
+        Assert.assertTrue(lock.writeLock().tryLock());
+        lock.writeLock().unlock();
+    }
+
+    @Test
+    public void downgradeIsNotHeldBackByLocalWaiters() throws Exception {
+        ReentrantRedisReadWriteLock lock = new ReentrantRedisReadWriteLock("rw:downgrade:waiter", jedisPool);
+        lock.writeLock().lock();
+
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        try {
+            // the waiting reader queues first in this JVM, and waits for the writer
+            Future<Boolean> read = reader.submit(() -> lock.readLock().tryLock(5, TimeUnit.SECONDS));
+            TimeUnit.MILLISECONDS.sleep(200);
+            Assert.assertFalse(read.isDone());
+
+            Assert.assertTrue(lock.readLock().tryLock(1, TimeUnit.SECONDS));
+            lock.writeLock().unlock();
+            Assert.assertTrue(read.get(1, TimeUnit.SECONDS));
+            reader.submit(() -> lock.readLock().unlock()).get();
+        } finally {
+            lock.readLock().unlock();
+            reader.shutdown();
+        }
+        Assert.assertTrue(lock.writeLock().tryLock());
+        lock.writeLock().unlock();
+    }
+
+    @Test
+    public void writersKeyIsNotALockKey() throws Exception {
+        SimpleRedisLock other = new SimpleRedisLock(jedisPool);
+        Assert.assertTrue(other.tryLock("writers:rw:keys", 100000));
+
+        ReentrantRedisReadWriteLock lock = new ReentrantRedisReadWriteLock("rw:keys", jedisPool);
+        lock.readLock().lock();
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        try {
+            // the writer registers as waiting, then times out
+            Assert.assertFalse(writer.submit(() -> lock.writeLock().tryLock(200, TimeUnit.MILLISECONDS)).get());
+        } finally {
+            writer.shutdown();
+        }
+        lock.readLock().unlock();
+        Assert.assertTrue(other.unlock("writers:rw:keys"));
+    }
+}
@@ -0,0 +1,72 @@
+package com.andyadc.lock.test;
+
+import com.andyadc.lock.LockResources;
+import com.andyadc.lock.SimpleRedisLock;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class ReleaseAllTest {
+
+    private static EmbeddedRedisServer server;
+    private static JedisPool jedisPool;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        server = new EmbeddedRedisServer();
+        jedisPool = new JedisPool(new JedisPoolConfig(), server.getHost(), server.getPort());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        LockResources.release(jedisPool);
+        jedisPool.close();
+        server.close();
+    }
+
+    @Test
+    public void releaseAllReleasesTheLocksOfEveryThread() throws Exception {
+        SimpleRedisLock lock = new SimpleRedisLock(jedisPool);
+        Assert.assertTrue(lock.tryLock("release:1", 100000));
+        Assert.assertTrue(lock.tryLock("release:2"));
+        Assert.assertTrue(lock.tryLockAll(Arrays.asList("release:3", "release:4"), 100000));
+        Assert.assertTrue(lock.tryLock("release:5", 100000));
+        Assert.assertTrue(lock.unlock("release:5"));
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            Assert.assertTrue(executorService.submit(() -> lock.tryLock("release:6", 100000)).get());
+        } finally {
+            executorService.shutdown();
+        }
+
+        Assert.assertEquals(5L, lock.releaseAll());
+        Assert.assertEquals(0L, lock.releaseAll());
+        SimpleRedisLock other = new SimpleRedisLock(jedisPool);
+        for (String key : Arrays.asList("release:1", "release:2", "release:3", "release:4", "release:6")) {
+            Assert.assertTrue(other.tryLock(key, 100000));
+            Assert.assertTrue(other.unlock(key));
+        }
+    }
+
+    @Test
+    public void releaseAllLeavesTheLocksLostMeanwhile() throws Exception {
+        SimpleRedisLock lock = new SimpleRedisLock(jedisPool);
+        SimpleRedisLock other = new SimpleRedisLock(jedisPool);
+        Assert.assertTrue(lock.tryLock("release:lost", 200));
+        Thread.sleep(300L);
+        Assert.assertTrue(other.tryLock("release:lost", 100000));
+
+        Assert.assertEquals(0L, lock.releaseAll());
+        Assert.assertFalse(lock.tryLock("release:lost", 100000));
+        Assert.assertTrue(other.unlock("release:lost"));
+    }
+}
@@ -0,0 +1,91 @@
+package com.andyadc.lock.test;
+
+import com.andyadc.lock.LockResources;
+import com.andyadc.lock.ReplicationPolicy;
+import com.andyadc.lock.SimpleRedisLock;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.io.IOException;
+
+public class ReplicationPolicyTest {
+
+    private static EmbeddedRedisServer server;
+    private static JedisPool jedisPool;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        server = new EmbeddedRedisServer();
+        jedisPool = new JedisPool(new JedisPoolConfig(), server.getHost(), server.getPort());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        LockResources.release(jedisPool);
+        jedisPool.close();
+        server.close();
+    }
+
+    @Test
+    public void unacknowledgedLockIsReleased() {
+        SimpleRedisLock lock = new SimpleRedisLock(jedisPool);
+        ReplicationPolicy policy = new ReplicationPolicy(connectedReplicas() + 1, 50);
+        lock.getReplicationPolicies().register("durable:", policy);
+
+        Assert.assertFalse(lock.tryLock("durable:order", 100000));
+        Assert.assertEquals(1L, policy.getFailures());
+        Assert.assertTrue(policy.getMaxWaitMillis() >= 40.0);
+
+        // other prefixes do not wait, and the released lock is free
+        Assert.assertTrue(lock.tryLock("order", 100000));
+        Assert.assertTrue(lock.unlock("order"));
+        lock.getReplicationPolicies().register("durable:", null);
+        Assert.assertTrue(lock.tryLock("durable:order", 100000));
+        Assert.assertTrue(lock.unlock("durable:order"));
+    }
+
+    @Test
+    public void acknowledgedLockIsGranted() throws Exception {
+        server.setReplicas(1);
+        int replicas = connectedReplicas();
+        SimpleRedisLock lock = new SimpleRedisLock(jedisPool);
+        ReplicationPolicy policy = new ReplicationPolicy(replicas, 1000);
+        lock.getReplicationPolicies().setDefault(policy);
+
+        Assert.assertTrue(lock.tryLock("durable:payment", 0L, 100000));
+        Assert.assertFalse(lock.tryLock("durable:payment", 100000));
+        Assert.assertEquals(1L, policy.getAcknowledged());
+        Assert.assertTrue(lock.unlock("durable:payment"));
+    }
+
+    @Test
+    public void heldLockIsNotWaitedFor() {
+        SimpleRedisLock holder = new SimpleRedisLock(jedisPool);
+        Assert.assertTrue(holder.tryLock("durable:held", 100000));
+        SimpleRedisLock lock = new SimpleRedisLock(jedisPool);
+        ReplicationPolicy policy = new ReplicationPolicy(connectedReplicas() + 1, 1000);
+        lock.getReplicationPolicies().setDefault(policy);
+
+        long waits = server.getCommandCount("wait");
+        Assert.assertFalse(lock.tryLock("durable:held", 100000));
+        Assert.assertEquals(waits, server.getCommandCount("wait"));
+        Assert.assertEquals(0L, policy.getFailures());
+        Assert.assertTrue(holder.unlock("durable:held"));
+    }
+
+    private static int connectedReplicas() {
+        try (Jedis jedis = jedisPool.getResource()) {
+            for (String line : jedis.info("replication").split("\r\n")) {
+                if (line.startsWith("connected_slaves:")) {
+                    return Integer.parseInt(line.substring("connected_slaves:".length()));
+                }
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,72 @@
+package com.andyadc.lock.test;
+
+import com.andyadc.lock.LockResources;
+import com.andyadc.lock.RedisScript;
+import com.andyadc.lock.ScriptRegistry;
+import com.andyadc.lock.SimpleRedisLock;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class ScriptRegistryTest {
+
+    private static EmbeddedRedisServer server;
+    private static final RedisScript ECHO = new RedisScript("echo", "return ARGV[1]");
+    private static JedisPool jedisPool;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        server = new EmbeddedRedisServer();
+        jedisPool = new JedisPool(new JedisPoolConfig(), server.getHost(), server.getPort());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        LockResources.release(jedisPool);
+        jedisPool.close();
+        server.close();
+    }
+
+    @Test
+    public void digestMatchesServer() {
+        RedisScript unlock = RedisScript.fromClasspath("unlock.lua");
+        try (Jedis jedis = jedisPool.getResource()) {
+            Assert.assertEquals(jedis.scriptLoad(unlock.getSource()), unlock.getSha1());
+        }
+    }
+
+    @Test
+    public void evalReloadsAfterScriptFlush() {
+        ScriptRegistry registry = ScriptRegistry.forPool(jedisPool);
+        Assert.assertEquals("a", registry.eval(ECHO, Collections.emptyList(), Collections.singletonList("a")));
+
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.scriptFlush();
+        }
+        Assert.assertEquals("b", registry.eval(ECHO, Collections.emptyList(), Collections.singletonList("b")));
+    }
+
+    @Test
+    public void lockPreloadsItsScripts() {
+        RedisScript lock = RedisScript.fromClasspath("lock.lua");
+        RedisScript unlock = RedisScript.fromClasspath("unlock.lua");
+        JedisPool pool = new JedisPool(new JedisPoolConfig(), server.getHost(), server.getPort());
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.scriptFlush();
+
+            new SimpleRedisLock(pool);
+            Assert.assertEquals(Arrays.asList(true, true), jedis.scriptExists(lock.getSha1(), unlock.getSha1()));
+        } finally {
+            LockResources.release(pool);
+            pool.close();
+        }
+    }
+}
@@ -1,18 +1,25 @@
 package com.andyadc.lock.test;
 
+import com.andyadc.lock.LockHandle;
 import com.andyadc.lock.SimpleRedisLock;
 import org.databene.contiperf.PerfTest;
 import org.databene.contiperf.junit.ContiPerfRule;
+import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -22,11 +29,9 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 public class SimpleRedisLockTest {
 
-    private static final String QQ_SERVER = "www.qq-server.com";
-    private static final String LOCK_SERVER = "127.0.0.1";
-    private static final int REDIS_PORT = 6377;
     private static final AtomicInteger num = new AtomicInteger(0);
     private static final JedisPoolConfig config;
+    private static final EmbeddedRedisServer server;
     private static JedisPool jedisPool;
 
     static {
@@ -34,7 +39,13 @@ public class SimpleRedisLockTest {
         config.setMaxTotal(30);
         config.setMaxIdle(10);
 
-        jedisPool = new JedisPool(config, QQ_SERVER, REDIS_PORT, 30000, "andyadc");
+        // runs against a redis-server started for the test
+        try {
+            server = new EmbeddedRedisServer();
+        } catch (IOException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+        jedisPool = new JedisPool(config, server.getHost(), server.getPort());
     }
 
     @Rule
@@ -73,6 +84,130 @@ public class SimpleRedisLockTest {
         System.out.println(lock.unlock("adc"));
     }
 
+    @Test
+    public void lockWaitsForRelease() throws Exception {
+        SimpleRedisLock holder = new SimpleRedisLock(jedisPool);
+        Assert.assertTrue(holder.tryLock("adc:wait", 0L, 100000));
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        Future<Boolean> waiter = executorService.submit(
+                () -> new SimpleRedisLock(jedisPool).tryLock("adc:wait", 10000L, 100000));
+        TimeUnit.MILLISECONDS.sleep(500);
+        Assert.assertFalse(waiter.isDone());
+
+        Assert.assertTrue(holder.unlock("adc:wait"));
+        Assert.assertTrue(waiter.get(1, TimeUnit.SECONDS));
+        executorService.shutdown();
+    }
+
+    @Test
+    public void lockRenewsLease() throws Exception {
+        SimpleRedisLock lock = new SimpleRedisLock(jedisPool, 1000);
+        Assert.assertTrue(lock.tryLock("adc:lease"));
+
+        // held well past its lease
+        TimeUnit.SECONDS.sleep(3);
+        Assert.assertFalse(new SimpleRedisLock(jedisPool).tryLock("adc:lease", 100));
+        Assert.assertTrue(lock.unlock("adc:lease"));
+    }
+
+    @Test
+    public void leaseIsRenewedAfterScriptFlush() throws Exception {
+        SimpleRedisLock lock = new SimpleRedisLock(jedisPool, 300);
+        Assert.assertTrue(lock.tryLock("adc:lease:flushed"));
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.scriptFlush();
+        }
+
+        // the renewals load the script again
+        TimeUnit.SECONDS.sleep(1);
+        Assert.assertFalse(new SimpleRedisLock(jedisPool).tryLock("adc:lease:flushed", 100));
+        Assert.assertTrue(lock.unlock("adc:lease:flushed"));
+    }
+
+    @Test
+    public void lockAllOrNone() throws Exception {
+        SimpleRedisLock lock = new SimpleRedisLock(jedisPool);
+        Assert.assertTrue(lock.tryLockAll(Arrays.asList("adc:a", "adc:b"), 100000));
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        SimpleRedisLock other = executorService.submit(() -> new SimpleRedisLock(jedisPool)).get();
+        executorService.shutdown();
+        Assert.assertFalse(other.tryLockAll(Arrays.asList("adc:c", "adc:b"), 100000));
+        Assert.assertTrue(other.tryLock("adc:c", 100000));
+
+        Assert.assertTrue(lock.unlockAll(Arrays.asList("adc:a", "adc:b")));
+        Assert.assertTrue(other.unlock("adc:c"));
+    }
+
+    @Test
+    public void fencingTokensIncrease() throws Exception {
+        SimpleRedisLock lock = new SimpleRedisLock(jedisPool);
+        LockHandle first = lock.tryAcquire("adc:fence", 100000);
+        Assert.assertNotNull(first);
+        Assert.assertNull(lock.tryAcquire("adc:fence", 100000));
+        Assert.assertTrue(first.unlock());
+
+        try (LockHandle second = lock.tryAcquire("adc:fence", 0L, 100000)) {
+            Assert.assertNotNull(second);
+            Assert.assertTrue(second.getToken() > first.getToken());
+        }
+        Assert.assertTrue(lock.tryLock("adc:fence", 100000));
+        Assert.assertTrue(lock.unlock("adc:fence"));
+    }
+
+    @Test
+    public void fenceCountersAreNotLockKeys() throws Exception {
+        SimpleRedisLock lock = new SimpleRedisLock(jedisPool);
+        try (LockHandle handle = lock.tryAcquire("x", 100000)) {
+            Assert.assertNotNull(handle);
+        }
+        Assert.assertTrue(lock.tryLock("fence:x", 100000));
+        try (LockHandle handle = lock.tryAcquire("x", 100000)) {
+            Assert.assertNotNull(handle);
+        }
+        Assert.assertTrue(lock.unlock("fence:x"));
+    }
+
+    @Test
+    public void lockIsOwnedByThread() throws Exception {
+        SimpleRedisLock lock = new SimpleRedisLock(jedisPool);
+        Assert.assertTrue(lock.tryLock("adc:thread", 100000));
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        Assert.assertFalse(executorService.submit(() -> lock.tryLock("adc:thread", 100000)).get());
+        Assert.assertFalse(executorService.submit(() -> lock.unlock("adc:thread")).get());
+        executorService.shutdown();
+        Assert.assertTrue(lock.unlock("adc:thread"));
+    }
+
+    @Test
+    public void binaryKeysMatchStringKeys() throws Exception {
+        SimpleRedisLock lock = new SimpleRedisLock(jedisPool);
+        byte[] key = "adc:bytes".getBytes(StandardCharsets.UTF_8);
+        Assert.assertTrue(lock.tryLock(key, 100000));
+        Assert.assertFalse(lock.tryLock("adc:bytes", 100000));
+        Assert.assertTrue(lock.unlock(key));
+        Assert.assertTrue(lock.tryLock("adc:bytes", 100000));
+        Assert.assertTrue(lock.unlock(key));
+    }
+
+    @Test
+    public void asyncLockWaitsForRelease() throws Exception {
+        SimpleRedisLock holder = new SimpleRedisLock(jedisPool);
+        SimpleRedisLock waiter = new SimpleRedisLock(jedisPool);
+        Assert.assertTrue(holder.tryLockAsync("adc:async", 100000).get());
+        Assert.assertFalse(waiter.tryLockAsync("adc:async", 100000).get());
+
+        CompletableFuture<Boolean> acquired = waiter.tryLockAsync("adc:async", 5000L, 100000);
+        TimeUnit.MILLISECONDS.sleep(100);
+        Assert.assertFalse(acquired.isDone());
+        Assert.assertTrue(holder.unlockAsync("adc:async").get());
+        Assert.assertTrue(acquired.get(1, TimeUnit.SECONDS));
+        Assert.assertFalse(holder.tryLockAsync("adc:async", 100L, 100000).get());
+        Assert.assertTrue(waiter.unlockAsync("adc:async").get());
+    }
+
     static class Locker implements Runnable {
 
         private JedisPool jedisPool;
@@ -0,0 +1,130 @@
+package com.andyadc.lock.test;
+
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A Redis Cluster of {@link EmbeddedRedisServer} masters on free ports of the loopback interface, the 16384 slots
+ * split evenly among them. The constructor returns once every node reports the cluster as ok.
+ */
+public final class EmbeddedRedisCluster implements Closeable {
+
+    private static final int SLOTS = 16384;
+    private static final long STARTUP_TIMEOUT_MILLIS = 10000L;
+    /**
+     * The ports of the nodes, below the ephemeral ones and low enough for their cluster bus ports
+     */
+    private static final int FIRST_PORT = 20000;
+    private static final int PORT_RANGE = 10000;
+    private static final int BUS_PORT_OFFSET = 10000;
+
+    private final List<EmbeddedRedisServer> servers = new ArrayList<>();
+
+    /**
+     * @param masters the number of masters
+     */
+    public EmbeddedRedisCluster(int masters) throws IOException {
+        if (masters <= 0) {
+            throw new IllegalArgumentException("masters must be positive: " + masters);
+        }
+        try {
+            for (int i = 0; i < masters; i++) {
+                servers.add(new EmbeddedRedisServer(freePort(), "--cluster-enabled", "yes",
+                        "--cluster-config-file", "nodes.conf", "--cluster-node-timeout", "5000"));
+            }
+            EmbeddedRedisServer first = servers.get(0);
+            for (int i = 0; i < masters; i++) {
+                EmbeddedRedisServer server = servers.get(i);
+                try (Jedis jedis = new Jedis(server.getHost(), server.getPort())) {
+                    int from = SLOTS * i / masters;
+                    int to = SLOTS * (i + 1) / masters;
+                    int[] slots = new int[to - from];
+                    for (int slot = from; slot < to; slot++) {
+                        slots[slot - from] = slot;
+                    }
+                    jedis.clusterAddSlots(slots);
+                    if (server != first) {
+                        jedis.clusterMeet(first.getHost(), first.getPort());
+                    }
+                }
+            }
+            awaitClusterOk();
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the address of every master
+     */
+    public Set<HostAndPort> getNodes() {
+        Set<HostAndPort> nodes = new LinkedHashSet<>();
+        for (EmbeddedRedisServer server : servers) {
+            nodes.add(new HostAndPort(server.getHost(), server.getPort()));
+        }
+        return Collections.unmodifiableSet(nodes);
+    }
+
+    /**
+     * @return the masters, in the order of their slots
+     */
+    public List<EmbeddedRedisServer> getServers() {
+        return Collections.unmodifiableList(servers);
+    }
+
+    @Override
+    public void close() {
+        for (EmbeddedRedisServer server : servers) {
+            server.close();
+        }
+        servers.clear();
+    }
+
+    /**
+     * @return a free port whose cluster bus port, 10000 above, is free as well
+     */
+    private static int freePort() throws IOException {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            int port = FIRST_PORT + ThreadLocalRandom.current().nextInt(PORT_RANGE);
+            try (ServerSocket client = new ServerSocket(port, 1, InetAddress.getLoopbackAddress());
+                 ServerSocket bus = new ServerSocket(port + BUS_PORT_OFFSET, 1, InetAddress.getLoopbackAddress())) {
+                return port;
+            } catch (IOException e) {
+                // taken, try another one
+            }
+        }
+        throw new IOException("No free port pair for a cluster node");
+    }
+
+    private void awaitClusterOk() throws IOException {
+        long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MILLIS;
+        for (EmbeddedRedisServer server : servers) {
+            try (Jedis jedis = new Jedis(server.getHost(), server.getPort())) {
+                while (!jedis.clusterInfo().contains("cluster_state:ok")
+                        || !jedis.clusterInfo().contains("cluster_known_nodes:" + servers.size())) {
+                    if (System.currentTimeMillis() > deadline) {
+                        throw new IOException("Cluster not ok: " + jedis.clusterInfo());
+                    }
+                    try {
+                        Thread.sleep(50L);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while waiting for the cluster", e);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.andyadc.lock.test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * A real Redis server, run as a child process on a free port of the loopback interface, so that the tests and the
+ * benchmarks of the locks run on a bare box. Scripts run in the Lua interpreter of Redis, exactly as in production.
+ * <p>
+ * The {@code redis-server} executable is the one given by the {@code lock.redis.server} system property, or else the
+ * one bundled by {@code com.github.codemonstur:embedded-redis} for the platform, extracted once to a temporary file.
+ * The server neither saves nor appends to a file; it is killed with the JVM if not closed before.
+ * <p>
+ * Replicas are started on demand, see {@link #setReplicas}, and {@link EmbeddedRedisCluster} builds a cluster of such
+ * servers. Latency is injected by a {@link LatencyProxy} in front of the server.
+ */
+public final class EmbeddedRedisServer implements Closeable {
+
+    private static final String HOST = "127.0.0.1";
+    private static final long STARTUP_TIMEOUT_MILLIS = 10000L;
+
+    private static File executable;
+
+    private final int port;
+    private final Path dir;
+    private final Process process;
+    private final Thread killer;
+    private final Jedis admin;
+    private final List<EmbeddedRedisServer> replicas = new ArrayList<>();
+
+    /*guarded by this*/
+    private long adminCommands;
+
+    /**
+     * Starts a server on a free port of the loopback interface.
+     */
+    public EmbeddedRedisServer() throws IOException {
+        this(0);
+    }
+
+    /**
+     * Starts a server on the given port of the loopback interface.
+     *
+     * @param port      the port to listen to, 0 for any free port
+     * @param arguments more arguments of redis-server, e.g. {@code "--cluster-enabled", "yes"}
+     */
+    public EmbeddedRedisServer(int port, String... arguments) throws IOException {
+        this.port = port > 0 ? port : freePort();
+        this.dir = Files.createTempDirectory("embedded-redis-");
+
+        List<String> command = new ArrayList<>(Arrays.asList(executable().getAbsolutePath(),
+                "--port", String.valueOf(this.port), "--bind", HOST, "--dir", dir.toString(),
+                "--save", "", "--appendonly", "no", "--daemonize", "no"));
+        command.addAll(Arrays.asList(arguments));
+        File log = dir.resolve("redis.log").toFile();
+        this.process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log).start();
+        this.killer = new Thread(process::destroyForcibly, "embedded-redis-killer-" + this.port);
+        Runtime.getRuntime().addShutdownHook(killer);
+        try {
+            this.admin = connect(log);
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    public String getHost() {
+        return HOST;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Starts or stops replicas of this server until it has the given number, none by default, and waits for them to
+     * be in sync. Stopped replicas are disconnected at once, so that WAIT for more replicas than that returns once
+     * its timeout elapsed.
+     */
+    public synchronized void setReplicas(int count) throws IOException {
+        while (replicas.size() > count) {
+            replicas.remove(replicas.size() - 1).close();
+        }
+        while (replicas.size() < count) {
+            replicas.add(new EmbeddedRedisServer(0, "--replicaof", HOST, String.valueOf(port)));
+        }
+        long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MILLIS;
+        while (onlineReplicas() != count) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IOException("Replicas of " + HOST + ":" + port + " not in sync");
+            }
+            sleep(10L);
+        }
+    }
+
+    /**
+     * @return the number of commands processed on behalf of the clients so far, including those run by scripts
+     * and the acknowledgements of the replicas
+     */
+    public synchronized long getCommandCount() {
+        // the INFO being run is not counted yet
+        long before = adminCommands;
+        return stat(admin("stats"), "total_commands_processed:", "\r\n") - before;
+    }
+
+    /**
+     * @param command the name of a command, e.g. {@code "evalsha"}
+     * @return the number of times the command was called so far, by the clients or by scripts, INFO aside
+     */
+    public synchronized long getCommandCount(String command) {
+        return stat(admin("commandstats"), "cmdstat_" + command.toLowerCase(Locale.ROOT) + ":calls=", ",");
+    }
+
+    /**
+     * Removes every key.
+     */
+    public synchronized void flushAll() {
+        admin.flushAll();
+        adminCommands++;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (EmbeddedRedisServer replica : replicas) {
+            replica.close();
+        }
+        replicas.clear();
+        if (admin != null) {
+            admin.close();
+        }
+        process.destroy();
+        try {
+            if (!process.waitFor(STARTUP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                process.destroyForcibly();
+            }
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(killer);
+        } catch (IllegalStateException ignored) {
+            // the JVM is shutting down, the hook runs anyway
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Waits for the server to answer a PING, and returns the connection.
+     */
+    private Jedis connect(File log) throws IOException {
+        long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MILLIS;
+        while (true) {
+            if (!process.isAlive() || System.currentTimeMillis() > deadline) {
+                throw new IOException("Redis server did not start on " + HOST + ":" + port + ": "
+                        + new String(Files.readAllBytes(log.toPath()), StandardCharsets.UTF_8));
+            }
+            Jedis jedis = new Jedis(HOST, port);
+            try {
+                jedis.ping();
+                adminCommands++;
+                return jedis;
+            } catch (JedisConnectionException e) {
+                jedis.close();
+                sleep(10L);
+            }
+        }
+    }
+
+    /**
+     * Runs INFO on the admin connection, which is not counted as a command of the clients.
+     */
+    private String admin(String section) {
+        String info = admin.info(section);
+        adminCommands++;
+        return info;
+    }
+
+    private long stat(String info, String prefix, String suffix) {
+        int start = info.indexOf(prefix);
+        if (start < 0) {
+            return 0L;
+        }
+        start += prefix.length();
+        return Long.parseLong(info.substring(start, info.indexOf(suffix, start)));
+    }
+
+    private int onlineReplicas() {
+        String info = admin("replication");
+        int online = 0;
+        for (int i = info.indexOf("state=online"); i >= 0; i = info.indexOf("state=online", i + 1)) {
+            online++;
+        }
+        return (int) Math.min(online, stat(info, "connected_slaves:", "\r\n"));
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for Redis", e);
+        }
+    }
+
+    private static synchronized File executable() throws IOException {
+        if (executable != null) {
+            return executable;
+        }
+        String path = System.getProperty("lock.redis.server");
+        if (path != null) {
+            executable = new File(path);
+            return executable;
+        }
+        String name = bundledExecutable();
+        try (InputStream in = EmbeddedRedisServer.class.getResourceAsStream("/" + name)) {
+            if (in == null) {
+                throw new IOException("No " + name + " on the class path, set lock.redis.server to a redis-server");
+            }
+            File file = File.createTempFile("redis-server-", name.endsWith(".exe") ? ".exe" : "");
+            file.deleteOnExit();
+            Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            if (!file.setExecutable(true)) {
+                throw new IOException("Cannot make " + file + " executable");
+            }
+            executable = file;
+            return executable;
+        }
+    }
+
+    /**
+     * @return the name of the executable bundled by embedded-redis for this platform
+     */
+    private static String bundledExecutable() {
+        String os = System.getProperty("os.name").toLowerCase(Locale.ROOT);
+        String arch = System.getProperty("os.arch").toLowerCase(Locale.ROOT);
+        boolean arm = arch.contains("aarch64") || arch.contains("arm");
+        if (os.contains("win")) {
+            return "redis-server-5.0.14.1-windows-amd64.exe";
+        }
+        if (os.contains("mac")) {
+            return arm ? "redis-server-6.2.6-v5-darwin-arm64" : "redis-server-6.2.6-v5-darwin-amd64";
+        }
+        if (arm) {
+            return "redis-server-6.2.7-linux-arm64";
+        }
+        return arch.contains("64") ? "redis-server-6.2.6-v5-linux-amd64" : "redis-server-6.2.7-linux-386";
+    }
+}
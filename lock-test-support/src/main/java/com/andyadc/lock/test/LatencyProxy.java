@@ -0,0 +1,130 @@
+package com.andyadc.lock.test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A TCP proxy on a free port of the loopback interface, which forwards to a Redis server after a configurable
+ * latency, see {@link #setLatency}. The latency is spent once per write of the client, so once per round trip: the
+ * commands pipelined behind the first one do not wait again. Replies and published messages are not delayed.
+ */
+public final class LatencyProxy implements Closeable {
+
+    private final String host;
+    private final int port;
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+
+    private volatile long latencyNanos;
+    private volatile boolean closed;
+
+    /**
+     * @param host the host of the Redis server
+     * @param port the port of the Redis server
+     */
+    public LatencyProxy(String host, int port) throws IOException {
+        this.host = host;
+        this.port = port;
+        this.serverSocket = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "latency-proxy-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.execute(this::accept);
+    }
+
+    public String getHost() {
+        return serverSocket.getInetAddress().getHostAddress();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Sets the latency added to every round trip, none by default.
+     */
+    public void setLatency(long latency, TimeUnit unit) {
+        this.latencyNanos = unit.toNanos(latency);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        closeQuietly(serverSocket);
+        for (Socket socket : sockets) {
+            closeQuietly(socket);
+        }
+        executor.shutdown();
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket client = serverSocket.accept();
+                Socket server = new Socket(host, port);
+                client.setTcpNoDelay(true);
+                server.setTcpNoDelay(true);
+                sockets.add(client);
+                sockets.add(server);
+                executor.execute(() -> forward(client, server, true));
+                executor.execute(() -> forward(server, client, false));
+            } catch (IOException e) {
+                if (!closed) {
+                    throw new IllegalStateException("Latency proxy to " + host + ":" + port + " failed", e);
+                }
+            }
+        }
+    }
+
+    private void forward(Socket from, Socket to, boolean delayed) {
+        byte[] buffer = new byte[8192];
+        try {
+            InputStream in = from.getInputStream();
+            OutputStream out = to.getOutputStream();
+            for (int read; (read = in.read(buffer)) >= 0; ) {
+                if (delayed) {
+                    delay();
+                }
+                out.write(buffer, 0, read);
+                out.flush();
+            }
+        } catch (IOException ignored) {
+            // either side closed
+        } finally {
+            sockets.remove(from);
+            sockets.remove(to);
+            closeQuietly(from);
+            closeQuietly(to);
+        }
+    }
+
+    private void delay() {
+        long deadline = System.nanoTime() + latencyNanos;
+        for (long left = latencyNanos; left > 0L; left = deadline - System.nanoTime()) {
+            LockSupport.parkNanos(left);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+}